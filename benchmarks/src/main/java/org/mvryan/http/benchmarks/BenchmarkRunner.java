@@ -0,0 +1,44 @@
+package org.mvryan.http.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Runs the benchmarks with the GC profiler always on, so every result
+ * comes with its allocation rate in bytes per operation
+ * (gc.alloc.rate.norm) next to the time.  Takes the usual JMH command
+ * line, for instance a regular expression selecting benchmarks:
+ *
+ *   java -jar benchmarks/target/benchmarks.jar HttpRequestParse
+ */
+public class BenchmarkRunner
+{
+    public static void main(final String[] args) throws RunnerException, CommandLineOptionException
+    {
+        quietLogging();
+        final Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+    /**
+     * Without a logback configuration everything logs at debug, which
+     * would be measured along with the code.  Called from each
+     * benchmark's setup too, since forked JVMs don't run main.
+     */
+    public static void quietLogging()
+    {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+}
@@ -0,0 +1,77 @@
+package org.mvryan.http.benchmarks;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+
+import org.mvryan.http.modules.HttpServerModule;
+import org.mvryan.http.server.HttpServer;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+
+/**
+ * Runs a server in this JVM, on its own thread, for benchmarks that
+ * load it over real sockets.
+ */
+public class InProcessServer
+{
+    private static final long START_TIMEOUT_MILLIS = 60000;
+
+    /**
+     * @param config settings overriding the server's configuration, by
+     *        full key
+     * @return the server, once it accepts connections
+     */
+    public static HttpServer start(final Map<String, String> config, final int port) throws InterruptedException
+    {
+        final HttpServer server = new HttpServer(Modules.override(new HttpServerModule()).with(new AbstractModule()
+        {
+            @Override protected void configure()
+            {
+                for (final Map.Entry<String, String> entry : config.entrySet())
+                {
+                    bind(String.class).annotatedWith(Names.named(entry.getKey())).toInstance(entry.getValue());
+                }
+            }
+        }));
+        final Thread serverThread = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                server.start(port);
+            }
+        }, "http-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        // start() doesn't return while the server runs, so wait until it
+        // accepts connections
+        final long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+        while (true)
+        {
+            try (final Socket probe = new Socket("localhost", port))
+            {
+                return server;
+            }
+            catch (IOException e)
+            {
+                if (System.currentTimeMillis() > deadline)
+                {
+                    throw new IllegalStateException("Server did not start on port " + port, e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    public static int freePort() throws IOException
+    {
+        try (final ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+}
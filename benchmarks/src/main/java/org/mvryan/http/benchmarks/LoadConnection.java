@@ -0,0 +1,222 @@
+package org.mvryan.http.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import lombok.Getter;
+
+/**
+ * A minimal blocking HTTP/1.1 client connection for the load generator.
+ * Sends requests encoded up front and reads each response through to
+ * the end of its body, discarding the body, so a request costs the
+ * client next to nothing beyond the socket calls.
+ *
+ * With keep-alive the socket is reused until the server closes it or
+ * says it will; otherwise every request gets its own connection.
+ */
+public class LoadConnection implements Closeable
+{
+    private final InetSocketAddress address;
+    private final byte[] skipBuffer = new byte[64 * 1024];
+    private final StringBuilder line = new StringBuilder();
+
+    private Socket socket = null;
+    private InputStream in = null;
+    private OutputStream out = null;
+    private boolean reused = false;
+
+    @Getter
+    private int status;
+    @Getter
+    private long bodyBytes;
+    @Getter
+    private long connects = 0;
+
+    public LoadConnection(final InetSocketAddress address)
+    {
+        this.address = address;
+    }
+
+    /**
+     * Sends a request and reads its whole response.  A request on a
+     * reused connection that fails before any response arrives is
+     * retried once on a new connection, since the server may have
+     * closed the idle connection at the same moment.
+     *
+     * @param request a complete request head
+     * @param keepalive whether the request asks to keep the connection open
+     */
+    public void send(final byte[] request, final boolean keepalive) throws IOException
+    {
+        try
+        {
+            exchange(request, keepalive);
+        }
+        catch (IOException e)
+        {
+            final boolean retry = reused && 0 == status;
+            close();
+            if (! retry)
+            {
+                throw e;
+            }
+            exchange(request, keepalive);
+        }
+    }
+
+    private void exchange(final byte[] request, final boolean keepalive) throws IOException
+    {
+        if (null == socket)
+        {
+            connect();
+        }
+        status = 0;
+        bodyBytes = 0;
+        out.write(request);
+        out.flush();
+
+        final String statusLine = readLine();
+        if (statusLine.length() < 12 || ! statusLine.startsWith("HTTP/1."))
+        {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        status = Integer.parseInt(statusLine.substring(9, 12));
+
+        long contentLength = -1;
+        boolean chunked = false;
+        boolean close = ! keepalive;
+        String header;
+        while (! (header = readLine()).isEmpty())
+        {
+            final int colon = header.indexOf(':');
+            if (colon < 0)
+            {
+                continue;
+            }
+            final String name = header.substring(0, colon).trim();
+            final String value = header.substring(colon + 1).trim();
+            if ("Content-Length".equalsIgnoreCase(name))
+            {
+                contentLength = Long.parseLong(value);
+            }
+            else if ("Transfer-Encoding".equalsIgnoreCase(name))
+            {
+                chunked = "chunked".equalsIgnoreCase(value);
+            }
+            else if ("Connection".equalsIgnoreCase(name))
+            {
+                close |= "close".equalsIgnoreCase(value);
+            }
+        }
+
+        if (chunked)
+        {
+            long chunkSize;
+            while (0 != (chunkSize = parseChunkSize(readLine())))
+            {
+                skip(chunkSize);
+                readLine();
+            }
+            // Trailers, if any
+            while (! readLine().isEmpty());
+        }
+        else if (contentLength > 0)
+        {
+            skip(contentLength);
+        }
+        else if (contentLength < 0 && 304 != status)
+        {
+            // Delimited by the end of the connection
+            close = true;
+            int read;
+            while ((read = in.read(skipBuffer)) >= 0)
+            {
+                bodyBytes += read;
+            }
+        }
+
+        if (close)
+        {
+            close();
+        }
+        else
+        {
+            reused = true;
+        }
+    }
+
+    private void connect() throws IOException
+    {
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(address);
+        in = new BufferedInputStream(socket.getInputStream(), skipBuffer.length);
+        out = socket.getOutputStream();
+        reused = false;
+        connects++;
+    }
+
+    private void skip(long length) throws IOException
+    {
+        while (length > 0)
+        {
+            final int read = in.read(skipBuffer, 0, (int) Math.min(length, skipBuffer.length));
+            if (read < 0)
+            {
+                throw new EOFException("Connection closed with " + length + " bytes of the body unread");
+            }
+            length -= read;
+            bodyBytes += read;
+        }
+    }
+
+    private String readLine() throws IOException
+    {
+        line.setLength(0);
+        int c;
+        while ('\n' != (c = in.read()))
+        {
+            if (c < 0)
+            {
+                throw new EOFException("Connection closed mid-response");
+            }
+            if ('\r' != c)
+            {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    private static long parseChunkSize(final String sizeLine)
+    {
+        final int extension = sizeLine.indexOf(';');
+        return Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+    }
+
+    @Override
+    public void close()
+    {
+        if (null != socket)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // Nothing left to read from it anyway
+            }
+        }
+        socket = null;
+        in = null;
+        out = null;
+        reused = false;
+    }
+}
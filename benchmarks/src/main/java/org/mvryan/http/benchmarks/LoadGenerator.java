@@ -0,0 +1,435 @@
+package org.mvryan.http.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.server.HttpServer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Drives a server with GET requests for generated files and reports
+ * throughput and latency percentiles.
+ *
+ * Each connection is worked by its own thread.  In closed-loop mode (no
+ * rate) a connection sends its next request as soon as the last one
+ * completes, which measures capacity.  In open-loop mode requests are
+ * due at a fixed rate regardless of how the server keeps up, and each
+ * latency is measured from when the request was due rather than when it
+ * was sent, so a stalled server is charged for every request it delayed
+ * (no coordinated omission).
+ *
+ * Without --target a server is started in this JVM on a free port, on a
+ * generated document root.  With --target the files are generated in
+ * --docroot, which should be the target server's document root.
+ *
+ *   java -cp benchmarks/target/benchmarks.jar org.mvryan.http.benchmarks.LoadGenerator --connections 64 --rate 20000
+ */
+public class LoadGenerator
+{
+    private static final String CONFIG_PREFIX = "org.mvryan.simple-http.";
+    private static final String LOAD_DIRECTORY = "load";
+
+    private String target = null;
+    private String mode = HttpServer.MODE_NIO;
+    private int connections = 16;
+    private double rate = 0;
+    private int durationSeconds = 30;
+    private int warmupSeconds = 5;
+    private boolean keepalive = true;
+    private String mix = "1k:60,16k:30,1m:10";
+    private int filesPerSize = 10;
+    private String docroot = null;
+    private String histogramFile = null;
+    private final Map<String, String> config = Maps.newHashMap();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong connects = new AtomicLong();
+
+    public static void main(final String[] args) throws Exception
+    {
+        final LoadGenerator generator = new LoadGenerator();
+        try
+        {
+            generator.parse(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.err.println(e.getMessage());
+            usage(System.err);
+            System.exit(1);
+        }
+        generator.run();
+    }
+
+    private static void usage(final PrintStream out)
+    {
+        out.println("Options:");
+        out.println("  --target host:port    server to load; by default one is started in this JVM");
+        out.println("  --mode nio|blocking   server mode of the in-process server (nio)");
+        out.println("  --set key=value       other configuration of the in-process server, e.g. cache-enabled=true");
+        out.println("  --connections n       concurrent connections (16)");
+        out.println("  --rate r              requests per second over all connections; 0 runs closed-loop (0)");
+        out.println("  --duration s          seconds measured (30)");
+        out.println("  --warmup s            seconds run before measuring (5)");
+        out.println("  --close               a new connection for every request instead of keep-alive");
+        out.println("  --mix size:weight,... file sizes requested and their weights (1k:60,16k:30,1m:10)");
+        out.println("  --files n             files generated per size (10)");
+        out.println("  --docroot dir         where to generate files; a temporary directory by default");
+        out.println("  --histogram file      also write the full latency distribution, in microseconds");
+    }
+
+    private void parse(final String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            final String option = args[i];
+            if ("--help".equals(option))
+            {
+                usage(System.out);
+                System.exit(0);
+            }
+            if ("--close".equals(option))
+            {
+                keepalive = false;
+                continue;
+            }
+            if (i + 1 >= args.length)
+            {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            final String value = args[++i];
+            switch (option)
+            {
+                case "--target": target = value; break;
+                case "--mode": mode = value; break;
+                case "--connections": connections = Integer.parseInt(value); break;
+                case "--rate": rate = Double.parseDouble(value); break;
+                case "--duration": durationSeconds = Integer.parseInt(value); break;
+                case "--warmup": warmupSeconds = Integer.parseInt(value); break;
+                case "--mix": mix = value; break;
+                case "--files": filesPerSize = Integer.parseInt(value); break;
+                case "--docroot": docroot = value; break;
+                case "--histogram": histogramFile = value; break;
+                case "--set":
+                    final int equals = value.indexOf('=');
+                    if (equals < 0)
+                    {
+                        throw new IllegalArgumentException("Expected key=value for --set: " + value);
+                    }
+                    config.put(CONFIG_PREFIX + value.substring(0, equals), value.substring(equals + 1));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (connections < 1 || durationSeconds < 1 || warmupSeconds < 0 || rate < 0 || filesPerSize < 1)
+        {
+            throw new IllegalArgumentException("connections, duration and files must be positive; warmup and rate must not be negative");
+        }
+        if (null != target && null == docroot)
+        {
+            throw new IllegalArgumentException("--target needs --docroot, the target server's document root");
+        }
+    }
+
+    private void run() throws Exception
+    {
+        final Path root = null != docroot ? Paths.get(docroot) : Files.createTempDirectory("simple-http-load");
+        final FileMix files = FileMix.generate(root, mix, filesPerSize);
+
+        HttpServer server = null;
+        final InetSocketAddress address;
+        if (null == target)
+        {
+            BenchmarkRunner.quietLogging();
+            address = new InetSocketAddress("localhost", InProcessServer.freePort());
+            server = startServer(root, address.getPort());
+        }
+        else
+        {
+            final int colon = target.lastIndexOf(':');
+            address = new InetSocketAddress(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+        }
+
+        final byte[][] requestHeads = files.encodeRequests(address.getHostString() + ":" + address.getPort(), keepalive);
+        final long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        final long measureStart = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        final long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+        // Each connection takes its share of the rate, offset so that the
+        // connections' requests interleave rather than arrive together
+        final long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * connections / rate) : 0;
+
+        System.out.println(String.format("%s load on %s: %d connection(s), %s, %s, %ds warmup, %ds measured",
+                rate > 0 ? "Open-loop" : "Closed-loop", address, connections,
+                rate > 0 ? String.format("%.0f requests/s", rate) : "unthrottled",
+                keepalive ? "keep-alive" : "connection per request", warmupSeconds, durationSeconds));
+
+        final List<Worker> workers = Lists.newArrayList();
+        final CountDownLatch done = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++)
+        {
+            final Worker worker = new Worker(address, files, requestHeads, start + interval * i / connections,
+                    interval, measureStart, end, done);
+            workers.add(worker);
+            final Thread thread = new Thread(worker, "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        final Histogram histogram = new Histogram(3);
+        for (final Worker worker : workers)
+        {
+            histogram.add(worker.histogram);
+        }
+        report(histogram, end - measureStart);
+
+        if (null != server)
+        {
+            server.stop();
+        }
+    }
+
+    private HttpServer startServer(final Path root, final int port) throws InterruptedException
+    {
+        config.put(ConfigurationModule.DOCUMENT_ROOT, root.toString());
+        config.put(ConfigurationModule.SERVER_MODE, mode);
+        return InProcessServer.start(config, port);
+    }
+
+    private void report(final Histogram histogram, final long measuredNanos) throws IOException
+    {
+        final double seconds = measuredNanos / 1e9;
+        System.out.println(String.format("Requests:    %d (%d errors, %d connections opened)",
+                requests.get(), errors.get(), connects.get()));
+        System.out.println(String.format("Throughput:  %.1f requests/s, %.2f MiB/s",
+                requests.get() / seconds, bytes.get() / seconds / (1024 * 1024)));
+        System.out.println(String.format("Latency (ms): p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f  mean %.3f",
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0,
+                histogram.getMean() / 1000.0));
+        if (null != histogramFile)
+        {
+            try (final PrintStream out = new PrintStream(new FileOutputStream(histogramFile)))
+            {
+                histogram.outputPercentileDistribution(out, 1.0);
+            }
+        }
+    }
+
+    /**
+     * Works one connection.  Latencies are recorded in microseconds.
+     */
+    private class Worker implements Runnable
+    {
+        private final LoadConnection connection;
+        private final FileMix files;
+        private final byte[][] requestHeads;
+        private final long interval;
+        private final long measureStart;
+        private final long end;
+        private final CountDownLatch done;
+        private final Histogram histogram = new Histogram(3);
+        private long due;
+
+        Worker(final InetSocketAddress address, final FileMix files, final byte[][] requestHeads,
+                final long firstDue, final long interval, final long measureStart, final long end,
+                final CountDownLatch done)
+        {
+            this.connection = new LoadConnection(address);
+            this.files = files;
+            this.requestHeads = requestHeads;
+            this.due = firstDue;
+            this.interval = interval;
+            this.measureStart = measureStart;
+            this.end = end;
+            this.done = done;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                waitUntil(due);
+                while (due < end)
+                {
+                    if (interval > 0)
+                    {
+                        waitUntil(due);
+                    }
+                    else
+                    {
+                        due = System.nanoTime();
+                    }
+                    final boolean measured = due >= measureStart;
+                    boolean failed = false;
+                    try
+                    {
+                        connection.send(requestHeads[files.next()], keepalive);
+                        failed = 200 != connection.getStatus();
+                    }
+                    catch (IOException e)
+                    {
+                        failed = true;
+                    }
+                    final long completed = System.nanoTime();
+                    if (measured && due < end)
+                    {
+                        histogram.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(completed - due)));
+                        requests.incrementAndGet();
+                        bytes.addAndGet(connection.getBodyBytes());
+                        if (failed)
+                        {
+                            errors.incrementAndGet();
+                        }
+                    }
+                    if (interval > 0)
+                    {
+                        // The next request is due on schedule even if this
+                        // one was late; it is then sent at once
+                        due += interval;
+                    }
+                }
+            }
+            finally
+            {
+                connection.close();
+                connects.addAndGet(connection.getConnects());
+                done.countDown();
+            }
+        }
+
+        private void waitUntil(final long time)
+        {
+            long remaining;
+            while ((remaining = time - System.nanoTime()) > 0)
+            {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    /**
+     * The generated files and the weights they are requested with.
+     */
+    private static class FileMix
+    {
+        private final List<String> paths = Lists.newArrayList();
+        private final List<Integer> cumulativeWeights = Lists.newArrayList();
+        private int totalWeight = 0;
+
+        static FileMix generate(final Path root, final String mix, final int filesPerSize) throws IOException
+        {
+            final FileMix files = new FileMix();
+            final Path directory = Files.createDirectories(root.resolve(LOAD_DIRECTORY));
+            final Random random = new Random(0);
+            for (final String entry : mix.split(","))
+            {
+                final String[] sizeAndWeight = entry.trim().split(":");
+                if (2 != sizeAndWeight.length)
+                {
+                    throw new IllegalArgumentException("Expected size:weight in --mix: " + entry);
+                }
+                final long size = parseSize(sizeAndWeight[0]);
+                final int weight = Integer.parseInt(sizeAndWeight[1]);
+                for (int i = 0; i < filesPerSize; i++)
+                {
+                    final String name = String.format("%d-%d.bin", size, i);
+                    final File file = directory.resolve(name).toFile();
+                    if (! file.isFile() || file.length() != size)
+                    {
+                        write(file, size, random);
+                    }
+                    files.paths.add("/" + LOAD_DIRECTORY + "/" + name);
+                    // Each size's weight is shared among its files
+                    files.totalWeight += Math.max(1, weight * 1000 / filesPerSize);
+                    files.cumulativeWeights.add(files.totalWeight);
+                }
+            }
+            return files;
+        }
+
+        private static long parseSize(final String size)
+        {
+            final String lower = size.trim().toLowerCase();
+            final char unit = lower.charAt(lower.length() - 1);
+            final long multiplier = 'k' == unit ? 1024 : 'm' == unit ? 1024 * 1024 : 1;
+            return Long.parseLong(1 == multiplier ? lower : lower.substring(0, lower.length() - 1)) * multiplier;
+        }
+
+        private static void write(final File file, long size, final Random random) throws IOException
+        {
+            // Random content, so compression, if enabled, gains nothing
+            final byte[] block = new byte[64 * 1024];
+            try (final FileOutputStream out = new FileOutputStream(file))
+            {
+                while (size > 0)
+                {
+                    random.nextBytes(block);
+                    final int length = (int) Math.min(size, block.length);
+                    out.write(block, 0, length);
+                    size -= length;
+                }
+            }
+        }
+
+        byte[][] encodeRequests(final String host, final boolean keepalive)
+        {
+            final byte[][] requests = new byte[paths.size()][];
+            for (int i = 0; i < requests.length; i++)
+            {
+                requests[i] = String.format("GET %s HTTP/1.1\r\nHost: %s\r\nConnection: %s\r\n\r\n",
+                        paths.get(i), host, keepalive ? "keep-alive" : "close").getBytes(StandardCharsets.US_ASCII);
+            }
+            return requests;
+        }
+
+        /**
+         * @return the index of a file picked by weight
+         */
+        int next()
+        {
+            final int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            int low = 0;
+            int high = cumulativeWeights.size() - 1;
+            while (low < high)
+            {
+                final int mid = (low + high) >>> 1;
+                if (cumulativeWeights.get(mid) > pick)
+                {
+                    high = mid;
+                }
+                else
+                {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+    }
+}
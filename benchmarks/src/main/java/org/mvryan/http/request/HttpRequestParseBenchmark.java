@@ -0,0 +1,166 @@
+package org.mvryan.http.request;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mvryan.http.benchmarks.BenchmarkRunner;
+import org.mvryan.http.response.HttpResponseCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Parses request heads typical of different clients, with the byte-level
+ * parser and with the reader-based parser it replaced as a baseline.
+ * Each parse is followed by the header lookups every request makes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpRequestParseBenchmark
+{
+    private static final Map<String, String> REQUESTS = ImmutableMap.of(
+            "minimal", "GET /index.html HTTP/1.1\r\n"
+                    + "Host: localhost:1234\r\n"
+                    + "\r\n",
+            "curl", "GET /stuff/stuff1.html HTTP/1.1\r\n"
+                    + "Host: localhost:1234\r\n"
+                    + "User-Agent: curl/8.5.0\r\n"
+                    + "Accept: */*\r\n"
+                    + "\r\n",
+            "browser", "GET /stuff/stuff1.html HTTP/1.1\r\n"
+                    + "Host: localhost:1234\r\n"
+                    + "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:109.0) Gecko/20100101 Firefox/115.0\r\n"
+                    + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+                    + "Accept-Language: en-US,en;q=0.5\r\n"
+                    + "Accept-Encoding: gzip, deflate\r\n"
+                    + "Connection: keep-alive\r\n"
+                    + "Cache-Control: max-age=0\r\n"
+                    + "\r\n",
+            "revalidation", "GET /css/site.css HTTP/1.1\r\n"
+                    + "Host: www.example.com\r\n"
+                    + "User-Agent: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36\r\n"
+                    + "Accept: text/css,*/*;q=0.1\r\n"
+                    + "Accept-Language: en-GB,en;q=0.9\r\n"
+                    + "Accept-Encoding: gzip, deflate, br\r\n"
+                    + "Referer: https://www.example.com/\r\n"
+                    + "Cookie: session=6f1c2a9e4b7d8e0f1a2b3c4d5e6f7a8b; theme=dark; _ga=GA1.2.1234567890.1700000000\r\n"
+                    + "If-None-Match: \"1a2b-18c3f4e5d6\"\r\n"
+                    + "If-Modified-Since: Tue, 14 Nov 2023 22:13:20 GMT\r\n"
+                    + "Sec-Fetch-Dest: style\r\n"
+                    + "Sec-Fetch-Mode: no-cors\r\n"
+                    + "Sec-Fetch-Site: same-origin\r\n"
+                    + "Connection: keep-alive\r\n"
+                    + "\r\n");
+
+    @Param({ "minimal", "curl", "browser", "revalidation" })
+    public String headers;
+
+    private byte[] bytes;
+    private ByteBuffer buffer;
+    private HttpRequest request;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkRunner.quietLogging();
+        bytes = REQUESTS.get(headers).getBytes(StandardCharsets.US_ASCII);
+        buffer = ByteBuffer.wrap(bytes);
+        request = new HttpRequest();
+    }
+
+    @Benchmark
+    public void byteParser(final Blackhole blackhole)
+    {
+        buffer.clear();
+        blackhole.consume(request.parse(buffer));
+        blackhole.consume(request.isKeepalive());
+        blackhole.consume(request.isCacheable());
+        blackhole.consume(request.getHeader("Accept"));
+    }
+
+    @Benchmark
+    public void streamParser(final Blackhole blackhole) throws IOException
+    {
+        final BaselineParser parser = new BaselineParser();
+        blackhole.consume(parser.parse(new ByteArrayInputStream(bytes)));
+        blackhole.consume(parser.headers.get("Connection"));
+        blackhole.consume(parser.headers.get("Cache-Control"));
+        blackhole.consume(parser.headers.get("Accept"));
+    }
+
+    /**
+     * The request-line and header parsing from the previous HttpRequest,
+     * kept here as the baseline.
+     */
+    private static class BaselineParser
+    {
+        final Map<String, String> headers = Maps.newHashMap();
+        String method;
+        String uri;
+        String version;
+
+        HttpResponseCode parse(final InputStream is) throws IOException
+        {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+            method = readWord(reader);
+            uri = readWord(reader);
+            version = readWord(reader);
+            String header;
+            String value;
+            while (null != (header = readWord(reader)))
+            {
+                value = reader.readLine();
+                if (null == value)
+                {
+                    return HttpResponseCode.BAD_REQUEST;
+                }
+                headers.put(header.substring(0, header.length()-1), value.trim());
+            }
+            return HttpResponseCode.OK;
+        }
+
+        private String readWord(final BufferedReader reader) throws IOException
+        {
+            char nextChar = (char) reader.read();
+            if ('\r' == nextChar)
+            {
+                reader.read();
+                return null;
+            }
+            final StringBuilder sb = new StringBuilder();
+            sb.append(nextChar);
+            while (! Character.isWhitespace(nextChar = (char) reader.read()))
+            {
+                sb.append(nextChar);
+            }
+            if ('\r' == nextChar)
+            {
+                reader.read();
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.mvryan.http.response;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.mvryan.http.benchmarks.BenchmarkRunner;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.filesys.FilesystemHttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes the status line and headers of a file response and of a 304,
+ * into a reused head buffer as the event loop does and into a fresh one
+ * as the blocking handler does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpResponseWriterBenchmark
+{
+    private static final String REQUEST = "GET /stuff/page.html HTTP/1.1\r\n"
+            + "Host: localhost:1234\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    private HttpRequest request;
+    private Optional<HttpResponse> ok;
+    private Optional<HttpResponse> notModified;
+    private ByteBuffer headBuffer;
+
+    @Setup
+    public void setup()
+    {
+        BenchmarkRunner.quietLogging();
+        request = new HttpRequest();
+        request.parse(ByteBuffer.wrap(REQUEST.getBytes(StandardCharsets.US_ASCII)));
+        ok = Optional.<HttpResponse>of(FilesystemHttpResponse.builder()
+                .responseCode(HttpResponseCode.OK)
+                .responsePayload(new byte[4096])
+                .contentType("text/html")
+                .vary("Accept-Encoding")
+                .eTag("\"1000-18c3f4e5d6\"")
+                .lastModified("Tue, 14 Nov 2023 22:13:20 GMT")
+                .acceptRanges("bytes")
+                .build());
+        notModified = Optional.<HttpResponse>of(FilesystemHttpResponse.builder()
+                .responseCode(HttpResponseCode.NOT_MODIFIED)
+                .eTag("\"1000-18c3f4e5d6\"")
+                .lastModified("Tue, 14 Nov 2023 22:13:20 GMT")
+                .build());
+        headBuffer = ByteBuffer.allocate(4096);
+    }
+
+    @Benchmark
+    public PendingResponse okReusedBuffer()
+    {
+        headBuffer.clear();
+        return HttpResponseWriter.encode(request, HttpResponseCode.OK, ok, headBuffer);
+    }
+
+    @Benchmark
+    public PendingResponse okNewBuffer()
+    {
+        return HttpResponseWriter.encode(request, HttpResponseCode.OK, ok);
+    }
+
+    @Benchmark
+    public PendingResponse notModifiedReusedBuffer()
+    {
+        headBuffer.clear();
+        return HttpResponseWriter.encode(request, HttpResponseCode.NOT_MODIFIED, notModified, headBuffer);
+    }
+}
@@ -0,0 +1,68 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.mvryan.http.benchmarks.BenchmarkRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Resolves a file's content type and checks it against Accept headers
+ * of different shapes, the two content type steps of every file request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentTypeBenchmark
+{
+    @State(Scope.Thread)
+    public static class FileState
+    {
+        @Param({ "index.html", "app.min.js", "photo.JPEG", "README" })
+        public String fileName;
+
+        FilesystemResolver resolver;
+        File file;
+        String contentType;
+
+        @Setup
+        public void setup()
+        {
+            BenchmarkRunner.quietLogging();
+            resolver = new FilesystemResolver();
+            file = new File("/var/www/html", fileName);
+            contentType = resolver.resolveContentType(file);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class AcceptState
+    {
+        @Param({ "*/*", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8", "image/avif,image/webp" })
+        public String accept;
+    }
+
+    @Benchmark
+    public String resolveContentType(final FileState state)
+    {
+        return state.resolver.resolveContentType(state.file);
+    }
+
+    @Benchmark
+    public boolean contentTypeMatchesAccept(final FileState state, final AcceptState accept)
+    {
+        return FilesystemResponseStrategy.contentTypeMatchesAccept(state.contentType, accept.accept);
+    }
+}
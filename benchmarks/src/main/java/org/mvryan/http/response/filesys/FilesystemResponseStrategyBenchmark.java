@@ -0,0 +1,122 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.mvryan.http.benchmarks.BenchmarkRunner;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.modules.HttpServerModule;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.name.Names;
+import com.google.inject.util.Modules;
+
+/**
+ * Answers requests for files in a generated document root, with the
+ * content cache on and off.  The metadata cache keeps its default TTL,
+ * as in a running server.  Bodies are not sent; this measures deciding
+ * what to send.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilesystemResponseStrategyBenchmark
+{
+    private static final String FILE_REQUEST = "GET /stuff/page.html HTTP/1.1\r\n"
+            + "Host: localhost:1234\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Encoding: gzip, deflate\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    private static final String REVALIDATION_REQUEST = "GET /stuff/page.html HTTP/1.1\r\n"
+            + "Host: localhost:1234\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "If-None-Match: %s\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    @Param({ "true", "false" })
+    public String cacheEnabled;
+
+    private Path documentRoot;
+    private HttpResponseStrategy strategy;
+    private HttpRequest fileRequest;
+    private HttpRequest revalidationRequest;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException
+    {
+        BenchmarkRunner.quietLogging();
+        documentRoot = Files.createTempDirectory("simple-http-bench");
+        final Path stuff = Files.createDirectory(documentRoot.resolve("stuff"));
+        final byte[] content = new byte[4096];
+        Arrays.fill(content, (byte) 'x');
+        final Path page = Files.write(stuff.resolve("page.html"), content);
+
+        final Injector injector = Guice.createInjector(Modules.override(new HttpServerModule()).with(new AbstractModule()
+        {
+            @Override protected void configure()
+            {
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.DOCUMENT_ROOT)).toInstance(documentRoot.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.CACHE_ENABLED)).toInstance(cacheEnabled);
+            }
+        }));
+        strategy = injector.getInstance(HttpResponseStrategy.class);
+        fileRequest = parse(FILE_REQUEST);
+        revalidationRequest = parse(String.format(REVALIDATION_REQUEST,
+                injector.getInstance(FileMetadataCache.class).get(page).getETag()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        Files.delete(documentRoot.resolve("stuff").resolve("page.html"));
+        Files.delete(documentRoot.resolve("stuff"));
+        Files.delete(documentRoot);
+    }
+
+    @Benchmark
+    public HttpResponse file()
+    {
+        return strategy.determineResponse(fileRequest);
+    }
+
+    @Benchmark
+    public HttpResponse notModified()
+    {
+        return strategy.determineResponse(revalidationRequest);
+    }
+
+    private static HttpRequest parse(final String head)
+    {
+        final HttpRequest request = new HttpRequest();
+        request.parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII)));
+        return request;
+    }
+}
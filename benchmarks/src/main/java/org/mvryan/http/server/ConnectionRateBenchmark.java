@@ -0,0 +1,115 @@
+package org.mvryan.http.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.mvryan.http.benchmarks.BenchmarkRunner;
+import org.mvryan.http.benchmarks.InProcessServer;
+import org.mvryan.http.benchmarks.LoadConnection;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Maps;
+
+/**
+ * New connections per second an nio server sustains, by number of event
+ * loops and whether each loop has its own SO_REUSEPORT listening socket
+ * or one loop accepts for all.  Every operation connects, requests a tiny
+ * file, reads the response and closes the connection, so
+ * the rate is bound by connection setup and teardown.  The clients run
+ * in the same JVM, so leave cores for them: on a machine with fewer
+ * cores than loops plus client threads the loops just compete.
+ *
+ *   java -jar benchmarks/target/benchmarks.jar ConnectionRateBenchmark -p ioThreads=1,4,8 -t 32
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class ConnectionRateBenchmark
+{
+    @Param({ "1", "2", "4" })
+    public String ioThreads;
+
+    @Param({ "false", "true" })
+    public String reusePort;
+
+    private Path documentRoot;
+    private Path file;
+    private HttpServer server;
+    private InetSocketAddress address;
+    private byte[] request;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, InterruptedException
+    {
+        BenchmarkRunner.quietLogging();
+        documentRoot = Files.createTempDirectory("simple-http-bench");
+        file = Files.write(documentRoot.resolve("ping.txt"), "pong".getBytes(StandardCharsets.US_ASCII));
+
+        final Map<String, String> config = Maps.newHashMap();
+        config.put(ConfigurationModule.DOCUMENT_ROOT, documentRoot.toString());
+        config.put(ConfigurationModule.SERVER_MODE, HttpServer.MODE_NIO);
+        config.put(ConfigurationModule.IO_THREADS, ioThreads);
+        config.put(ConfigurationModule.REUSEPORT_ENABLED, reusePort);
+        config.put(ConfigurationModule.CACHE_ENABLED, Boolean.TRUE.toString());
+        address = new InetSocketAddress("localhost", InProcessServer.freePort());
+        server = InProcessServer.start(config, address.getPort());
+        request = String.format("GET /ping.txt HTTP/1.1\r\nHost: localhost:%d\r\n\r\n", address.getPort())
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        server.stop();
+        Files.delete(file);
+        Files.delete(documentRoot);
+    }
+
+    @State(Scope.Thread)
+    public static class Client
+    {
+        private LoadConnection connection;
+
+        @Setup(Level.Trial)
+        public void setup(final ConnectionRateBenchmark benchmark)
+        {
+            connection = new LoadConnection(benchmark.address);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown()
+        {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public int connect(final Client client) throws IOException
+    {
+        client.connection.send(request, false);
+        return client.connection.getStatus();
+    }
+}
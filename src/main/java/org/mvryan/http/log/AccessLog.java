@@ -0,0 +1,409 @@
+package org.mvryan.http.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.server.HttpServer;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponseCode;
+
+import com.google.common.base.Strings;
+
+/**
+ * Writes a line per response to the access log file, in the Common or
+ * Combined Log Format, without the request thread ever waiting on the
+ * file or a lock.
+ *
+ * Lines are formatted straight into records preallocated in a ring
+ * buffer: a request thread claims the next record with a compare-and-set,
+ * fills it, and publishes it.  A single writer thread drains published
+ * records in order every few milliseconds, copying as many as fit into
+ * one buffer so a burst of requests costs one write, forces the file to
+ * disk at an interval and rotates it by size.
+ *
+ * When the writer falls so far behind that the ring is full, a line is
+ * either dropped, and counted in the metrics, or the request thread waits
+ * for room, depending on the full policy.  In nio mode the thread would be
+ * an event loop, and waiting would hold up every connection on it, so
+ * lines are always dropped there.
+ */
+@Slf4j
+@Singleton
+public class AccessLog
+{
+    public static final String FORMAT_COMMON = "common";
+    public static final String FORMAT_COMBINED = "combined";
+
+    public static final String FULL_POLICY_DROP = "drop";
+    public static final String FULL_POLICY_BLOCK = "block";
+
+    /**
+     * The longest line kept; longer lines are cut short
+     */
+    static final int RECORD_SIZE = 1024;
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // Room left after the request line for the rest of a line
+    private static final int TAIL_SIZE = 64;
+
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormat.forPattern("dd/MMM/yyyy:HH:mm:ss Z").withLocale(Locale.US);
+
+    private static final byte[] NO_IDENTITY = ascii(" - - [");
+    private static final byte[] AFTER_DATE = ascii("] \"");
+    private static final byte[] QUOTE_SPACE = ascii("\" ");
+    private static final byte[] BETWEEN_HEADERS = ascii("\" \"");
+    private static final byte[] SPACE_QUOTE = ascii(" \"");
+
+    private final AccessLogFile file;
+    private final boolean combined;
+    private final boolean block;
+    private final long fsyncIntervalNanos;
+    private final Metrics metrics;
+
+    private final byte[][] records;
+    private final int[] lengths;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed = 0;
+
+    private volatile Tick current = new Tick(Long.MIN_VALUE, null);
+
+    private Thread writer = null;
+    private volatile boolean running = false;
+
+    @Inject
+    public AccessLog(@Named(ConfigurationModule.ACCESS_LOG_FILE) final String file,
+            @Named(ConfigurationModule.ACCESS_LOG_FORMAT) final String format,
+            @Named(ConfigurationModule.ACCESS_LOG_BUFFER_SIZE) final String bufferSize,
+            @Named(ConfigurationModule.ACCESS_LOG_FULL_POLICY) final String fullPolicy,
+            @Named(ConfigurationModule.SERVER_MODE) final String serverMode,
+            @Named(ConfigurationModule.ACCESS_LOG_FSYNC_INTERVAL) final String fsyncIntervalMillis,
+            @Named(ConfigurationModule.ACCESS_LOG_MAX_BYTES) final String maxBytes,
+            @Named(ConfigurationModule.ACCESS_LOG_MAX_FILES) final String maxFiles,
+            final Metrics metrics)
+    {
+        this.file = Strings.isNullOrEmpty(file) ? null
+                : new AccessLogFile(Paths.get(file), Long.parseLong(maxBytes), Integer.parseInt(maxFiles));
+        this.combined = ! FORMAT_COMMON.equalsIgnoreCase(format);
+        final boolean nio = HttpServer.MODE_NIO.equalsIgnoreCase(serverMode);
+        if (FULL_POLICY_BLOCK.equalsIgnoreCase(fullPolicy) && nio && null != this.file)
+        {
+            log.warn("The access log can't block event loops in nio mode; dropping lines when its buffer is full");
+        }
+        this.block = FULL_POLICY_BLOCK.equalsIgnoreCase(fullPolicy) && ! nio;
+        this.fsyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(fsyncIntervalMillis));
+        this.metrics = metrics;
+
+        // The ring is only allocated for a log that is written
+        final int capacity = null == this.file ? 1 : Integer.highestOneBit(Math.max(1, Integer.parseInt(bufferSize) - 1)) << 1;
+        this.mask = capacity - 1;
+        this.records = new byte[null == this.file ? 0 : capacity][];
+        for (int i=0; i<records.length; i++)
+        {
+            records[i] = new byte[RECORD_SIZE];
+        }
+        this.lengths = new int[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i=0; i<capacity; i++)
+        {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Opens the log file and starts the writer thread.  Until then, and
+     * if no file is configured, nothing is logged.
+     */
+    public synchronized void start() throws IOException
+    {
+        if (null == file || running)
+        {
+            return;
+        }
+        file.open();
+        running = true;
+        writer = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                drain();
+            }
+        }, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes out every line already published and closes the file.
+     */
+    public synchronized void stop()
+    {
+        if (! running)
+        {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writer);
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true if a full buffer makes the request thread wait rather
+     *         than drop the line
+     */
+    boolean isBlocking()
+    {
+        return block;
+    }
+
+    /**
+     * Logs the response to a request.  The request is only read during
+     * the call, so it can be reused for the next request straight after.
+     *
+     * @param bytes the length of the response body
+     */
+    public void log(final HttpRequest request, final HttpResponseCode responseCode, final long bytes)
+    {
+        if (! running)
+        {
+            return;
+        }
+
+        long sequence;
+        while (true)
+        {
+            sequence = claimed.get();
+            if (sequence - consumed > mask)
+            {
+                if (! block || ! running)
+                {
+                    metrics.accessLogDropped();
+                    return;
+                }
+                LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+            }
+            else if (claimed.compareAndSet(sequence, sequence + 1))
+            {
+                break;
+            }
+        }
+
+        final int slot = (int) sequence & mask;
+        lengths[slot] = format(records[slot], request, responseCode, bytes);
+        published.lazySet(slot, sequence);
+    }
+
+    private int format(final byte[] record, final HttpRequest request, final HttpResponseCode responseCode, final long bytes)
+    {
+        int offset = putAscii(record, 0, null == request.getRemoteAddress() ? "-" : request.getRemoteAddress(), TAIL_SIZE);
+        offset = put(record, offset, NO_IDENTITY);
+        offset = put(record, offset, now());
+        offset = put(record, offset, AFTER_DATE);
+        final int requestLineStart = offset;
+        offset = request.copyRequestLine(record, offset, RECORD_SIZE - TAIL_SIZE);
+        if (offset == requestLineStart)
+        {
+            record[offset++] = '-';
+        }
+        offset = put(record, offset, QUOTE_SPACE);
+        offset = putDecimal(record, offset, responseCode.getStatus());
+        record[offset++] = ' ';
+        if (bytes > 0)
+        {
+            offset = putDecimal(record, offset, bytes);
+        }
+        else
+        {
+            record[offset++] = '-';
+        }
+        if (combined)
+        {
+            offset = put(record, offset, SPACE_QUOTE);
+            offset = putHeader(record, offset, request, "Referer", RECORD_SIZE - 8);
+            offset = put(record, offset, BETWEEN_HEADERS);
+            offset = putHeader(record, offset, request, "User-Agent", RECORD_SIZE - 2);
+            record[offset++] = '"';
+        }
+        record[offset++] = '\n';
+        return offset;
+    }
+
+    private void drain()
+    {
+        final ByteBuffer batch = ByteBuffer.allocateDirect(BATCH_SIZE);
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+        boolean failing = false;
+        while (true)
+        {
+            // Read before draining, so nothing published before stop() is missed
+            final boolean stopping = ! running;
+
+            long next = consumed;
+            batch.clear();
+            while (true)
+            {
+                final int slot = (int) next & mask;
+                if (published.get(slot) != next || batch.remaining() < lengths[slot])
+                {
+                    break;
+                }
+                batch.put(records[slot], 0, lengths[slot]);
+                next++;
+            }
+            consumed = next;
+            batch.flip();
+
+            try
+            {
+                if (batch.hasRemaining())
+                {
+                    file.write(batch);
+                    unforced = true;
+                }
+                if (unforced && (stopping || System.nanoTime() - lastForce >= fsyncIntervalNanos))
+                {
+                    file.force();
+                    lastForce = System.nanoTime();
+                    unforced = false;
+                }
+                failing = false;
+            }
+            catch (IOException e)
+            {
+                if (! failing)
+                {
+                    log.warn("Unable to write to the access log; lines are being lost", e);
+                    failing = true;
+                }
+                closeFile();
+            }
+
+            if (stopping && 0 == batch.limit())
+            {
+                break;
+            }
+            if (0 == batch.limit())
+            {
+                LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            }
+        }
+        closeFile();
+    }
+
+    private void closeFile()
+    {
+        try
+        {
+            file.close();
+        }
+        catch (IOException e)
+        {
+            log.debug("Unable to close the access log", e);
+        }
+    }
+
+    /**
+     * @return the current time as the log formats it, formatted at most
+     *         once a second
+     */
+    private byte[] now()
+    {
+        final long millis = System.currentTimeMillis();
+        final long second = millis / 1000;
+        Tick tick = current;
+        if (tick.second != second)
+        {
+            // Racing callers format the same value; whichever wins is fine
+            tick = new Tick(second, ascii(DATE_FORMAT.print(second * 1000)));
+            current = tick;
+        }
+        return tick.bytes;
+    }
+
+    private static int put(final byte[] record, final int offset, final byte[] bytes)
+    {
+        System.arraycopy(bytes, 0, record, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    private static int putAscii(final byte[] record, int offset, final String s, final int limit)
+    {
+        for (int i=0; i<s.length() && offset<limit; i++)
+        {
+            record[offset++] = (byte) s.charAt(i);
+        }
+        return offset;
+    }
+
+    private static int putHeader(final byte[] record, final int offset, final HttpRequest request,
+            final String name, final int limit)
+    {
+        final int end = request.copyHeader(name, record, offset, limit);
+        if (-1 == end)
+        {
+            record[offset] = '-';
+            return offset + 1;
+        }
+        return end;
+    }
+
+    private static int putDecimal(final byte[] record, int offset, final long value)
+    {
+        long divisor = 1;
+        while (value / divisor >= 10)
+        {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10)
+        {
+            record[offset++] = (byte) ('0' + (value / divisor) % 10);
+        }
+        return offset;
+    }
+
+    private static byte[] ascii(final String s)
+    {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class Tick
+    {
+        final long second;
+        final byte[] bytes;
+
+        Tick(final long second, final byte[] bytes)
+        {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.mvryan.http.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The file the access log is appended to.  Once it would grow past its
+ * size limit it is renamed to name.1, shifting older files up to
+ * name.maxFiles and deleting the oldest, and a new file is started.
+ * Only the access log's writer thread uses an instance.
+ */
+class AccessLogFile implements Closeable
+{
+    private final Path path;
+    private final long maxBytes;
+    private final int maxFiles;
+
+    private FileChannel channel = null;
+    private long size = 0;
+
+    /**
+     * @param maxBytes the size to rotate at, or 0 never to rotate
+     * @param maxFiles how many rotated files to keep
+     */
+    AccessLogFile(final Path path, final long maxBytes, final int maxFiles)
+    {
+        this.path = path;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    void open() throws IOException
+    {
+        if (null == channel)
+        {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            size = channel.size();
+        }
+    }
+
+    void write(final ByteBuffer buffer) throws IOException
+    {
+        open();
+        if (maxBytes > 0 && size > 0 && size + buffer.remaining() > maxBytes)
+        {
+            rotate();
+        }
+        while (buffer.hasRemaining())
+        {
+            size += channel.write(buffer);
+        }
+    }
+
+    void force() throws IOException
+    {
+        if (null != channel)
+        {
+            channel.force(false);
+        }
+    }
+
+    private void rotate() throws IOException
+    {
+        close();
+        if (maxFiles > 0)
+        {
+            for (int i=maxFiles-1; i>0; i--)
+            {
+                final Path older = rotated(i);
+                if (Files.exists(older))
+                {
+                    Files.move(older, rotated(i+1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(path, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        else
+        {
+            Files.deleteIfExists(path);
+        }
+        open();
+    }
+
+    Path rotated(final int index)
+    {
+        return Paths.get(path.toString() + "." + index);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (null != channel)
+        {
+            try
+            {
+                channel.force(false);
+            }
+            finally
+            {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.mvryan.http.metrics;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Publishes the statistics of one cache.
+ */
+@RequiredArgsConstructor
+public class CacheMetrics implements CacheMetricsMBean
+{
+    private final MeteredCache cache;
+
+    @Override
+    public long getHits()
+    {
+        return cache.stats().hitCount();
+    }
+
+    @Override
+    public long getMisses()
+    {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public long getEvictions()
+    {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public long getEntries()
+    {
+        return cache.size();
+    }
+
+    @Override
+    public long getBytes()
+    {
+        return cache.bytes();
+    }
+}
@@ -0,0 +1,13 @@
+package org.mvryan.http.metrics;
+
+/**
+ * The statistics of one cache, over JMX.
+ */
+public interface CacheMetricsMBean
+{
+    long getHits();
+    long getMisses();
+    long getEvictions();
+    long getEntries();
+    long getBytes();
+}
@@ -0,0 +1,55 @@
+package org.mvryan.http.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Weighs cache entries and keeps a running total of the weight held,
+ * which Guava doesn't expose.  Set the same instance as both the weigher
+ * and the removal listener of a cache; a listener the cache already had
+ * is passed in and still called.  The weigher must give the same weight
+ * for an entry every time it is asked.
+ */
+public class CacheWeight<K, V> implements Weigher<K, V>, RemovalListener<K, V>
+{
+    private final Weigher<K, V> weigher;
+    private final RemovalListener<K, V> listener;
+    private final LongAdder total = new LongAdder();
+
+    public CacheWeight(final Weigher<K, V> weigher)
+    {
+        this(weigher, null);
+    }
+
+    public CacheWeight(final Weigher<K, V> weigher, final RemovalListener<K, V> listener)
+    {
+        this.weigher = weigher;
+        this.listener = listener;
+    }
+
+    @Override
+    public int weigh(final K key, final V value)
+    {
+        final int weight = weigher.weigh(key, value);
+        total.add(weight);
+        return weight;
+    }
+
+    @Override
+    public void onRemoval(final RemovalNotification<K, V> notification)
+    {
+        total.add(-weigher.weigh(notification.getKey(), notification.getValue()));
+        if (null != listener)
+        {
+            listener.onRemoval(notification);
+        }
+    }
+
+    public long get()
+    {
+        return total.sum();
+    }
+}
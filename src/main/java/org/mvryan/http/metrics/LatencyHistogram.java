@@ -0,0 +1,155 @@
+package org.mvryan.http.metrics;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request latencies counted in fixed buckets, the shape Prometheus
+ * expects of a histogram.  Recording is lock-free - a striped counter
+ * per bucket plus one for the sum - so request threads never contend
+ * on it.  Percentiles are estimated by interpolating within the bucket
+ * they fall in, so they are only as precise as the buckets.
+ */
+public class LatencyHistogram implements LatencyHistogramMBean
+{
+    /**
+     * Upper bounds of the buckets in seconds; a last, unbounded bucket
+     * counts everything slower
+     */
+    static final double[] BOUNDS_SECONDS = { 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+            0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+    private static final long[] BOUNDS_NANOS = new long[BOUNDS_SECONDS.length];
+    static
+    {
+        for (int i=0; i<BOUNDS_SECONDS.length; i++)
+        {
+            BOUNDS_NANOS[i] = (long) (BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_SECONDS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram()
+    {
+        for (int i=0; i<buckets.length; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(final long nanos)
+    {
+        int bucket = 0;
+        while (bucket < BOUNDS_NANOS.length && nanos > BOUNDS_NANOS[bucket])
+        {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * @return the count of each bucket, not cumulative, ending with the
+     *         unbounded bucket.  Buckets keep counting while they are
+     *         read, so take one snapshot for a consistent view.
+     */
+    public long[] snapshot()
+    {
+        final long[] counts = new long[buckets.length];
+        for (int i=0; i<counts.length; i++)
+        {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * @return the bound of each bounded bucket, formatted for a label
+     */
+    public static String[] getBoundLabels()
+    {
+        final String[] labels = new String[BOUNDS_SECONDS.length];
+        for (int i=0; i<labels.length; i++)
+        {
+            labels[i] = BigDecimal.valueOf(BOUNDS_SECONDS[i]).stripTrailingZeros().toPlainString();
+        }
+        return labels;
+    }
+
+    public double getSumSeconds()
+    {
+        return sumNanos.sum() / 1e9;
+    }
+
+    @Override
+    public long getCount()
+    {
+        return total(snapshot());
+    }
+
+    @Override
+    public double getMeanMillis()
+    {
+        final long count = getCount();
+        return 0 == count ? 0 : sumNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getP50Millis()
+    {
+        return percentileMillis(50);
+    }
+
+    @Override
+    public double getP99Millis()
+    {
+        return percentileMillis(99);
+    }
+
+    @Override
+    public double getP999Millis()
+    {
+        return percentileMillis(99.9);
+    }
+
+    /**
+     * @return an estimate of the latency the given percent of requests
+     *         took no longer than, or the highest bound if that is in
+     *         the unbounded bucket
+     */
+    double percentileMillis(final double percentile)
+    {
+        final long[] counts = snapshot();
+        final long total = total(counts);
+        if (0 == total)
+        {
+            return 0;
+        }
+        final double rank = percentile / 100 * total;
+        long below = 0;
+        for (int i=0; i<BOUNDS_SECONDS.length; i++)
+        {
+            if (counts[i] > 0 && below + counts[i] >= rank)
+            {
+                final double lower = 0 == i ? 0 : BOUNDS_SECONDS[i-1];
+                final double upper = BOUNDS_SECONDS[i];
+                return (lower + (upper - lower) * (rank - below) / counts[i]) * 1000;
+            }
+            below += counts[i];
+        }
+        return BOUNDS_SECONDS[BOUNDS_SECONDS.length-1] * 1000;
+    }
+
+    private static long total(final long[] counts)
+    {
+        long total = 0;
+        for (final long count : counts)
+        {
+            total += count;
+        }
+        return total;
+    }
+}
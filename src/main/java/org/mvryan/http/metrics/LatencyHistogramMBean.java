@@ -0,0 +1,13 @@
+package org.mvryan.http.metrics;
+
+/**
+ * Request latencies of one class of response status, over JMX.
+ */
+public interface LatencyHistogramMBean
+{
+    long getCount();
+    double getMeanMillis();
+    double getP50Millis();
+    double getP99Millis();
+    double getP999Millis();
+}
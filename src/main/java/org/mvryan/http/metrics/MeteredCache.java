@@ -0,0 +1,25 @@
+package org.mvryan.http.metrics;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * A cache whose statistics are published with the server's metrics.
+ */
+public interface MeteredCache
+{
+    /**
+     * @return hits, misses and evictions since the cache was created
+     */
+    CacheStats stats();
+
+    /**
+     * @return the number of entries held
+     */
+    long size();
+
+    /**
+     * @return the bytes held, or a negative number if the cache is not
+     *         bounded by bytes
+     */
+    long bytes();
+}
@@ -0,0 +1,237 @@
+package org.mvryan.http.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.response.HttpResponseCode;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * The server's runtime metrics: request latency by status class, bytes
+ * sent, connections, parse errors, executor queue depth, access log
+ * lines dropped and the statistics of every cache.  Counters are striped so request threads
+ * never contend on them, and gauges are read only when the metrics are.
+ *
+ * The metrics are published as MBeans in the {@value #DOMAIN} domain
+ * once {@link #registerMBeans()} is called, and over HTTP by
+ * {@link StatusResponseStrategy}.
+ */
+@Slf4j
+@Singleton
+public class Metrics implements MetricsMBean
+{
+    public static final String DOMAIN = "org.mvryan.http";
+
+    @Getter
+    private final Map<String, LatencyHistogram> latencies;
+    @Getter
+    private final Map<String, CacheMetrics> caches;
+    private final LatencyHistogram[] latenciesByClass;
+
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder parseErrors = new LongAdder();
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder accessLogDropped = new LongAdder();
+
+    /**
+     * Reports how many tasks are waiting for a thread, which only the
+     * server knows how to count
+     */
+    @Setter
+    private volatile LongSupplier executorQueueDepth = null;
+
+    private final List<ObjectName> registered = Lists.newArrayList();
+
+    @Inject
+    public Metrics(final Map<String, MeteredCache> caches)
+    {
+        final ImmutableMap.Builder<String, LatencyHistogram> latencies = ImmutableMap.builder();
+        latenciesByClass = new LatencyHistogram[5];
+        for (int i=0; i<latenciesByClass.length; i++)
+        {
+            latenciesByClass[i] = new LatencyHistogram();
+            latencies.put((i + 1) + "xx", latenciesByClass[i]);
+        }
+        this.latencies = latencies.build();
+
+        final ImmutableMap.Builder<String, CacheMetrics> cacheMetrics = ImmutableMap.builder();
+        for (final Map.Entry<String, MeteredCache> cache : caches.entrySet())
+        {
+            cacheMetrics.put(cache.getKey(), new CacheMetrics(cache.getValue()));
+        }
+        this.caches = cacheMetrics.build();
+    }
+
+    /**
+     * @param nanos time from receiving the request to sending the last
+     *        byte of the response
+     * @param bytes bytes of the response head and body
+     */
+    public void responseSent(final HttpResponseCode responseCode, final long nanos, final long bytes)
+    {
+        final int statusClass = responseCode.getStatus() / 100 - 1;
+        if (statusClass >= 0 && statusClass < latenciesByClass.length)
+        {
+            latenciesByClass[statusClass].record(nanos);
+        }
+        bytesSent.add(bytes);
+    }
+
+    public void parseError()
+    {
+        parseErrors.increment();
+    }
+
+    public void connectionOpened()
+    {
+        connectionsAccepted.increment();
+        openConnections.increment();
+    }
+
+    public void connectionClosed()
+    {
+        openConnections.decrement();
+    }
+
+    /**
+     * A connection started on a request; until {@link #connectionIdle()}
+     * it is no longer an idle keep-alive connection.
+     */
+    public void connectionActive()
+    {
+        activeConnections.increment();
+    }
+
+    public void connectionIdle()
+    {
+        activeConnections.decrement();
+    }
+
+    /**
+     * A line was left out of the access log because its buffer was full.
+     */
+    public void accessLogDropped()
+    {
+        accessLogDropped.increment();
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getParseErrors()
+    {
+        return parseErrors.sum();
+    }
+
+    @Override
+    public long getConnectionsAccepted()
+    {
+        return connectionsAccepted.sum();
+    }
+
+    @Override
+    public long getOpenConnections()
+    {
+        return openConnections.sum();
+    }
+
+    @Override
+    public long getActiveConnections()
+    {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getIdleConnections()
+    {
+        // The two sums are read at slightly different times
+        return Math.max(0, getOpenConnections() - getActiveConnections());
+    }
+
+    @Override
+    public long getExecutorQueueDepth()
+    {
+        final LongSupplier depth = executorQueueDepth;
+        return null == depth ? 0 : depth.getAsLong();
+    }
+
+    @Override
+    public long getAccessLogDropped()
+    {
+        return accessLogDropped.sum();
+    }
+
+    /**
+     * Publishes the metrics to the platform MBean server, replacing those
+     * of any earlier server in this JVM.
+     */
+    public synchronized void registerMBeans()
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            register(server, new ObjectName(DOMAIN, "type", "Server"), this);
+            for (final Map.Entry<String, LatencyHistogram> latency : latencies.entrySet())
+            {
+                register(server, new ObjectName(String.format("%s:type=Requests,status=%s", DOMAIN, latency.getKey())),
+                        latency.getValue());
+            }
+            for (final Map.Entry<String, CacheMetrics> cache : caches.entrySet())
+            {
+                register(server, new ObjectName(String.format("%s:type=Cache,name=%s", DOMAIN, cache.getKey())), cache.getValue());
+            }
+        }
+        catch (JMException e)
+        {
+            log.warn("Unable to publish metrics over JMX", e);
+        }
+    }
+
+    public synchronized void unregisterMBeans()
+    {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : registered)
+        {
+            try
+            {
+                server.unregisterMBean(name);
+            }
+            catch (JMException e)
+            {
+                log.debug(String.format("Unable to unregister %s", name), e);
+            }
+        }
+        registered.clear();
+    }
+
+    private void register(final MBeanServer server, final ObjectName name, final Object mbean) throws JMException
+    {
+        if (server.isRegistered(name))
+        {
+            server.unregisterMBean(name);
+        }
+        server.registerMBean(mbean, name);
+        registered.add(name);
+    }
+}
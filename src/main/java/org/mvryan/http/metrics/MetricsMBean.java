@@ -0,0 +1,16 @@
+package org.mvryan.http.metrics;
+
+/**
+ * Server-wide counters and gauges, over JMX.
+ */
+public interface MetricsMBean
+{
+    long getBytesSent();
+    long getParseErrors();
+    long getConnectionsAccepted();
+    long getOpenConnections();
+    long getActiveConnections();
+    long getIdleConnections();
+    long getExecutorQueueDepth();
+    long getAccessLogDropped();
+}
@@ -0,0 +1,138 @@
+package org.mvryan.http.metrics;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponse;
+import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.filesys.FilesystemHttpResponse;
+import org.mvryan.http.response.filesys.HttpResponseStrategy;
+
+/**
+ * Answers {@value #PATH} with the server's {@link Metrics} in the
+ * Prometheus text exposition format.  The path is reserved: a file of
+ * that name in the document root is never served.
+ */
+@Singleton
+public class StatusResponseStrategy implements HttpResponseStrategy
+{
+    public static final String PATH = "/_status";
+    public static final String CONTENT_TYPE_PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String PREFIX = "simple_http_";
+    private static final String[] BOUND_LABELS = LatencyHistogram.getBoundLabels();
+
+    private final Metrics metrics;
+
+    @Inject
+    public StatusResponseStrategy(final Metrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public HttpResponse determineResponse(final HttpRequest request)
+    {
+        if (! PATH.equals(request.getUri().getPath()))
+        {
+            return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FILE_NOT_FOUND).build();
+        }
+        return FilesystemHttpResponse.builder()
+                .responseCode(HttpResponseCode.OK)
+                .contentType(CONTENT_TYPE_PROMETHEUS)
+                .responsePayload(render().getBytes(StandardCharsets.UTF_8))
+                .build();
+    }
+
+    String render()
+    {
+        final StringBuilder out = new StringBuilder(4096);
+
+        header(out, "request_duration_seconds", "histogram",
+                "Time from receiving a request to sending the last byte of its response.");
+        for (final Map.Entry<String, LatencyHistogram> latency : metrics.getLatencies().entrySet())
+        {
+            final String status = "status=\"" + latency.getKey() + "\"";
+            final long[] counts = latency.getValue().snapshot();
+            long cumulative = 0;
+            for (int i=0; i<counts.length; i++)
+            {
+                cumulative += counts[i];
+                final String bound = i < BOUND_LABELS.length ? BOUND_LABELS[i] : "+Inf";
+                sample(out, "request_duration_seconds_bucket", status + ",le=\"" + bound + "\"", cumulative);
+            }
+            sample(out, "request_duration_seconds_sum", status, latency.getValue().getSumSeconds());
+            sample(out, "request_duration_seconds_count", status, cumulative);
+        }
+
+        header(out, "response_bytes_total", "counter", "Bytes of response heads and bodies of known length sent.");
+        sample(out, "response_bytes_total", null, metrics.getBytesSent());
+        header(out, "parse_errors_total", "counter", "Requests rejected because they could not be parsed.");
+        sample(out, "parse_errors_total", null, metrics.getParseErrors());
+        header(out, "connections_accepted_total", "counter", "Connections accepted.");
+        sample(out, "connections_accepted_total", null, metrics.getConnectionsAccepted());
+        header(out, "connections", "gauge", "Open connections, handling a request or idle between keep-alive requests.");
+        sample(out, "connections", "state=\"active\"", metrics.getActiveConnections());
+        sample(out, "connections", "state=\"idle\"", metrics.getIdleConnections());
+        header(out, "executor_queue_depth", "gauge", "Tasks waiting for a thread.");
+        sample(out, "executor_queue_depth", null, metrics.getExecutorQueueDepth());
+        header(out, "access_log_dropped_total", "counter", "Access log lines dropped because the log's buffer was full.");
+        sample(out, "access_log_dropped_total", null, metrics.getAccessLogDropped());
+
+        header(out, "cache_hits_total", "counter", "Lookups answered from a cache.");
+        for (final Map.Entry<String, CacheMetrics> cache : metrics.getCaches().entrySet())
+        {
+            sample(out, "cache_hits_total", cacheLabel(cache.getKey()), cache.getValue().getHits());
+        }
+        header(out, "cache_misses_total", "counter", "Lookups a cache could not answer.");
+        for (final Map.Entry<String, CacheMetrics> cache : metrics.getCaches().entrySet())
+        {
+            sample(out, "cache_misses_total", cacheLabel(cache.getKey()), cache.getValue().getMisses());
+        }
+        header(out, "cache_evictions_total", "counter", "Entries evicted to make room or because they expired.");
+        for (final Map.Entry<String, CacheMetrics> cache : metrics.getCaches().entrySet())
+        {
+            sample(out, "cache_evictions_total", cacheLabel(cache.getKey()), cache.getValue().getEvictions());
+        }
+        header(out, "cache_entries", "gauge", "Entries held by a cache.");
+        for (final Map.Entry<String, CacheMetrics> cache : metrics.getCaches().entrySet())
+        {
+            sample(out, "cache_entries", cacheLabel(cache.getKey()), cache.getValue().getEntries());
+        }
+        header(out, "cache_bytes", "gauge", "Bytes held by a cache bounded by size in bytes.");
+        for (final Map.Entry<String, CacheMetrics> cache : metrics.getCaches().entrySet())
+        {
+            final long bytes = cache.getValue().getBytes();
+            if (bytes >= 0)
+            {
+                sample(out, "cache_bytes", cacheLabel(cache.getKey()), bytes);
+            }
+        }
+        return out.toString();
+    }
+
+    private static String cacheLabel(final String cache)
+    {
+        return "cache=\"" + cache + "\"";
+    }
+
+    private static void header(final StringBuilder out, final String name, final String type, final String help)
+    {
+        out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(final StringBuilder out, final String name, final String labels, final Object value)
+    {
+        out.append(PREFIX).append(name);
+        if (null != labels)
+        {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+}
@@ -22,6 +22,41 @@ public class ConfigurationModule extends AbstractModule
     public static final String DOCUMENT_ROOT = "org.mvryan.simple-http.document-root";
     public static final String ALLOW_DIRECTORY_INDEX = "org.mvryan.simple-http.allow-directory-index";
     public static final String CACHE_ENABLED = "org.mvryan.simple-http.cache-enabled";
+    public static final String CACHE_BACKEND = "org.mvryan.simple-http.cache-backend";
+    public static final String CACHE_MAX_BYTES = "org.mvryan.simple-http.cache-max-bytes";
+    public static final String CACHE_MAX_FILE_SIZE = "org.mvryan.simple-http.cache-max-file-size";
+    public static final String SERVER_MODE = "org.mvryan.simple-http.server-mode";
+    public static final String IO_THREADS = "org.mvryan.simple-http.io-threads";
+    public static final String REUSEPORT_ENABLED = "org.mvryan.simple-http.reuseport-enabled";
+    public static final String WORKER_THREADS = "org.mvryan.simple-http.worker-threads";
+    public static final String EXECUTOR = "org.mvryan.simple-http.executor";
+    public static final String ZERO_COPY_THRESHOLD = "org.mvryan.simple-http.zero-copy-threshold";
+    public static final String MMAP_ENABLED = "org.mvryan.simple-http.mmap-enabled";
+    public static final String MMAP_MAX_BYTES = "org.mvryan.simple-http.mmap-max-bytes";
+    public static final String MMAP_MAX_FILE_SIZE = "org.mvryan.simple-http.mmap-max-file-size";
+    public static final String PIPELINE_DEPTH = "org.mvryan.simple-http.pipeline-depth";
+    public static final String COMPRESSION_ENABLED = "org.mvryan.simple-http.compression-enabled";
+    public static final String COMPRESSION_MIN_SIZE = "org.mvryan.simple-http.compression-min-size";
+    public static final String COMPRESSION_MAX_SIZE = "org.mvryan.simple-http.compression-max-size";
+    public static final String COMPRESSION_CACHE_MAX_BYTES = "org.mvryan.simple-http.compression-cache-max-bytes";
+    public static final String COMPRESSION_CPU_BUDGET = "org.mvryan.simple-http.compression-cpu-budget";
+    public static final String PRECOMPRESSED_ENABLED = "org.mvryan.simple-http.precompressed-enabled";
+    public static final String PRECOMPRESSED_LOOKUP_TTL = "org.mvryan.simple-http.precompressed-lookup-ttl";
+    public static final String METADATA_CACHE_TTL = "org.mvryan.simple-http.metadata-cache-ttl";
+    public static final String METADATA_CACHE_MAX_ENTRIES = "org.mvryan.simple-http.metadata-cache-max-entries";
+    public static final String ETAG_CONTENT_HASH = "org.mvryan.simple-http.etag-content-hash";
+    public static final String WATCH_ENABLED = "org.mvryan.simple-http.watch-enabled";
+    public static final String WATCH_RESCAN_INTERVAL = "org.mvryan.simple-http.watch-rescan-interval";
+    public static final String PRELOAD_MAX_BYTES = "org.mvryan.simple-http.preload-max-bytes";
+    public static final String MIME_TYPES_FILE = "org.mvryan.simple-http.mime-types-file";
+    public static final String INDEX_CACHE_MAX_BYTES = "org.mvryan.simple-http.index-cache-max-bytes";
+    public static final String ACCESS_LOG_FILE = "org.mvryan.simple-http.access-log-file";
+    public static final String ACCESS_LOG_FORMAT = "org.mvryan.simple-http.access-log-format";
+    public static final String ACCESS_LOG_BUFFER_SIZE = "org.mvryan.simple-http.access-log-buffer-size";
+    public static final String ACCESS_LOG_FULL_POLICY = "org.mvryan.simple-http.access-log-full-policy";
+    public static final String ACCESS_LOG_FSYNC_INTERVAL = "org.mvryan.simple-http.access-log-fsync-interval";
+    public static final String ACCESS_LOG_MAX_BYTES = "org.mvryan.simple-http.access-log-max-bytes";
+    public static final String ACCESS_LOG_MAX_FILES = "org.mvryan.simple-http.access-log-max-files";
     
     @Getter
     private Map<String, String> config = Maps.newHashMap();
@@ -38,6 +73,41 @@ public class ConfigurationModule extends AbstractModule
         config.put(DOCUMENT_ROOT, docRoot);
         config.put(ALLOW_DIRECTORY_INDEX, Boolean.FALSE.toString());
         config.put(CACHE_ENABLED, Boolean.FALSE.toString());
+        config.put(CACHE_BACKEND, "heap");
+        config.put(CACHE_MAX_BYTES, String.valueOf(64L * 1024 * 1024));
+        config.put(CACHE_MAX_FILE_SIZE, String.valueOf(1024L * 1024));
+        config.put(SERVER_MODE, "blocking");
+        config.put(IO_THREADS, String.valueOf(Runtime.getRuntime().availableProcessors()));
+        config.put(REUSEPORT_ENABLED, Boolean.FALSE.toString());
+        config.put(WORKER_THREADS, String.valueOf(Math.max(4, 2 * Runtime.getRuntime().availableProcessors())));
+        config.put(EXECUTOR, "cached");
+        config.put(ZERO_COPY_THRESHOLD, String.valueOf(64 * 1024));
+        config.put(MMAP_ENABLED, Boolean.FALSE.toString());
+        config.put(MMAP_MAX_BYTES, String.valueOf(256L * 1024 * 1024));
+        config.put(MMAP_MAX_FILE_SIZE, String.valueOf(16L * 1024 * 1024));
+        config.put(PIPELINE_DEPTH, String.valueOf(16));
+        config.put(COMPRESSION_ENABLED, Boolean.FALSE.toString());
+        config.put(COMPRESSION_MIN_SIZE, String.valueOf(1024));
+        config.put(COMPRESSION_MAX_SIZE, String.valueOf(1024L * 1024));
+        config.put(COMPRESSION_CACHE_MAX_BYTES, String.valueOf(32L * 1024 * 1024));
+        config.put(COMPRESSION_CPU_BUDGET, String.valueOf(250));
+        config.put(PRECOMPRESSED_ENABLED, Boolean.FALSE.toString());
+        config.put(PRECOMPRESSED_LOOKUP_TTL, String.valueOf(5000));
+        config.put(METADATA_CACHE_TTL, String.valueOf(1000));
+        config.put(METADATA_CACHE_MAX_ENTRIES, String.valueOf(10000));
+        config.put(ETAG_CONTENT_HASH, Boolean.FALSE.toString());
+        config.put(WATCH_ENABLED, Boolean.FALSE.toString());
+        config.put(WATCH_RESCAN_INTERVAL, String.valueOf(10000));
+        config.put(PRELOAD_MAX_BYTES, String.valueOf(0));
+        config.put(MIME_TYPES_FILE, "");
+        config.put(INDEX_CACHE_MAX_BYTES, String.valueOf(8L * 1024 * 1024));
+        config.put(ACCESS_LOG_FILE, "");
+        config.put(ACCESS_LOG_FORMAT, "combined");
+        config.put(ACCESS_LOG_BUFFER_SIZE, String.valueOf(8192));
+        config.put(ACCESS_LOG_FULL_POLICY, "drop");
+        config.put(ACCESS_LOG_FSYNC_INTERVAL, String.valueOf(1000));
+        config.put(ACCESS_LOG_MAX_BYTES, String.valueOf(100L * 1024 * 1024));
+        config.put(ACCESS_LOG_MAX_FILES, String.valueOf(5));
         
         // Load any configuration from resources
         try
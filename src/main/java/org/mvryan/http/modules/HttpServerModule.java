@@ -1,16 +1,82 @@
 package org.mvryan.http.modules;
 
+import java.util.Map;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.metrics.StatusResponseStrategy;
+import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.filesys.CompressedContentCache;
+import org.mvryan.http.response.filesys.DirectoryIndex;
+import org.mvryan.http.response.filesys.FileContentCache;
+import org.mvryan.http.response.filesys.FileMetadataCache;
 import org.mvryan.http.response.filesys.FilesystemResponseStrategy;
+import org.mvryan.http.response.filesys.HeapContentCache;
 import org.mvryan.http.response.filesys.HttpResponseStrategy;
+import org.mvryan.http.response.filesys.MappedFileCache;
+import org.mvryan.http.response.filesys.OffHeapContentCache;
+import org.mvryan.http.response.filesys.SidecarFileCache;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
 
 public class HttpServerModule extends AbstractModule
 {
+    public static final String CACHE_BACKEND_HEAP = "heap";
+    public static final String CACHE_BACKEND_OFFHEAP = "offheap";
+    
     @Override
     protected void configure()
     {
         install(new ConfigurationModule());        
         bind(HttpResponseStrategy.class).to(FilesystemResponseStrategy.class);
     }
+    
+    @Provides
+    FileContentCache provideContentCache(@Named(ConfigurationModule.CACHE_BACKEND) final String backend,
+            final Provider<HeapContentCache> heapCache,
+            final Provider<OffHeapContentCache> offHeapCache)
+    {
+        return CACHE_BACKEND_OFFHEAP.equalsIgnoreCase(backend) ? offHeapCache.get() : heapCache.get();
+    }
+    
+    /**
+     * The request path prefixes the server answers, each with the
+     * strategy that answers it.  See {@link HttpResponseFactory}.
+     */
+    @Provides
+    @Singleton
+    Map<String, HttpResponseStrategy> provideRoutes(final HttpResponseStrategy fileStrategy,
+            final StatusResponseStrategy statusStrategy)
+    {
+        return ImmutableMap.of(HttpResponseFactory.ROOT, fileStrategy,
+                StatusResponseStrategy.PATH, statusStrategy);
+    }
+    
+    /**
+     * The caches whose statistics are published, by the name they are
+     * published under.
+     */
+    @Provides
+    @Singleton
+    Map<String, MeteredCache> provideCaches(final FileContentCache contentCache,
+            final MappedFileCache mappedFileCache,
+            final CompressedContentCache compressedContentCache,
+            final FileMetadataCache metadataCache,
+            final SidecarFileCache sidecarFileCache,
+            final DirectoryIndex directoryIndex)
+    {
+        return ImmutableMap.<String, MeteredCache>builder()
+                .put("content", contentCache)
+                .put("mapped", mappedFileCache)
+                .put("compressed", compressedContentCache)
+                .put("metadata", metadataCache)
+                .put("sidecar", sidecarFileCache)
+                .put("index", directoryIndex)
+                .build();
+    }
 }
@@ -1,24 +1,31 @@
 package org.mvryan.http.request;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
 
 import javax.inject.Inject;
 
 import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import org.mvryan.http.response.HttpResponseCode;
 
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
 
+/**
+ * A parsed request head.  Parsing works on raw bytes: the method and
+ * version are matched in place, and headers are kept as offsets into a
+ * copy of the head that is reused from one request to the next, so a
+ * header only becomes a String when something asks for it.
+ */
 @Slf4j
 public class HttpRequest
 {
@@ -26,146 +33,328 @@ public class HttpRequest
     private String method = null;
     @Getter
     private URL uri = null;
+    /**
+     * System.nanoTime() when the last request head was complete
+     */
     @Getter
-    private Map<String, String> headers = Maps.newHashMap();
+    private long received = 0;
+    /**
+     * The address of the client, set by the connection for the access log
+     */
+    @Getter
+    @Setter
+    private String remoteAddress = null;
     
     public static final String HTTP_VERSION_1_1 = "HTTP/1.1";
     public static final int MAX_URI_LENGTH=2048; // Semi-arbitrary limit with some de-facto basis.  Ask the internet for more info... :)
-    private static final int MAX_WORD_LENGTH=MAX_URI_LENGTH*2;
+    public static final int MAX_HEAD_SIZE=8192;
     
     public static final String METHOD_GET = "GET";
     public static final String METHOD_HEAD = "HEAD";
     
-    private static final Set<String> supportedMethods = Sets.newHashSet(METHOD_GET, METHOD_HEAD);
+    private static final byte[] GET_BYTES = bytes(METHOD_GET);
+    private static final byte[] HEAD_BYTES = bytes(METHOD_HEAD);
+    private static final byte[] HTTP_VERSION_1_1_BYTES = bytes(HTTP_VERSION_1_1);
+    
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HTAB = '\t';
+    private static final byte COLON = ':';
+    private static final byte QUOTE = '"';
+    private static final byte BACKSLASH = '\\';
+    private static final byte[] HEX_DIGITS = bytes("0123456789abcdef");
+    
+    // Each header is four offsets into head: name start/end, value start/end
+    private static final int SLOTS_PER_HEADER = 4;
+    
+    private byte[] head = new byte[1024];
+    private int[] headerSlots = new int[16 * SLOTS_PER_HEADER];
+    private int headerCount = 0;
+    private int requestLineLength = 0;
+    private Map<String, String> headers = null;
     
     @Inject
     public HttpRequest() { }
     
+    /**
+     * Reads from the stream into the buffer until a whole request head
+     * has arrived, then parses it.  The buffer is left in write mode
+     * holding any bytes received after the head, so it should be kept for
+     * the next request on the same connection.
+     * 
+     * @return the parse result, or null if the stream ended before any
+     *         part of a request arrived
+     */
+    public HttpResponseCode parse(final InputStream is, final ByteBuffer buffer) throws IOException
+    {
+        while (true)
+        {
+            buffer.flip();
+            final HttpResponseCode responseCode = parse(buffer);
+            buffer.compact();
+            if (null != responseCode)
+            {
+                return responseCode;
+            }
+            
+            final int read = is.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (-1 == read)
+            {
+                received = System.nanoTime();
+                return 0 == buffer.position() ? null : HttpResponseCode.BAD_REQUEST;
+            }
+            buffer.position(buffer.position() + read);
+        }
+    }
+    
     public HttpResponseCode parse(final InputStream is) throws IOException
     {
-        final BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        final HttpResponseCode responseCode = parse(is, ByteBuffer.allocate(MAX_HEAD_SIZE));
+        return null == responseCode ? HttpResponseCode.BAD_REQUEST : responseCode;
+    }
+    
+    /**
+     * Parses one request head from the buffer, which must be in read mode.
+     * On success the buffer's position is moved past the head; if the head
+     * is still incomplete null is returned and nothing but leading blank
+     * lines is consumed, so the caller can read more and try again.  A head that
+     * fills the whole buffer without ending is rejected.
+     */
+    public HttpResponseCode parse(final ByteBuffer buffer)
+    {
+        // Tolerate stray line breaks between requests
+        int start = buffer.position();
+        while (start < buffer.limit() && (CR == buffer.get(start) || LF == buffer.get(start)))
+        {
+            start++;
+        }
+        buffer.position(start);
+        
+        int requestLineEnd = -1;
+        int headEnd = -1;
+        int lineStart = start;
+        for (int i=start; i<buffer.limit(); i++)
+        {
+            if (LF == buffer.get(i))
+            {
+                if (-1 == requestLineEnd)
+                {
+                    requestLineEnd = i;
+                }
+                final int lineLength = i - lineStart - (i > lineStart && CR == buffer.get(i-1) ? 1 : 0);
+                if (0 == lineLength)
+                {
+                    headEnd = i + 1;
+                    break;
+                }
+                lineStart = i + 1;
+            }
+        }
+        
+        if (-1 == headEnd)
+        {
+            if (0 == start && buffer.limit() == buffer.capacity())
+            {
+                reset();
+                received = System.nanoTime();
+                return -1 == requestLineEnd ? HttpResponseCode.REQUEST_URI_TOO_LONG : HttpResponseCode.BAD_REQUEST;
+            }
+            return null;
+        }
+        
+        final int length = headEnd - start;
+        if (head.length < length)
+        {
+            head = new byte[Math.max(length, head.length * 2)];
+        }
+        buffer.get(head, 0, length);
+        
+        reset();
+        received = System.nanoTime();
+        final HttpResponseCode responseCode = parseHead(length);
+        if (log.isDebugEnabled())
+        {
+            log.debug(String.format("Parsed request \"%s %s\" with %d headers: %s", method, uri, headerCount, responseCode.getStatus()));
+        }
+        return responseCode;
+    }
+    
+    /**
+     * @return the value of the last header with the given name, compared
+     *         case-insensitively, or null if there isn't one
+     */
+    public String getHeader(final String name)
+    {
+        final int slot = findHeader(name);
+        return -1 == slot ? null : slice(headerSlots[slot+2], headerSlots[slot+3]);
+    }
+    
+    public Map<String, String> getHeaders()
+    {
+        if (null == headers)
+        {
+            final Map<String, String> m = Maps.newHashMap();
+            for (int slot=0; slot<headerCount*SLOTS_PER_HEADER; slot += SLOTS_PER_HEADER)
+            {
+                m.put(slice(headerSlots[slot], headerSlots[slot+1]), slice(headerSlots[slot+2], headerSlots[slot+3]));
+            }
+            headers = Collections.unmodifiableMap(m);
+        }
+        return headers;
+    }
+    
+    /**
+     * Copies the request line as it was received, without its line break,
+     * for a log.  A quote, a backslash or a byte that isn't printable
+     * ASCII is written as a \xhh escape, so the line can be quoted.
+     * 
+     * @return the offset after the copy, which stops short of limit
+     *         rather than split an escape; offset itself if there is no
+     *         request line
+     */
+    public int copyRequestLine(final byte[] dst, final int offset, final int limit)
+    {
+        return copyEscaped(0, requestLineLength, dst, offset, limit);
+    }
+    
+    /**
+     * Copies the value of the last header with the given name, escaped
+     * like {@link #copyRequestLine}.
+     * 
+     * @return the offset after the copy, or -1 if there is no such header
+     */
+    public int copyHeader(final String name, final byte[] dst, final int offset, final int limit)
+    {
+        final int slot = findHeader(name);
+        return -1 == slot ? -1 : copyEscaped(headerSlots[slot+2], headerSlots[slot+3], dst, offset, limit);
+    }
+    
+    public boolean isKeepalive()
+    {
+        final int slot = findHeader("Connection");
+        return -1 != slot && equalsIgnoreCase(headerSlots[slot+2], headerSlots[slot+3], "keep-alive");
+    }
+    
+    public boolean isCacheable()
+    {
+        final int slot = findHeader("Cache-Control");
+        return -1 == slot || ! (contains(headerSlots[slot+2], headerSlots[slot+3], "no-cache")
+                || contains(headerSlots[slot+2], headerSlots[slot+3], "no-store"));
+    }
+    
+    private void reset()
+    {
+        method = null;
+        uri = null;
+        headerCount = 0;
+        requestLineLength = 0;
+        headers = null;
+    }
+    
+    private HttpResponseCode parseHead(final int length)
+    {
+        int lineEnd = indexOf(LF, 0, length);
+        final int requestLineEnd = lineEnd > 0 && CR == head[lineEnd-1] ? lineEnd-1 : lineEnd;
+        requestLineLength = requestLineEnd;
         
-        method = readWord(reader);
-        log.debug(String.format("Parsed request method \"%s\"", method));
-        if (null == method)
+        final int methodEnd = indexOf(SP, 0, requestLineEnd);
+        if (methodEnd <= 0)
         {
             return HttpResponseCode.BAD_REQUEST;
         }
-        else if (! isSupportedMethod(method))
+        else if (matches(0, methodEnd, GET_BYTES))
+        {
+            method = METHOD_GET;
+        }
+        else if (matches(0, methodEnd, HEAD_BYTES))
         {
+            method = METHOD_HEAD;
+        }
+        else
+        {
+            method = slice(0, methodEnd);
             return HttpResponseCode.NOT_IMPLEMENTED;
         }
         
-        final String uri = readWord(reader);
-        log.debug(String.format("Parsed request URI \"%s\"", uri));
-        if (null == uri)
+        final int uriStart = methodEnd + 1;
+        final int uriEnd = indexOf(SP, uriStart, requestLineEnd);
+        if (uriEnd <= uriStart)
         {
             return HttpResponseCode.BAD_REQUEST;
         }
-        else if (uri.length() > MAX_URI_LENGTH)
+        else if (uriEnd - uriStart > MAX_URI_LENGTH)
         {
             return HttpResponseCode.REQUEST_URI_TOO_LONG;
         }
         
-        final String version = readWord(reader);
-        log.debug(String.format("Parsed request version \"%s\"", version));
-        if (null == version)
+        if (uriEnd + 1 >= requestLineEnd)
         {
             return HttpResponseCode.BAD_REQUEST;
         }
-        else if (! HTTP_VERSION_1_1.equals(version))
+        else if (! matches(uriEnd + 1, requestLineEnd, HTTP_VERSION_1_1_BYTES))
         {
             return HttpResponseCode.HTTP_VERSION_NOT_SUPPORTED;
         }
         
-        HttpResponseCode responseCode = parseHeaders(reader);
+        HttpResponseCode responseCode = parseHeaders(lineEnd + 1, length);
         if (HttpResponseCode.OK != responseCode)
         {
             return responseCode;
         }
         
-        final String hostHeader = headers.get("Host");
+        final String hostHeader = getHeader("Host");
         if (null == hostHeader)
         {
             return HttpResponseCode.BAD_REQUEST;
         }
         
-        responseCode = normalizePath(uri, hostHeader);
+        responseCode = normalizePath(slice(uriStart, uriEnd), hostHeader);
         
         return responseCode;
     }
     
-    public boolean isKeepalive()
+    private HttpResponseCode parseHeaders(int lineStart, final int length)
     {
-        final String connection = headers.get("Connection");
-        return null != connection && connection.equals("keep-alive");
-    }
-    
-    public boolean isCacheable()
-    {
-        final String cacheControl = headers.get("Cache-Control");
-        return null != cacheControl && ! cacheControl.equals("no-cache");
-    }
-    
-    private String readWord(final BufferedReader reader) throws IOException
-    {
-        char nextChar = (char) reader.read();
-        if (-1 == nextChar)
-        {
-            return null;
-        }
-        else if ('\r' == nextChar)
-        {
-            reader.read(); // consume CRLF sequence
-            return null;
-        }
-        
-        final StringBuilder sb = new StringBuilder();
-        sb.append(nextChar);
-        while (! Character.isWhitespace(nextChar = (char) reader.read()))
+        int lineEnd;
+        while (-1 != (lineEnd = indexOf(LF, lineStart, length)))
         {
-            if (-1 == nextChar)
+            final int end = lineEnd > lineStart && CR == head[lineEnd-1] ? lineEnd-1 : lineEnd;
+            if (end == lineStart)
             {
                 break;
             }
             
-            sb.append(nextChar);
+            // No whitespace is allowed between a header name and its colon
+            final int colon = indexOf(COLON, lineStart, end);
+            if (colon <= lineStart || isWhitespace(head[colon-1]))
+            {
+                return HttpResponseCode.BAD_REQUEST;
+            }
             
-            if (sb.length() > MAX_WORD_LENGTH)
+            int valueStart = colon + 1;
+            int valueEnd = end;
+            while (valueStart < valueEnd && isWhitespace(head[valueStart]))
             {
-                // Something weird happening here
-                return null;
+                valueStart++;
             }
-        }
-        
-        if ('\r' == nextChar)
-        {
-            reader.read(); // consume CRLF sequence
-        }
-        
-        return sb.length() > 0 ? sb.toString() : null;
-    }
-    
-    private boolean isSupportedMethod(final String method)
-    {
-        return supportedMethods.contains(method);
-    }
-    
-    private HttpResponseCode parseHeaders(final BufferedReader reader) throws IOException
-    {
-        String header;
-        String value;
-        while (null != (header = readWord(reader)))
-        {
-            value = reader.readLine();
-            if (null == value)
+            while (valueEnd > valueStart && isWhitespace(head[valueEnd-1]))
             {
-                return HttpResponseCode.BAD_REQUEST;
+                valueEnd--;
+            }
+            
+            final int slot = headerCount * SLOTS_PER_HEADER;
+            if (slot == headerSlots.length)
+            {
+                headerSlots = Arrays.copyOf(headerSlots, headerSlots.length * 2);
             }
-            final String h = header.substring(0, header.length()-1);
-            final String v = value.trim();
-            log.debug(String.format("Parsed header \"%s: %s\"", h, v));
-            headers.put(h, v);
+            headerSlots[slot] = lineStart;
+            headerSlots[slot+1] = colon;
+            headerSlots[slot+2] = valueStart;
+            headerSlots[slot+3] = valueEnd;
+            headerCount++;
+            
+            lineStart = lineEnd + 1;
         }
         
         return HttpResponseCode.OK;
@@ -190,7 +379,6 @@ public class HttpRequest
         
         try
         {
-            log.debug(String.format("Normalized request URI \"%s\", host header \"%s\" to URI \"%s\"", requestUri, host, fullUri));
             uri = new URL(fullUri);
         }
         catch (MalformedURLException e)
@@ -200,4 +388,123 @@ public class HttpRequest
         
         return HttpResponseCode.OK;
     }
+    
+    private int findHeader(final String name)
+    {
+        // Search backwards so a repeated header resolves to its last value
+        for (int slot=(headerCount-1)*SLOTS_PER_HEADER; slot>=0; slot -= SLOTS_PER_HEADER)
+        {
+            if (equalsIgnoreCase(headerSlots[slot], headerSlots[slot+1], name))
+            {
+                return slot;
+            }
+        }
+        return -1;
+    }
+    
+    private int indexOf(final byte b, final int from, final int to)
+    {
+        for (int i=from; i<to; i++)
+        {
+            if (b == head[i])
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private boolean matches(final int from, final int to, final byte[] expected)
+    {
+        if (to - from != expected.length)
+        {
+            return false;
+        }
+        for (int i=0; i<expected.length; i++)
+        {
+            if (head[from+i] != expected[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private boolean equalsIgnoreCase(final int from, final int to, final String expected)
+    {
+        return to - from == expected.length() && regionMatches(from, expected);
+    }
+    
+    private boolean contains(final int from, final int to, final String expected)
+    {
+        for (int i=from; i<=to-expected.length(); i++)
+        {
+            if (regionMatches(i, expected))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private boolean regionMatches(final int from, final String expected)
+    {
+        // Header names and tokens are ASCII, where case differs by one bit
+        for (int i=0; i<expected.length(); i++)
+        {
+            if (toLowerCase(head[from+i]) != toLowerCase((byte) expected.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private int copyEscaped(final int from, final int to, final byte[] dst, int offset, final int limit)
+    {
+        for (int i=from; i<to; i++)
+        {
+            final byte b = head[i];
+            if (b < SP || b > '~' || QUOTE == b || BACKSLASH == b)
+            {
+                if (offset + 4 > limit)
+                {
+                    break;
+                }
+                dst[offset++] = BACKSLASH;
+                dst[offset++] = 'x';
+                dst[offset++] = HEX_DIGITS[(b >> 4) & 0xf];
+                dst[offset++] = HEX_DIGITS[b & 0xf];
+            }
+            else
+            {
+                if (offset + 1 > limit)
+                {
+                    break;
+                }
+                dst[offset++] = b;
+            }
+        }
+        return offset;
+    }
+    
+    private String slice(final int from, final int to)
+    {
+        return new String(head, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+    
+    private static byte toLowerCase(final byte b)
+    {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+    
+    private static boolean isWhitespace(final byte b)
+    {
+        return SP == b || HTAB == b;
+    }
+    
+    private static byte[] bytes(final String s)
+    {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 }
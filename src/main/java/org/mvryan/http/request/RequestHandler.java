@@ -1,24 +1,29 @@
 package org.mvryan.http.request;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
 import java.util.Optional;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
 import lombok.extern.slf4j.Slf4j;
 
-import org.joda.time.DateTime;
-import org.joda.time.format.ISODateTimeFormat;
+import org.mvryan.http.metrics.Metrics;
 import org.mvryan.http.response.HttpResponse;
 import org.mvryan.http.response.HttpResponseCode;
 import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.ResponsePipeline;
 import org.mvryan.http.response.filesys.HttpResponseStrategy;
+import org.mvryan.http.server.TimingWheel;
+import org.mvryan.http.server.TimingWheel.Timeout;
 
 import com.google.inject.Injector;
 
@@ -29,9 +34,47 @@ public class RequestHandler implements Runnable
 {
     final Socket socket;
     final Injector injector;
+    final HttpResponseFactory factory;
+    final Metrics metrics;
+    final TimingWheel timer;
     
-    Timer keepaliveTimer = null;
-    Timer maxKeepaliveTimer = null;
+    // A j.u.c lock rather than synchronized, so a virtual thread blocked
+    // writing a response doesn't pin its carrier thread.
+    final Lock lock = new ReentrantLock();
+    
+    volatile Timeout keepaliveTimeout = null;
+    volatile Timeout maxKeepaliveTimeout = null;
+    
+    final Runnable keepaliveExpired = new Runnable()
+    {
+        @Override public void run()
+        {
+            if (closeIdleSocket("Keepalive timeout expired - socket closed"))
+            {
+                maxKeepaliveTimeout.cancel();
+            }
+            else
+            {
+                keepaliveTimeout = timer.schedule(this, KEEPALIVE_TIMEOUT_SECONDS*1000);
+            }
+        }
+    };
+    
+    final Runnable maxKeepaliveExpired = new Runnable()
+    {
+        @Override public void run()
+        {
+            if (closeIdleSocket("Max keepalive timeout expired - socket closed"))
+            {
+                keepaliveTimeout.cancel();
+            }
+            else
+            {
+                // Let the response in progress finish first
+                maxKeepaliveTimeout = timer.schedule(this, TimingWheel.DEFAULT_TICK_MILLIS);
+            }
+        }
+    };
     
     public static final int KEEPALIVE_TIMEOUT_SECONDS = 15;
     public static final int MAX_KEEPALIVE_TIMEOUT_SECONDS = 100;
@@ -40,48 +83,47 @@ public class RequestHandler implements Runnable
     public void run()
     {
         final HttpRequest request = injector.getInstance(HttpRequest.class);
+        final ResponsePipeline pipeline = injector.getInstance(ResponsePipeline.class);
+        final ByteBuffer readBuffer = ByteBuffer.allocate(HttpRequest.MAX_HEAD_SIZE);
+        request.setRemoteAddress(socket.getInetAddress().getHostAddress());
+        boolean active = false;
+        boolean writing = false;
+        metrics.connectionOpened();
         try
         {
             while(true)
             {
-                HttpResponseCode responseCode = request.parse(socket.getInputStream());
-                
-                if (responseCode.isError() || responseCode.isRedirect())
+                HttpResponseCode responseCode = request.parse(socket.getInputStream(), readBuffer);
+                if (null == responseCode)
                 {
-                    respondAndClose(request, responseCode);
+                    // Client closed the connection between requests
+                    closeSocket();
                     break;
                 }
-                else
+                metrics.connectionActive();
+                active = true;
+                
+                // Answer any pipelined requests that arrived with this one
+                // before writing, so their responses go out together
+                boolean close = handleRequest(request, responseCode, pipeline);
+                while (! close && ! pipeline.isFull() && null != (responseCode = parseBuffered(request, readBuffer)))
                 {
-                    log.info(String.format("Request: %s %s", request.getMethod(), request.getUri().getPath()));            
-                    
-                    final HttpResponseFactory factory = injector.getInstance(HttpResponseFactory.class);
-                    final HttpResponseStrategy responseStrategy = factory.getResponseStrategy(request);
-                    final HttpResponse response = responseStrategy.determineResponse(request);
-                    responseCode = response.getResponseCode();
-                    
-                    if (responseCode.isError())
-                    {
-                        respondAndClose(request, responseCode, Optional.of(response));
-                        break;
-                    }
-                    else
-                    {
-                        if (request.isKeepalive())
-                        {
-                            manageKeepalives();
-                            respond(request, responseCode, Optional.of(response));
-                        }
-                        else
-                        {
-                            respondAndClose(request, responseCode, Optional.of(response));
-                            break;
-                        }
-                    }
+                    close = handleRequest(request, responseCode, pipeline);
+                }
+                
+                writing = true;
+                flush(pipeline);
+                writing = false;
+                metrics.connectionIdle();
+                active = false;
+                if (close)
+                {
+                    closeSocket();
+                    break;
                 }
             }
         }
-        catch (SocketException se)
+        catch (SocketException | ClosedChannelException se)
         {
             // This happens when we close the socket while trying to read,
             // which happens if a keepalive timer expires.  Nothing to
@@ -90,145 +132,174 @@ public class RequestHandler implements Runnable
         catch (Exception e)
         {
             log.error("Exception caught handling request", e);
+            // Once part of a response is on the wire a 500 would only be
+            // read as the rest of it, so the socket is just closed
+            if (! writing)
+            {
+                try
+                {
+                    pipeline.add(request, HttpResponseCode.INTERNAL_SERVER_ERROR, Optional.empty());
+                    flush(pipeline);
+                }
+                catch (IOException | RuntimeException ioe)
+                {
+                    // This is bad - all we can really do is log the error
+                    log.error("Unable to send client response", ioe);
+                }
+            }
+        }
+        finally
+        {
+            if (active)
+            {
+                metrics.connectionIdle();
+            }
+            metrics.connectionClosed();
+            cancelKeepalives();
+            try
+            {
+                pipeline.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("Unable to release pending responses", e);
+            }
             try
             {
-                respondAndClose(request, HttpResponseCode.INTERNAL_SERVER_ERROR);
+                closeSocket();
             }
-            catch (IOException ioe)
+            catch (IOException e)
             {
-                // This is bad - all we can really do is log the error
-                log.error("Unable to send client response", ioe);
+                log.debug("Unable to close socket", e);
             }
         }
     }
     
-    private void respond(final HttpRequest request,
-            final HttpResponseCode responseCode,
-            final Optional<HttpResponse> response)
-            throws IOException
+    /**
+     * Works out the response to a parsed request and queues it.
+     * 
+     * @return true if the connection must be closed once it is sent
+     */
+    private boolean handleRequest(final HttpRequest request,
+            HttpResponseCode responseCode,
+            final ResponsePipeline pipeline)
     {
-        synchronized(this)
+        if (responseCode.isError() || responseCode.isRedirect())
         {
-            final PrintWriter writer = new PrintWriter(socket.getOutputStream(), true);
-            writer.println(String.format("HTTP/1.1 %d %s", responseCode.getStatus(), responseCode.getReason()));
-            writer.println(String.format("Date: %s", DateTime.now().toString(ISODateTimeFormat.dateTime())));
-            writer.println("Server: Simple HTTP server version 0.0.1 (org.mvryan.http)");
-            if (request.isKeepalive())
+            if (responseCode.isError())
             {
-                writer.println("Connection: keep-alive");
-                writer.println(String.format("Keep-Alive: timeout=%d, max=%d", KEEPALIVE_TIMEOUT_SECONDS, MAX_KEEPALIVE_TIMEOUT_SECONDS));
-            }
-            else
-            {
-                writer.println("Connection: close");
-            }
-            if (response.isPresent())
-            {
-                if (request.getMethod().equals(HttpRequest.METHOD_HEAD))
-                {
-                    writer.println("");
-                }
-                else
-                {
-                    HttpResponse rsp = response.get();
-                    if (null != rsp.getResponsePayload())
-                    {
-                        writer.println(String.format("Content-Length: %d", rsp.getResponsePayload().length));
-                        writer.println(String.format("Content-Type: %s", rsp.getContentType()));
-                        writer.println("");
-                        socket.getOutputStream().write(rsp.getResponsePayload());
-                    }
-                }
+                metrics.parseError();
             }
+            pipeline.add(request, responseCode, Optional.empty());
+            return true;
         }
         
-        if (responseCode.isError())
+        final HttpResponseStrategy responseStrategy = factory.getResponseStrategy(request);
+        final HttpResponse response = responseStrategy.determineResponse(request);
+        responseCode = response.getResponseCode();
+        
+        pipeline.add(request, responseCode, Optional.of(response));
+        if (responseCode.isError() || ! request.isKeepalive())
         {
-            log.error(String.format("Response (ERROR): %d %s (Request: %s %s)",
-                    responseCode.getStatus(),
-                    responseCode.getReason(),
-                    request == null ? "?" : request.getMethod(),
-                    request == null ? "?" : (request.getUri() == null ? "?" : request.getUri().getPath())));
+            return true;
         }
-        else
+        manageKeepalives();
+        return false;
+    }
+    
+    /**
+     * @return the result of parsing a request already in the buffer, or
+     *         null if no complete request has arrived yet
+     */
+    private HttpResponseCode parseBuffered(final HttpRequest request, final ByteBuffer readBuffer)
+    {
+        readBuffer.flip();
+        final HttpResponseCode responseCode = request.parse(readBuffer);
+        readBuffer.compact();
+        return responseCode;
+    }
+    
+    private void flush(final ResponsePipeline pipeline) throws IOException
+    {
+        lock.lock();
+        try
         {
-            log.info(String.format("Response: %d %s (Request: %s %s)",
-                    responseCode.getStatus(),
-                    responseCode.getReason(),
-                    request == null ? "?" : request.getMethod(),
-                    request == null ? "?" : (request.getUri() == null ? "?" : request.getUri().getPath())));
+            final WritableByteChannel channel = getOutputChannel();
+            while (! pipeline.writeTo(channel));
+        }
+        finally
+        {
+            lock.unlock();
         }
     }
     
-    private void respondAndClose(final HttpRequest request, final HttpResponseCode responseCode) throws IOException
+    private WritableByteChannel getOutputChannel() throws IOException
     {
-        respondAndClose(request, responseCode, Optional.empty());
+        // Sockets accepted through a channel let file bodies go out
+        // with sendfile; anything else gets a stream-backed channel.
+        return null != socket.getChannel() ? socket.getChannel() : Channels.newChannel(socket.getOutputStream());
     }
     
-    private void respondAndClose(final HttpRequest request, final HttpResponseCode responseCode, 
-            final Optional<HttpResponse> response)
-        throws IOException
+    private void manageKeepalives()
     {
-        respond(request, responseCode, response);
-        closeSocket();
+        if (null == keepaliveTimeout)
+        {
+            keepaliveTimeout = timer.schedule(keepaliveExpired, KEEPALIVE_TIMEOUT_SECONDS*1000);
+            maxKeepaliveTimeout = timer.schedule(maxKeepaliveExpired, MAX_KEEPALIVE_TIMEOUT_SECONDS*1000);
+        }
+        else
+        {
+            keepaliveTimeout.reschedule(KEEPALIVE_TIMEOUT_SECONDS*1000);
+        }
     }
     
-    private void manageKeepalives()
+    private void cancelKeepalives()
     {
-        if (null != keepaliveTimer)
+        if (null != keepaliveTimeout)
         {
-            keepaliveTimer.cancel();
-            keepaliveTimer = null;
+            keepaliveTimeout.cancel();
+            maxKeepaliveTimeout.cancel();
         }
-        
-        keepaliveTimer = new Timer();
-        keepaliveTimer.schedule(new TimerTask()
+    }
+    
+    /**
+     * Called on the shared timer thread, which must never wait on a
+     * response being written.
+     * 
+     * @return false if a response is in progress and the socket was left open
+     */
+    private boolean closeIdleSocket(final String reason)
+    {
+        if (! lock.tryLock())
         {
-            @Override public void run()
-            {
-                try
-                {
-                    maxKeepaliveTimer.cancel();
-                    maxKeepaliveTimer = null;
-                    closeSocket();
-                    log.debug("Keepalive timeout expired - socket closed");
-                    keepaliveTimer.cancel();
-                    keepaliveTimer = null;
-                }
-                catch (IOException e)
-                {
-                    log.debug("Unable to close socket", e);
-                }
-            }
-        }, KEEPALIVE_TIMEOUT_SECONDS*1000);
-        
-        if (null == maxKeepaliveTimer)
+            return false;
+        }
+        try
         {
-            maxKeepaliveTimer = new Timer();
-            maxKeepaliveTimer.schedule(new TimerTask()
-            {
-                @Override public void run()
-                {
-                    try
-                    {
-                        keepaliveTimer.cancel();
-                        keepaliveTimer = null;
-                        closeSocket();
-                        log.debug("Max keepalive timeout expired - socket closed");
-                        maxKeepaliveTimer.cancel();
-                        maxKeepaliveTimer = null;
-                    }
-                    catch (IOException e)
-                    {
-                        log.debug("Unable to close socket", e);
-                    }
-                }
-            }, MAX_KEEPALIVE_TIMEOUT_SECONDS*1000);
-        }        
+            socket.close();
+            log.debug(reason);
+        }
+        catch (IOException e)
+        {
+            log.debug("Unable to close socket", e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return true;
     }
     
-    private synchronized void closeSocket() throws IOException
+    private void closeSocket() throws IOException
     {
-        socket.close();
+        lock.lock();
+        try
+        {
+            socket.close();
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 }
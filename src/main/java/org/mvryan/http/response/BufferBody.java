@@ -0,0 +1,53 @@
+package org.mvryan.http.response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A body held in memory, for small files and generated content.
+ */
+public class BufferBody implements ResponseBody
+{
+    private final ByteBuffer buffer;
+    
+    public BufferBody(final byte[] bytes)
+    {
+        this(ByteBuffer.wrap(bytes));
+    }
+    
+    public BufferBody(final ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+    }
+    
+    @Override
+    public long getContentLength()
+    {
+        return buffer.remaining();
+    }
+    
+    @Override
+    public ByteBuffer asByteBuffer()
+    {
+        return buffer.duplicate();
+    }
+    
+    @Override
+    public Transfer open()
+    {
+        final ByteBuffer source = buffer.duplicate();
+        return new Transfer()
+        {
+            @Override
+            public boolean transferTo(final WritableByteChannel target) throws IOException
+            {
+                target.write(source);
+                return ! source.hasRemaining();
+            }
+            
+            @Override
+            public void close() { }
+        };
+    }
+}
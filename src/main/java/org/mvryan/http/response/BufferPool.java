@@ -0,0 +1,60 @@
+package org.mvryan.http.response;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+
+/**
+ * Keeps released direct buffers of one size for reuse.  At most a fixed
+ * number are kept; buffers released beyond that are left to the garbage
+ * collector, so a burst of traffic doesn't pin its memory forever.
+ */
+public class BufferPool
+{
+    @Getter
+    private final int bufferSize;
+    private final int maxPooled;
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    
+    public BufferPool(final int bufferSize, final int maxPooled)
+    {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+    
+    /**
+     * @return a cleared buffer, pooled if one is free
+     */
+    public ByteBuffer acquire()
+    {
+        final ByteBuffer buffer = pool.poll();
+        if (null == buffer)
+        {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+    
+    public void release(final ByteBuffer buffer)
+    {
+        if (pooled.incrementAndGet() <= maxPooled)
+        {
+            pool.add(buffer);
+        }
+        else
+        {
+            pooled.decrementAndGet();
+        }
+    }
+    
+    int getPooled()
+    {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,153 @@
+package org.mvryan.http.response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A body of unknown length, generated as it is sent and framed with
+ * "Transfer-Encoding: chunked".  The first bytes go out as soon as the
+ * first buffer is full rather than once the whole body is built.
+ * 
+ * Each transfer fills one pooled buffer from its {@link Source}, sends it
+ * as a chunk and fills it again, so the memory a response holds is one
+ * buffer however long the body is.
+ */
+public abstract class ChunkedBody implements ResponseBody
+{
+    public static final long UNKNOWN_LENGTH = -1;
+    
+    static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 256;
+    private static final BufferPool buffers = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+    
+    // Chunk sizes are written as four hex digits, padded with zeros, so
+    // the size line can be reserved before the data is known
+    private static final int SIZE_LINE_LENGTH = 6;
+    private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_DATA = BUFFER_SIZE - SIZE_LINE_LENGTH - CRLF.length - LAST_CHUNK.length;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    
+    /**
+     * Produces a body a piece at a time.
+     */
+    public interface Source
+    {
+        /**
+         * @return the next piece of the body, or null once it is complete
+         */
+        byte[] next() throws IOException;
+        
+        /**
+         * Releases anything the source holds.  Called once the transfer
+         * ends, whether or not the body was sent in full.
+         */
+        default void close() throws IOException { }
+    }
+    
+    /**
+     * @return a new source producing the body from the start
+     */
+    protected abstract Source openSource() throws IOException;
+    
+    @Override
+    public long getContentLength()
+    {
+        return UNKNOWN_LENGTH;
+    }
+    
+    @Override
+    public Transfer open() throws IOException
+    {
+        final Source source = openSource();
+        return new Transfer()
+        {
+            ByteBuffer buffer = buffers.acquire();
+            byte[] piece = null;
+            int pieceOffset = 0;
+            boolean sourceDone = false;
+            boolean filled = false;
+            
+            @Override
+            public boolean transferTo(final WritableByteChannel target) throws IOException
+            {
+                while (true)
+                {
+                    if (! filled)
+                    {
+                        fill();
+                        filled = true;
+                    }
+                    target.write(buffer);
+                    if (buffer.hasRemaining())
+                    {
+                        return false;
+                    }
+                    if (sourceDone)
+                    {
+                        return true;
+                    }
+                    filled = false;
+                }
+            }
+            
+            private void fill() throws IOException
+            {
+                buffer.clear();
+                buffer.position(SIZE_LINE_LENGTH);
+                while (buffer.position() - SIZE_LINE_LENGTH < MAX_DATA)
+                {
+                    if (null == piece || pieceOffset == piece.length)
+                    {
+                        piece = source.next();
+                        pieceOffset = 0;
+                        if (null == piece)
+                        {
+                            sourceDone = true;
+                            break;
+                        }
+                    }
+                    final int n = Math.min(piece.length - pieceOffset, MAX_DATA - (buffer.position() - SIZE_LINE_LENGTH));
+                    buffer.put(piece, pieceOffset, n);
+                    pieceOffset += n;
+                }
+                
+                final int dataLength = buffer.position() - SIZE_LINE_LENGTH;
+                if (dataLength > 0)
+                {
+                    buffer.put(CRLF);
+                }
+                if (sourceDone)
+                {
+                    buffer.put(LAST_CHUNK);
+                }
+                buffer.flip();
+                if (dataLength > 0)
+                {
+                    for (int i=0; i<4; i++)
+                    {
+                        buffer.put(i, HEX[(dataLength >> (12 - i * 4)) & 0xf]);
+                    }
+                    buffer.put(4, CRLF[0]).put(5, CRLF[1]);
+                }
+                else
+                {
+                    buffer.position(SIZE_LINE_LENGTH);
+                }
+            }
+            
+            @Override
+            public void close() throws IOException
+            {
+                if (null != buffer)
+                {
+                    buffers.release(buffer);
+                    buffer = null;
+                    source.close();
+                }
+            }
+        };
+    }
+}
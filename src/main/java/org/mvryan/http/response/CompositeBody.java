@@ -0,0 +1,80 @@
+package org.mvryan.http.response;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A body sent as several bodies one after another, such as the parts of
+ * a multipart response.  Each part is only opened once the one before it
+ * has been sent, so at most one file is open per transfer.
+ */
+public class CompositeBody implements ResponseBody
+{
+    private final List<ResponseBody> parts;
+    private final long contentLength;
+    
+    public CompositeBody(final List<ResponseBody> parts)
+    {
+        this.parts = ImmutableList.copyOf(parts);
+        long length = 0;
+        for (final ResponseBody part : parts)
+        {
+            if (part.getContentLength() < 0)
+            {
+                length = ChunkedBody.UNKNOWN_LENGTH;
+                break;
+            }
+            length += part.getContentLength();
+        }
+        this.contentLength = length;
+    }
+    
+    @Override
+    public long getContentLength()
+    {
+        return contentLength;
+    }
+    
+    @Override
+    public Transfer open()
+    {
+        return new Transfer()
+        {
+            int index = 0;
+            Transfer current = null;
+            
+            @Override
+            public boolean transferTo(final WritableByteChannel target) throws IOException
+            {
+                while (index < parts.size())
+                {
+                    if (null == current)
+                    {
+                        current = parts.get(index).open();
+                    }
+                    if (! current.transferTo(target))
+                    {
+                        return false;
+                    }
+                    current.close();
+                    current = null;
+                    index++;
+                }
+                return true;
+            }
+            
+            @Override
+            public void close() throws IOException
+            {
+                if (null != current)
+                {
+                    current.close();
+                    current = null;
+                }
+            }
+        };
+    }
+}
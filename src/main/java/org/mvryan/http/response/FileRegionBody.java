@@ -0,0 +1,67 @@
+package org.mvryan.http.response;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A body that is a region of a file, sent with
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)} so the
+ * kernel can copy it straight from the page cache to the socket.
+ */
+@RequiredArgsConstructor
+public class FileRegionBody implements ResponseBody
+{
+    @Getter
+    private final Path path;
+    @Getter
+    private final long position;
+    private final long count;
+    
+    @Override
+    public long getContentLength()
+    {
+        return count;
+    }
+    
+    @Override
+    public Transfer open() throws IOException
+    {
+        final FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        return new Transfer()
+        {
+            long transferred = 0;
+            
+            @Override
+            public boolean transferTo(final WritableByteChannel target) throws IOException
+            {
+                while (transferred < count)
+                {
+                    final long n = fileChannel.transferTo(position + transferred, count - transferred, target);
+                    if (n <= 0)
+                    {
+                        if (fileChannel.size() < position + count)
+                        {
+                            throw new IOException("File truncated while being sent: " + path);
+                        }
+                        // Target can't take any more right now
+                        return false;
+                    }
+                    transferred += n;
+                }
+                return true;
+            }
+            
+            @Override
+            public void close() throws IOException
+            {
+                fileChannel.close();
+            }
+        };
+    }
+}
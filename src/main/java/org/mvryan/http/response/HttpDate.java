@@ -0,0 +1,70 @@
+package org.mvryan.http.response;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Dates in the fixed RFC 1123 form HTTP uses, e.g.
+ * "Sun, 06 Nov 1994 08:49:37 GMT".
+ * 
+ * The current date is formatted at most once a second: the first caller
+ * in a new second formats it and everyone else reuses those bytes.
+ */
+public class HttpDate
+{
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'").withZoneUTC().withLocale(Locale.US);
+    
+    private static volatile Tick current = new Tick(Long.MIN_VALUE, null);
+    
+    public static String format(final long millis)
+    {
+        return FORMAT.print(millis);
+    }
+    
+    /**
+     * @return the date in milliseconds, or -1 if it isn't in RFC 1123 form
+     */
+    public static long parse(final String date)
+    {
+        try
+        {
+            return FORMAT.parseMillis(date.trim());
+        }
+        catch (IllegalArgumentException e)
+        {
+            return -1;
+        }
+    }
+    
+    /**
+     * @return the current date as ASCII bytes; callers must not modify it
+     */
+    public static byte[] now()
+    {
+        final long second = System.currentTimeMillis() / 1000;
+        Tick tick = current;
+        if (tick.second != second)
+        {
+            // Racing callers format the same value; whichever wins is fine
+            tick = new Tick(second, format(second * 1000).getBytes(StandardCharsets.US_ASCII));
+            current = tick;
+        }
+        return tick.bytes;
+    }
+    
+    private static class Tick
+    {
+        final long second;
+        final byte[] bytes;
+        
+        Tick(final long second, final byte[] bytes)
+        {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+}
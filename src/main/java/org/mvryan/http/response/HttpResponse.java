@@ -6,4 +6,62 @@ public interface HttpResponse
     HttpResponseCode getResponseCode();
     byte[] getResponsePayload();
     String getContentType();
+    
+    default ResponseBody getResponseBody()
+    {
+        return null == getResponsePayload() ? null : new BufferBody(getResponsePayload());
+    }
+    
+    /**
+     * @return the content coding applied to the body, or null if none
+     */
+    default String getContentEncoding()
+    {
+        return null;
+    }
+    
+    /**
+     * @return the request headers the response varies on, for the Vary
+     *         header, or null if it doesn't vary
+     */
+    default String getVary()
+    {
+        return null;
+    }
+    
+    /**
+     * @return the entity tag of the content, quotes included, or null if
+     *         there is none
+     */
+    default String getETag()
+    {
+        return null;
+    }
+    
+    /**
+     * @return the content's modification date, formatted for the
+     *         Last-Modified header, or null if unknown
+     */
+    default String getLastModified()
+    {
+        return null;
+    }
+    
+    /**
+     * @return the range units the resource can be requested in, for the
+     *         Accept-Ranges header, or null if ranges aren't supported
+     */
+    default String getAcceptRanges()
+    {
+        return null;
+    }
+    
+    /**
+     * @return the part of the resource a partial response carries, for the
+     *         Content-Range header, or null for a whole resource
+     */
+    default String getContentRange()
+    {
+        return null;
+    }
 }
@@ -7,6 +7,11 @@ public class HttpResponseCode
 {
     public static final HttpResponseCode OK =
             new HttpResponseCode(200, "OK");
+    public static final HttpResponseCode PARTIAL_CONTENT =
+            new HttpResponseCode(206, "Partial Content");
+    
+    public static final HttpResponseCode NOT_MODIFIED =
+            new HttpResponseCode(304, "Not Modified");
     
     public static final HttpResponseCode BAD_REQUEST =
             new HttpResponseCode(400, "Bad Request");
@@ -18,6 +23,8 @@ public class HttpResponseCode
             new HttpResponseCode(406, "Not Acceptable");
     public static final HttpResponseCode REQUEST_URI_TOO_LONG =
             new HttpResponseCode(414, "Request-URI Too Long");
+    public static final HttpResponseCode RANGE_NOT_SATISFIABLE =
+            new HttpResponseCode(416, "Requested Range Not Satisfiable");
     
     public static final HttpResponseCode INTERNAL_SERVER_ERROR =
             new HttpResponseCode(500, "Internal Server Error");
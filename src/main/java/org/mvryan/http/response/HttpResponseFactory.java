@@ -1,32 +1,144 @@
 package org.mvryan.http.response;
 
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import org.mvryan.http.request.HttpRequest;
 import org.mvryan.http.response.filesys.HttpResponseStrategy;
 
-import com.google.inject.Injector;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 
+/**
+ * Maps request paths to the strategies that answer them.  Each route is
+ * a path prefix; a request goes to the route with the longest prefix that
+ * matches whole path segments, so "/api" matches "/api" and "/api/x" but
+ * not "/apix".  There must be a route for "/", which catches everything
+ * else.
+ *
+ * The routes are compiled into a character trie when the factory is
+ * built and never change after that, so a lookup takes no locks and
+ * allocates nothing; it is one walk down the trie along the path.
+ */
+@Singleton
 public class HttpResponseFactory
 {
-    final Injector injector;
-    
-    // I prefer making this an instance method to letting it be static.
-    // Constructing an instance means that I could set up a mapping
-    // table to map URIs in the request to HttpResponse classes
-    // to make the response factory more extensible.  That mapping
-    // could even be provided via dependency injection.
-    //
-    // Not needed for a simple file-based server though.
-    
+    public static final String ROOT = "/";
+
+    private final Node root;
+
     @Inject
-    public HttpResponseFactory(Injector injector)
+    public HttpResponseFactory(final Map<String, HttpResponseStrategy> routes)
     {
-        this.injector = injector;
+        Preconditions.checkArgument(routes.containsKey(ROOT), "No route for \"%s\"", ROOT);
+
+        final Builder builder = new Builder();
+        for (final Entry<String, HttpResponseStrategy> route : routes.entrySet())
+        {
+            final String prefix = normalize(route.getKey());
+            Builder node = builder;
+            for (int i=0; i<prefix.length(); i++)
+            {
+                node = node.child(prefix.charAt(i));
+            }
+            Preconditions.checkArgument(null == node.strategy, "More than one route for \"%s\"", prefix);
+            node.strategy = route.getValue();
+        }
+        this.root = builder.build();
     }
-    
+
     public HttpResponseStrategy getResponseStrategy(final HttpRequest request)
     {
-        return injector.getInstance(HttpResponseStrategy.class);
+        return lookup(request.getUri().getPath());
+    }
+
+    HttpResponseStrategy lookup(final String path)
+    {
+        // Every path is under "/", even one the client sent empty
+        HttpResponseStrategy match = root.child('/').strategy;
+        Node node = root;
+        for (int i=0; i<path.length(); i++)
+        {
+            node = node.child(path.charAt(i));
+            if (null == node)
+            {
+                break;
+            }
+            if (null != node.strategy && (i + 1 == path.length() || '/' == path.charAt(i + 1)))
+            {
+                match = node.strategy;
+            }
+        }
+        return match;
+    }
+
+    private static String normalize(final String prefix)
+    {
+        final String absolute = prefix.startsWith(ROOT) ? prefix : ROOT + prefix;
+        return absolute.length() > 1 && absolute.endsWith("/") ? absolute.substring(0, absolute.length() - 1) : absolute;
+    }
+
+    /**
+     * A trie node.  Children are kept in parallel arrays; nodes have few
+     * children, so a linear scan beats hashing.
+     */
+    private static final class Node
+    {
+        private final char[] labels;
+        private final Node[] children;
+        private final HttpResponseStrategy strategy;
+
+        Node(final char[] labels, final Node[] children, final HttpResponseStrategy strategy)
+        {
+            this.labels = labels;
+            this.children = children;
+            this.strategy = strategy;
+        }
+
+        Node child(final char label)
+        {
+            for (int i=0; i<labels.length; i++)
+            {
+                if (label == labels[i])
+                {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Builder
+    {
+        private final TreeMap<Character, Builder> children = Maps.newTreeMap();
+        private HttpResponseStrategy strategy = null;
+
+        Builder child(final char label)
+        {
+            Builder child = children.get(label);
+            if (null == child)
+            {
+                child = new Builder();
+                children.put(label, child);
+            }
+            return child;
+        }
+
+        Node build()
+        {
+            final char[] labels = new char[children.size()];
+            final Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (final Entry<Character, Builder> child : children.entrySet())
+            {
+                labels[i] = child.getKey();
+                nodes[i++] = child.getValue().build();
+            }
+            return new Node(labels, nodes, strategy);
+        }
     }
 }
@@ -0,0 +1,225 @@
+package org.mvryan.http.response;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.request.RequestHandler;
+
+/**
+ * Serializes a response (status line, headers and body) for a channel.
+ * Shared by the blocking request handler, which writes straight to the
+ * socket, and the event loop, which drains the encoded response to a
+ * non-blocking channel as it becomes writable.
+ * 
+ * Headers are written as bytes into a buffer.  Everything that doesn't
+ * change between responses - status lines, Server, Connection and
+ * Keep-Alive - is encoded once up front, and the Date comes from
+ * {@link HttpDate}, so encoding a head formats nothing but the length.
+ */
+public class HttpResponseWriter
+{
+    public static final String SERVER = "Simple HTTP server version 0.0.1 (org.mvryan.http)";
+    
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] DATE = ascii("Date: ");
+    private static final byte[] SERVER_LINE = ascii("Server: " + SERVER + "\r\n");
+    private static final byte[] KEEPALIVE_LINES = ascii(String.format("Connection: keep-alive\r\nKeep-Alive: timeout=%d, max=%d\r\n",
+            RequestHandler.KEEPALIVE_TIMEOUT_SECONDS, RequestHandler.MAX_KEEPALIVE_TIMEOUT_SECONDS));
+    private static final byte[] CLOSE_LINE = ascii("Connection: close\r\n");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] CHUNKED_LINE = ascii("Transfer-Encoding: chunked\r\n");
+    private static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+    private static final byte[] CONTENT_ENCODING = ascii("Content-Encoding: ");
+    private static final byte[] VARY = ascii("Vary: ");
+    private static final byte[] ETAG = ascii("ETag: ");
+    private static final byte[] LAST_MODIFIED = ascii("Last-Modified: ");
+    private static final byte[] ACCEPT_RANGES = ascii("Accept-Ranges: ");
+    private static final byte[] CONTENT_RANGE = ascii("Content-Range: ");
+    
+    // Room for everything but the status line and the values of the
+    // content type, content encoding, vary, etag, last modified, accept
+    // ranges and content range headers
+    private static final int FIXED_HEAD_SIZE = DATE.length + 29 + CRLF.length + SERVER_LINE.length
+            + Math.max(KEEPALIVE_LINES.length, CLOSE_LINE.length) + Math.max(CONTENT_LENGTH.length + 20 + CRLF.length, CHUNKED_LINE.length)
+            + CONTENT_TYPE.length + CRLF.length + CONTENT_ENCODING.length + CRLF.length
+            + VARY.length + CRLF.length + ETAG.length + CRLF.length + LAST_MODIFIED.length + CRLF.length
+            + ACCEPT_RANGES.length + CRLF.length + CONTENT_RANGE.length + CRLF.length + CRLF.length;
+    
+    private static final ConcurrentMap<HttpResponseCode, byte[]> statusLines = new ConcurrentHashMap<>();
+    
+    /**
+     * Writes a response to a blocking channel.
+     */
+    public static void write(final WritableByteChannel channel,
+            final HttpRequest request,
+            final HttpResponseCode responseCode,
+            final Optional<HttpResponse> response)
+            throws IOException
+    {
+        try (final PendingResponse pending = encode(request, responseCode, response))
+        {
+            while (! pending.writeTo(channel));
+        }
+    }
+    
+    public static PendingResponse encode(final HttpRequest request,
+            final HttpResponseCode responseCode,
+            final Optional<HttpResponse> response)
+    {
+        return encode(request, responseCode, response, null);
+    }
+    
+    /**
+     * Encodes the status line and headers of a response.  The body is
+     * not read; it is transferred when the returned response is written.
+     * 
+     * The head is written at the position of the given buffer, which is
+     * then advanced past it, so one buffer can hold the heads of several
+     * queued responses.  If the buffer is null or too full a new one is
+     * used instead.
+     */
+    public static PendingResponse encode(final HttpRequest request,
+            final HttpResponseCode responseCode,
+            final Optional<HttpResponse> response,
+            ByteBuffer headBuffer)
+    {
+        final byte[] statusLine = getStatusLine(responseCode);
+        final ResponseBody body = response.isPresent() ? response.get().getResponseBody() : null;
+        final String contentType = null != body ? response.get().getContentType() : null;
+        final String contentEncoding = null != body ? response.get().getContentEncoding() : null;
+        final String vary = response.isPresent() ? response.get().getVary() : null;
+        final String eTag = response.isPresent() ? response.get().getETag() : null;
+        final String lastModified = response.isPresent() ? response.get().getLastModified() : null;
+        final String acceptRanges = response.isPresent() ? response.get().getAcceptRanges() : null;
+        final String contentRange = response.isPresent() ? response.get().getContentRange() : null;
+        
+        final int maxSize = statusLine.length + FIXED_HEAD_SIZE + length(contentType) + length(contentEncoding)
+                + length(vary) + length(eTag) + length(lastModified) + length(acceptRanges) + length(contentRange);
+        if (null == headBuffer || headBuffer.remaining() < maxSize)
+        {
+            headBuffer = ByteBuffer.allocate(maxSize);
+        }
+        
+        final int start = headBuffer.position();
+        headBuffer.put(statusLine);
+        headBuffer.put(DATE).put(HttpDate.now()).put(CRLF);
+        headBuffer.put(SERVER_LINE);
+        headBuffer.put(request.isKeepalive() ? KEEPALIVE_LINES : CLOSE_LINE);
+        if (null != body && body.getContentLength() < 0)
+        {
+            // Length unknown until the body has been generated
+            headBuffer.put(CHUNKED_LINE);
+        }
+        else if (! HttpResponseCode.NOT_MODIFIED.equals(responseCode))
+        {
+            // A 304 has no body and describes the content it didn't send
+            // only through its validators
+            headBuffer.put(CONTENT_LENGTH);
+            putDecimal(headBuffer, null != body ? body.getContentLength() : 0);
+            headBuffer.put(CRLF);
+        }
+        if (null != contentType)
+        {
+            headBuffer.put(CONTENT_TYPE);
+            putAscii(headBuffer, contentType);
+            headBuffer.put(CRLF);
+        }
+        if (null != contentEncoding)
+        {
+            headBuffer.put(CONTENT_ENCODING);
+            putAscii(headBuffer, contentEncoding);
+            headBuffer.put(CRLF);
+        }
+        if (null != vary)
+        {
+            headBuffer.put(VARY);
+            putAscii(headBuffer, vary);
+            headBuffer.put(CRLF);
+        }
+        if (null != eTag)
+        {
+            headBuffer.put(ETAG);
+            putAscii(headBuffer, eTag);
+            headBuffer.put(CRLF);
+        }
+        if (null != lastModified)
+        {
+            headBuffer.put(LAST_MODIFIED);
+            putAscii(headBuffer, lastModified);
+            headBuffer.put(CRLF);
+        }
+        if (null != acceptRanges)
+        {
+            headBuffer.put(ACCEPT_RANGES);
+            putAscii(headBuffer, acceptRanges);
+            headBuffer.put(CRLF);
+        }
+        if (null != contentRange)
+        {
+            headBuffer.put(CONTENT_RANGE);
+            putAscii(headBuffer, contentRange);
+            headBuffer.put(CRLF);
+        }
+        headBuffer.put(CRLF);
+        
+        final ByteBuffer head = headBuffer.duplicate();
+        head.limit(headBuffer.position()).position(start);
+        
+        // A HEAD response carries the headers of the GET but no body
+        final boolean sendBody = null != body && ! HttpRequest.METHOD_HEAD.equals(request.getMethod());
+        return new PendingResponse(head, sendBody ? body : null, responseCode, request.getReceived());
+    }
+
+    private static byte[] getStatusLine(final HttpResponseCode responseCode)
+    {
+        byte[] statusLine = statusLines.get(responseCode);
+        if (null == statusLine)
+        {
+            statusLine = ascii(String.format("HTTP/1.1 %d %s\r\n", responseCode.getStatus(), responseCode.getReason()));
+            statusLines.putIfAbsent(responseCode, statusLine);
+        }
+        return statusLine;
+    }
+    
+    private static int length(final String s)
+    {
+        return null == s ? 0 : s.length();
+    }
+    
+    private static void putAscii(final ByteBuffer buffer, final String s)
+    {
+        for (int i=0; i<s.length(); i++)
+        {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+    
+    private static void putDecimal(final ByteBuffer buffer, final long value)
+    {
+        if (value < 10)
+        {
+            buffer.put((byte) ('0' + value));
+            return;
+        }
+        long divisor = 1;
+        while (value / divisor >= 10)
+        {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10)
+        {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+    
+    private static byte[] ascii(final String s)
+    {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
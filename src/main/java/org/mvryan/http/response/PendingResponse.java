@@ -0,0 +1,122 @@
+package org.mvryan.http.response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * An encoded response head plus its body, in the middle of being written
+ * to a channel.  Writing can be resumed after a partial write, which is
+ * what lets an event loop send it without blocking.
+ */
+public class PendingResponse implements Closeable
+{
+    private final ByteBuffer head;
+    private final ResponseBody body;
+    private final ByteBuffer bodyBuffer;
+    private ResponseBody.Transfer transfer = null;
+    
+    @Getter(AccessLevel.PACKAGE)
+    private final HttpResponseCode responseCode;
+    @Getter(AccessLevel.PACKAGE)
+    private final long received;
+    @Getter(AccessLevel.PACKAGE)
+    private final long length;
+    @Getter(AccessLevel.PACKAGE)
+    private final long bodyLength;
+    
+    public PendingResponse(final ByteBuffer head, final ResponseBody body)
+    {
+        this(head, body, null, 0);
+    }
+    
+    /**
+     * @param responseCode the status of the response, for metrics
+     * @param received System.nanoTime() when the request was received, for metrics
+     */
+    public PendingResponse(final ByteBuffer head, final ResponseBody body,
+            final HttpResponseCode responseCode, final long received)
+    {
+        this.head = head;
+        this.body = body;
+        this.bodyBuffer = null == body ? null : body.asByteBuffer();
+        this.responseCode = responseCode;
+        this.received = received;
+        // A body of unknown length is left out
+        this.bodyLength = null == body ? 0 : Math.max(0, body.getContentLength());
+        this.length = head.remaining() + bodyLength;
+    }
+    
+    /**
+     * @return true once the head and the whole body have been written
+     */
+    public boolean writeTo(final WritableByteChannel channel) throws IOException
+    {
+        if (head.hasRemaining())
+        {
+            channel.write(head);
+            if (head.hasRemaining())
+            {
+                return false;
+            }
+        }
+        if (null != bodyBuffer)
+        {
+            channel.write(bodyBuffer);
+            return ! bodyBuffer.hasRemaining();
+        }
+        if (null == body)
+        {
+            return true;
+        }
+        if (null == transfer)
+        {
+            transfer = body.open();
+        }
+        return transfer.transferTo(channel);
+    }
+    
+    /**
+     * @return true if the whole response is held in memory, so it can be
+     *         sent with {@link #gather} instead of {@link #writeTo}
+     */
+    boolean isInMemory()
+    {
+        return null == body || null != bodyBuffer;
+    }
+    
+    /**
+     * Adds the unwritten buffers of an in-memory response to the array.
+     * 
+     * @return the number of buffers added
+     */
+    int gather(final ByteBuffer[] buffers, final int offset)
+    {
+        buffers[offset] = head;
+        if (null == bodyBuffer)
+        {
+            return 1;
+        }
+        buffers[offset+1] = bodyBuffer;
+        return 2;
+    }
+    
+    boolean isWritten()
+    {
+        return ! head.hasRemaining() && (null == bodyBuffer || ! bodyBuffer.hasRemaining());
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        if (null != transfer)
+        {
+            transfer.close();
+            transfer = null;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package org.mvryan.http.response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The payload of a response.  A body describes the bytes to send rather
+ * than holding them, so large bodies never have to be copied onto the
+ * heap.  Bodies are immutable and may be shared between responses; each
+ * send opens its own {@link Transfer}.
+ */
+public interface ResponseBody
+{
+    /**
+     * @return the length of the body in bytes, or a negative number if it
+     *         isn't known until the body has been sent
+     */
+    long getContentLength();
+    
+    Transfer open() throws IOException;
+    
+    /**
+     * @return a fresh view of the body if it is already in memory, so it
+     *         can be gathered into one write with other buffers, or null
+     *         if the body has to be sent through {@link #open()}
+     */
+    default ByteBuffer asByteBuffer()
+    {
+        return null;
+    }
+    
+    interface Transfer extends Closeable
+    {
+        /**
+         * Writes as much of the remaining body as the target will accept.
+         * A non-blocking target may accept only part of it; call again
+         * once the target is writable.
+         * 
+         * @return true once the whole body has been written
+         */
+        boolean transferTo(WritableByteChannel target) throws IOException;
+    }
+}
@@ -0,0 +1,155 @@
+package org.mvryan.http.response;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import lombok.Getter;
+
+import org.mvryan.http.log.AccessLog;
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.request.HttpRequest;
+
+/**
+ * The responses to pipelined requests on one connection, sent strictly in
+ * the order the requests arrived.  Consecutive responses held in memory
+ * are gathered into a single write, so a burst of small responses costs
+ * one system call instead of two per response.  Bodies that have to be
+ * transferred, such as files sent with sendfile, are written on their own
+ * once everything ahead of them has gone.
+ * 
+ * Response heads are encoded into one buffer that is reused once the
+ * pipeline has drained.  Each response is logged to the access log as it
+ * is queued, and counted in the metrics once its last byte has been
+ * written.
+ */
+public class ResponsePipeline implements Closeable
+{
+    @Getter
+    private final int maxDepth;
+    private final ArrayDeque<PendingResponse> responses = new ArrayDeque<>();
+    private final ByteBuffer[] gathered;
+    private final ByteBuffer headBuffer = ByteBuffer.allocate(HEAD_BUFFER_SIZE);
+    private final Metrics metrics;
+    private final AccessLog accessLog;
+    
+    static final int HEAD_BUFFER_SIZE = 4096;
+    
+    @Inject
+    public ResponsePipeline(@Named(ConfigurationModule.PIPELINE_DEPTH) final String maxDepth,
+            final Metrics metrics,
+            final AccessLog accessLog)
+    {
+        this.maxDepth = Math.max(1, Integer.parseInt(maxDepth));
+        this.metrics = metrics;
+        this.accessLog = accessLog;
+        // Each in-memory response contributes a head and at most one body
+        this.gathered = new ByteBuffer[this.maxDepth * 2];
+    }
+    
+    public void add(final HttpRequest request,
+            final HttpResponseCode responseCode,
+            final Optional<HttpResponse> response)
+    {
+        final PendingResponse pending = HttpResponseWriter.encode(request, responseCode, response, headBuffer);
+        accessLog.log(request, responseCode, pending.getBodyLength());
+        add(pending);
+    }
+    
+    public void add(final PendingResponse response)
+    {
+        responses.add(response);
+    }
+    
+    public boolean isFull()
+    {
+        return responses.size() >= maxDepth;
+    }
+    
+    public boolean isEmpty()
+    {
+        return responses.isEmpty();
+    }
+    
+    /**
+     * Writes as much as the channel will accept.
+     * 
+     * @return true once every queued response has been written
+     */
+    public boolean writeTo(final WritableByteChannel channel) throws IOException
+    {
+        while (! responses.isEmpty())
+        {
+            final PendingResponse first = responses.peek();
+            if (first.isInMemory() && channel instanceof GatheringByteChannel)
+            {
+                int count = 0;
+                long expected = 0;
+                for (final PendingResponse response : responses)
+                {
+                    if (! response.isInMemory() || count + 2 > gathered.length)
+                    {
+                        break;
+                    }
+                    final int added = response.gather(gathered, count);
+                    for (int i=count; i<count+added; i++)
+                    {
+                        expected += gathered[i].remaining();
+                    }
+                    count += added;
+                }
+                final long written = ((GatheringByteChannel) channel).write(gathered, 0, count);
+                Arrays.fill(gathered, 0, count, null);
+                
+                while (! responses.isEmpty() && responses.peek().isInMemory() && responses.peek().isWritten())
+                {
+                    sent(responses.poll());
+                }
+                if (written < expected)
+                {
+                    // The channel is full
+                    return false;
+                }
+            }
+            else
+            {
+                if (! first.writeTo(channel))
+                {
+                    return false;
+                }
+                sent(responses.poll());
+            }
+        }
+        headBuffer.clear();
+        return true;
+    }
+    
+    private void sent(final PendingResponse response) throws IOException
+    {
+        if (null != response.getResponseCode())
+        {
+            metrics.responseSent(response.getResponseCode(), System.nanoTime() - response.getReceived(), response.getLength());
+        }
+        response.close();
+    }
+    
+    @Override
+    public void close() throws IOException
+    {
+        PendingResponse response;
+        while (null != (response = responses.poll()))
+        {
+            response.close();
+        }
+        headBuffer.clear();
+    }
+}
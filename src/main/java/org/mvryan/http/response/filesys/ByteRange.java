@@ -0,0 +1,134 @@
+package org.mvryan.http.response.filesys;
+
+import java.util.List;
+
+import lombok.Value;
+
+import com.google.common.collect.Lists;
+
+/**
+ * An inclusive range of byte positions within a file, as requested by a
+ * Range header.
+ */
+@Value
+public class ByteRange
+{
+    public static final String UNIT = "bytes";
+    
+    // More ranges than any real client asks for; a request for more is
+    // more likely an attempt to make us send a file many times over
+    public static final int MAX_RANGES = 16;
+    
+    long first;
+    long last;
+    
+    public long getLength()
+    {
+        return last - first + 1;
+    }
+    
+    /**
+     * @return the value of a Content-Range header for this range of a
+     *         file of the given length
+     */
+    public String toContentRange(final long length)
+    {
+        return String.format("%s %d-%d/%d", UNIT, first, last, length);
+    }
+    
+    /**
+     * @return the value of a Content-Range header rejecting the ranges
+     *         requested from a file of the given length
+     */
+    public static String unsatisfiable(final long length)
+    {
+        return String.format("%s */%d", UNIT, length);
+    }
+    
+    /**
+     * Parses the byte ranges of a Range header against a file of the given
+     * length.  Ranges that start past the end of the file are dropped and
+     * ranges that run past it are cut short.
+     * 
+     * @return the satisfiable ranges, which is empty if there are none, or
+     *         null if the header is malformed, in another unit or asks for
+     *         too many ranges; the header should then be ignored
+     */
+    public static List<ByteRange> parse(final String header, final long length)
+    {
+        final int equals = header.indexOf('=');
+        if (equals < 0 || ! UNIT.equalsIgnoreCase(header.substring(0, equals).trim()))
+        {
+            return null;
+        }
+        
+        final String[] specs = header.substring(equals + 1).split(",");
+        if (specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+        
+        final List<ByteRange> ranges = Lists.newArrayListWithCapacity(specs.length);
+        int specified = 0;
+        for (final String spec : specs)
+        {
+            final String trimmed = spec.trim();
+            if (trimmed.isEmpty())
+            {
+                continue;
+            }
+            specified++;
+            final int dash = trimmed.indexOf('-');
+            if (dash < 0)
+            {
+                return null;
+            }
+            
+            final long first = parsePosition(trimmed.substring(0, dash));
+            final long last = parsePosition(trimmed.substring(dash + 1));
+            if (dash == 0)
+            {
+                // A suffix: the last so many bytes
+                if (last < 0)
+                {
+                    return null;
+                }
+                if (last > 0 && length > 0)
+                {
+                    ranges.add(new ByteRange(Math.max(0, length - last), length - 1));
+                }
+            }
+            else if (first < 0 || (dash < trimmed.length() - 1 && (last < 0 || last < first)))
+            {
+                return null;
+            }
+            else if (first < length)
+            {
+                ranges.add(new ByteRange(first, dash == trimmed.length() - 1 ? length - 1 : Math.min(last, length - 1)));
+            }
+        }
+        return 0 == specified ? null : ranges;
+    }
+    
+    /**
+     * @return the position, or -1 if it isn't a plain decimal number
+     */
+    private static long parsePosition(final String s)
+    {
+        if (s.isEmpty() || s.length() > 18)
+        {
+            return -1;
+        }
+        long value = 0;
+        for (int i=0; i<s.length(); i++)
+        {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,193 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.CacheWeight;
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.BufferBody;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Holds compressed variants of files, so each version of a file is
+ * compressed once per coding rather than once per request.  Variants are
+ * validated against the file's size and modification time like the other
+ * content tiers.
+ * 
+ * Compressing is the only expensive thing the server does with its CPU,
+ * so it is rationed: once the configured milliseconds of compression have
+ * been spent in the current second, further misses are sent uncompressed
+ * until the next second.  Cached variants are always served.
+ */
+@Slf4j
+@Singleton
+public class CompressedContentCache implements MeteredCache
+{
+    private final long minSize;
+    private final long maxSize;
+    private final long budgetNanos;
+    private final Cache<VariantKey, Variant> variants;
+    private final CacheWeight<VariantKey, Variant> weight;
+    
+    private long windowStart = System.nanoTime();
+    private long spentNanos = 0;
+    
+    @Inject
+    public CompressedContentCache(@Named(ConfigurationModule.COMPRESSION_MIN_SIZE) final String minSize,
+            @Named(ConfigurationModule.COMPRESSION_MAX_SIZE) final String maxSize,
+            @Named(ConfigurationModule.COMPRESSION_CACHE_MAX_BYTES) final String maxBytes,
+            @Named(ConfigurationModule.COMPRESSION_CPU_BUDGET) final String cpuBudgetMillis)
+    {
+        this.minSize = Long.parseLong(minSize);
+        this.maxSize = Math.min(Long.parseLong(maxSize), Integer.MAX_VALUE);
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(cpuBudgetMillis));
+        this.weight = new CacheWeight<>(new Weigher<VariantKey, Variant>()
+        {
+            @Override public int weigh(final VariantKey key, final Variant variant)
+            {
+                return null == variant.getBytes() ? 1 : variant.getBytes().length;
+            }
+        });
+        this.variants = CacheBuilder.newBuilder()
+                .maximumWeight(Long.parseLong(maxBytes))
+                .weigher(weight)
+                .removalListener(weight)
+                .recordStats()
+                .build();
+    }
+    
+    /**
+     * Text-like types that are worth compressing; images, archives and
+     * other binary formats are usually compressed already.
+     */
+    public static boolean isCompressible(final String contentType)
+    {
+        final String type = contentType.toLowerCase();
+        return type.startsWith("text/")
+                || type.endsWith("+xml")
+                || type.endsWith("+json")
+                || type.equals(HttpResponseStrategy.CONTENT_TYPE_APP_XML)
+                || type.equals(HttpResponseStrategy.CONTENT_TYPE_APP_JSON)
+                || type.equals("application/javascript")
+                || type.equals("application/x-javascript");
+    }
+    
+    /**
+     * @return the compressed content, or null if the file should be sent
+     *         uncompressed: it is outside the size limits, compression
+     *         doesn't make it smaller, or the CPU budget is used up
+     */
+    public ResponseBody get(final Path path, final BasicFileAttributes attrs, final ContentEncoding encoding) throws IOException
+    {
+        if (! attrs.isRegularFile() || attrs.size() < minSize || attrs.size() > maxSize)
+        {
+            return null;
+        }
+        
+        final VariantKey key = new VariantKey(path, encoding);
+        Variant variant = variants.getIfPresent(key);
+        if (null == variant || ! variant.matches(attrs))
+        {
+            if (! hasBudget())
+            {
+                log.debug("Compression budget used up; sending \"{}\" uncompressed", path);
+                return null;
+            }
+            
+            final long start = System.nanoTime();
+            final byte[] content = Files.readAllBytes(path);
+            if (content.length != attrs.size())
+            {
+                // File changed while we read it
+                return null;
+            }
+            final byte[] compressed = encoding.compress(content);
+            spend(System.nanoTime() - start);
+            
+            log.debug("Compressed file \"{}\" with {} ({} to {} bytes)", path, encoding.getToken(), content.length, compressed.length);
+            variant = new Variant(compressed.length < content.length ? compressed : null, attrs.size(), attrs.lastModifiedTime());
+            variants.put(key, variant);
+        }
+        return null == variant.getBytes() ? null : new BufferBody(variant.getBytes());
+    }
+    
+    public void invalidate(final Path path)
+    {
+        for (final ContentEncoding encoding : ContentEncoding.values())
+        {
+            variants.invalidate(new VariantKey(path, encoding));
+        }
+    }
+    
+    @Override
+    public CacheStats stats()
+    {
+        return variants.stats();
+    }
+    
+    @Override
+    public long size()
+    {
+        return variants.size();
+    }
+    
+    @Override
+    public long bytes()
+    {
+        return weight.get();
+    }
+    
+    private synchronized boolean hasBudget()
+    {
+        final long now = System.nanoTime();
+        if (now - windowStart >= TimeUnit.SECONDS.toNanos(1))
+        {
+            windowStart = now;
+            spentNanos = 0;
+        }
+        return spentNanos < budgetNanos;
+    }
+    
+    private synchronized void spend(final long nanos)
+    {
+        spentNanos += nanos;
+    }
+    
+    @Value
+    private static class VariantKey
+    {
+        Path path;
+        ContentEncoding encoding;
+    }
+    
+    @Value
+    private static class Variant
+    {
+        // Null if compressing didn't make the file smaller
+        byte[] bytes;
+        long size;
+        FileTime lastModified;
+        
+        boolean matches(final BasicFileAttributes attrs)
+        {
+            return size == attrs.size() && lastModified.equals(attrs.lastModifiedTime());
+        }
+    }
+}
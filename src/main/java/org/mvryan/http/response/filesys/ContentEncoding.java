@@ -0,0 +1,144 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import lombok.Getter;
+
+/**
+ * The content codings we can produce, in order of preference.
+ */
+public enum ContentEncoding
+{
+    GZIP("gzip")
+    {
+        @Override
+        OutputStream wrap(final OutputStream os) throws IOException
+        {
+            return new GZIPOutputStream(os, BUFFER_SIZE);
+        }
+    },
+    // HTTP's "deflate" is the zlib format, not a raw deflate stream
+    DEFLATE("deflate")
+    {
+        @Override
+        OutputStream wrap(final OutputStream os) throws IOException
+        {
+            return new DeflaterOutputStream(os);
+        }
+    };
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    @Getter
+    private final String token;
+    
+    private ContentEncoding(final String token)
+    {
+        this.token = token;
+    }
+    
+    abstract OutputStream wrap(final OutputStream os) throws IOException;
+    
+    public byte[] compress(final byte[] content) throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        try (final OutputStream compressor = wrap(os))
+        {
+            compressor.write(content);
+        }
+        return os.toByteArray();
+    }
+    
+    /**
+     * Picks the preferred coding the client accepts, honouring q-values
+     * and "*".
+     * 
+     * @return the coding to use, or null to send the content as it is
+     */
+    public static ContentEncoding negotiate(final String acceptEncoding)
+    {
+        if (null == acceptEncoding)
+        {
+            return null;
+        }
+        
+        final double[] quality = getQualities(acceptEncoding);
+        ContentEncoding best = null;
+        double bestQuality = 0;
+        for (final ContentEncoding encoding : values())
+        {
+            if (quality[encoding.ordinal()] > bestQuality)
+            {
+                best = encoding;
+                bestQuality = quality[encoding.ordinal()];
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * @return true if the client accepts this coding at all, even if it
+     *         would prefer another
+     */
+    public boolean isAccepted(final String acceptEncoding)
+    {
+        return null != acceptEncoding && getQualities(acceptEncoding)[ordinal()] > 0;
+    }
+    
+    private static double[] getQualities(final String acceptEncoding)
+    {
+        final double[] quality = new double[values().length];
+        final boolean[] listed = new boolean[values().length];
+        double wildcard = 0;
+        for (final String element : acceptEncoding.split(","))
+        {
+            final String[] parts = element.split(";");
+            final String coding = parts[0].trim();
+            double q = 1;
+            for (int i=1; i<parts.length; i++)
+            {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q="))
+                {
+                    try
+                    {
+                        q = Double.parseDouble(param.substring(2));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        q = 0;
+                    }
+                }
+            }
+            
+            if ("*".equals(coding))
+            {
+                wildcard = q;
+                continue;
+            }
+            for (final ContentEncoding encoding : values())
+            {
+                if (encoding.token.equalsIgnoreCase(coding) || (GZIP == encoding && "x-gzip".equalsIgnoreCase(coding)))
+                {
+                    quality[encoding.ordinal()] = Math.max(quality[encoding.ordinal()], q);
+                    listed[encoding.ordinal()] = true;
+                    break;
+                }
+            }
+        }
+        
+        // Codings not listed get the wildcard's quality, if there is one
+        for (final ContentEncoding encoding : values())
+        {
+            if (! listed[encoding.ordinal()])
+            {
+                quality[encoding.ordinal()] = wildcard;
+            }
+        }
+        return quality;
+    }
+}
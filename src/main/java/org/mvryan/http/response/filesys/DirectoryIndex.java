@@ -0,0 +1,568 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.CacheWeight;
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.BufferBody;
+import org.mvryan.http.response.ChunkedBody;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+
+/**
+ * Renders directory listings as HTML or JSON, a page at a time.
+ *
+ * A listing is streamed straight from the directory as it is sent, so
+ * even a directory with hundreds of thousands of entries is never held in
+ * memory as a whole.  In directory order nothing is held at all; sorted,
+ * only the entries up to the end of the requested page are kept.
+ *
+ * Rendered pages are cached and served with a known length until the
+ * directory's modification time changes.  Pages too large to cache are
+ * rendered again for every request.
+ */
+@Slf4j
+@Singleton
+public class DirectoryIndex implements MeteredCache
+{
+    public static final String FORMAT_HTML = "html";
+    public static final String FORMAT_JSON = "json";
+    public static final String SORT_NAME = "name";
+    public static final String SORT_SIZE = "size";
+    public static final String SORT_MODIFIED = "modified";
+    public static final String ORDER_ASC = "asc";
+    public static final String ORDER_DESC = "desc";
+
+    public static final long NO_LIMIT = -1;
+    /**
+     * The largest offset or limit a page may ask for
+     */
+    public static final long MAX_PAGE_VALUE = Integer.MAX_VALUE;
+
+    private final long maxPageBytes;
+    private final Cache<PageKey, RenderedPage> pages;
+    private final CacheWeight<PageKey, RenderedPage> weight;
+
+    @Inject
+    public DirectoryIndex(@Named(ConfigurationModule.INDEX_CACHE_MAX_BYTES) final String maxBytes)
+    {
+        // One huge listing shouldn't push every other page out
+        this.maxPageBytes = Long.parseLong(maxBytes) / 8;
+        this.weight = new CacheWeight<>(new Weigher<PageKey, RenderedPage>()
+        {
+            @Override public int weigh(final PageKey key, final RenderedPage page)
+            {
+                return page.getContent().length;
+            }
+        });
+        this.pages = CacheBuilder.newBuilder()
+                .maximumWeight(Long.parseLong(maxBytes))
+                .weigher(weight)
+                .removalListener(weight)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param directory the directory to list
+     * @param href the directory's path as seen by clients, for links
+     * @param lastModified the directory's modification time, to validate
+     *        a cached page
+     */
+    public ResponseBody render(final Path directory, final String href, final long lastModified, final Page page)
+    {
+        final PageKey key = new PageKey(directory, page);
+        final RenderedPage rendered = pages.getIfPresent(key);
+        if (null != rendered && rendered.getLastModified() == lastModified)
+        {
+            return new BufferBody(rendered.getContent());
+        }
+
+        return new ChunkedBody()
+        {
+            @Override
+            protected Source openSource() throws IOException
+            {
+                return new PageSource(key, href, lastModified);
+            }
+        };
+    }
+
+    /**
+     * Drops every cached page of the directory.
+     */
+    public void invalidate(final Path directory)
+    {
+        final Iterator<PageKey> keys = pages.asMap().keySet().iterator();
+        while (keys.hasNext())
+        {
+            if (keys.next().getDirectory().equals(directory))
+            {
+                keys.remove();
+            }
+        }
+    }
+
+    @Override
+    public CacheStats stats()
+    {
+        return pages.stats();
+    }
+
+    @Override
+    public long size()
+    {
+        return pages.size();
+    }
+
+    @Override
+    public long bytes()
+    {
+        return weight.get();
+    }
+
+    /**
+     * Which entries to list and how.  Built from the query string.
+     */
+    @Value
+    public static class Page
+    {
+        public static final Page DEFAULT = new Page(FORMAT_HTML, null, false, 0, NO_LIMIT);
+
+        String format;
+        // Null for directory order
+        String sort;
+        boolean descending;
+        long offset;
+        long limit;
+
+        /**
+         * Reads the format, sort, order, offset and limit parameters,
+         * ignoring any others.
+         *
+         * @return the page, or null if a parameter has an invalid value
+         */
+        public static Page parse(final String query)
+        {
+            if (null == query || query.isEmpty())
+            {
+                return DEFAULT;
+            }
+
+            String format = FORMAT_HTML;
+            String sort = null;
+            String order = null;
+            long offset = 0;
+            long limit = NO_LIMIT;
+            for (final String parameter : Splitter.on('&').omitEmptyStrings().split(query))
+            {
+                final int equals = parameter.indexOf('=');
+                final String name = -1 == equals ? parameter : parameter.substring(0, equals);
+                final String value = -1 == equals ? "" : parameter.substring(equals + 1);
+                switch (name)
+                {
+                    case "format":
+                        format = value;
+                        break;
+                    case "sort":
+                        sort = value;
+                        break;
+                    case "order":
+                        order = value;
+                        break;
+                    case "offset":
+                        final Long parsedOffset = Longs.tryParse(value);
+                        if (null == parsedOffset || parsedOffset < 0 || parsedOffset > MAX_PAGE_VALUE)
+                        {
+                            return null;
+                        }
+                        offset = parsedOffset;
+                        break;
+                    case "limit":
+                        final Long parsedLimit = Longs.tryParse(value);
+                        if (null == parsedLimit || parsedLimit <= 0 || parsedLimit > MAX_PAGE_VALUE)
+                        {
+                            return null;
+                        }
+                        limit = parsedLimit;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            if (! FORMAT_HTML.equals(format) && ! FORMAT_JSON.equals(format))
+            {
+                return null;
+            }
+            if (null != sort && ! SORT_NAME.equals(sort) && ! SORT_SIZE.equals(sort) && ! SORT_MODIFIED.equals(sort))
+            {
+                return null;
+            }
+            if (null != order && ! ORDER_ASC.equals(order) && ! ORDER_DESC.equals(order))
+            {
+                return null;
+            }
+            if (null == sort && null != order)
+            {
+                // An order only makes sense for a sort
+                sort = SORT_NAME;
+            }
+            return new Page(format, sort, ORDER_DESC.equals(order), offset, limit);
+        }
+
+        public String getContentType()
+        {
+            return FORMAT_JSON.equals(format) ? HttpResponseStrategy.CONTENT_TYPE_APP_JSON : HttpResponseStrategy.CONTENT_TYPE_TEXT_HTML;
+        }
+
+        /**
+         * @return the query string for the page of the same listing that
+         *         starts at the given offset
+         */
+        String toQuery(final long offset)
+        {
+            final StringBuilder sb = new StringBuilder("?offset=").append(offset);
+            if (NO_LIMIT != limit)
+            {
+                sb.append("&limit=").append(limit);
+            }
+            if (null != sort)
+            {
+                sb.append("&sort=").append(sort).append("&order=").append(descending ? ORDER_DESC : ORDER_ASC);
+            }
+            if (! FORMAT_HTML.equals(format))
+            {
+                sb.append("&format=").append(format);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * @return how many entries of a sorted listing a page needs: up to
+     *         the end of the page, plus one to tell whether there are
+     *         more.  Saturates rather than overflow.
+     */
+    static int entriesNeeded(final Page page)
+    {
+        final long end = page.getLimit() > Long.MAX_VALUE - 1 - page.getOffset() ? Long.MAX_VALUE
+                : page.getOffset() + page.getLimit() + 1;
+        return (int) Math.max(0, Math.min(end, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Produces the page an entry at a time: the head, the entries, then
+     * the foot.  Everything produced is also kept, up to the size limit,
+     * and cached once the page is complete.
+     */
+    private class PageSource implements ChunkedBody.Source
+    {
+        private final PageKey key;
+        private final Page page;
+        private final String href;
+        private final String base;
+        private final long lastModified;
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Entry> entries;
+
+        private ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+        private boolean started = false;
+        private boolean finished = false;
+        private long count = 0;
+
+        PageSource(final PageKey key, final String href, final long lastModified) throws IOException
+        {
+            this.key = key;
+            this.page = key.getPage();
+            this.href = href;
+            this.base = href.endsWith("/") ? href : href + "/";
+            this.lastModified = lastModified;
+            this.stream = Files.newDirectoryStream(key.getDirectory());
+            try
+            {
+                final Iterator<Entry> all = new EntryIterator(stream.iterator(), null != page.getSort() && ! SORT_NAME.equals(page.getSort()));
+                if (null == page.getSort())
+                {
+                    Iterators.advance(all, (int) Math.min(page.getOffset(), Integer.MAX_VALUE));
+                    this.entries = all;
+                }
+                else
+                {
+                    final Ordering<Entry> ordering = ordering(page);
+                    final List<Entry> sorted = NO_LIMIT == page.getLimit() ? ordering.sortedCopy(Lists.newArrayList(all)) :
+                        ordering.leastOf(all, entriesNeeded(page));
+                    this.entries = sorted.listIterator((int) Math.min(page.getOffset(), sorted.size()));
+                    // Everything needed is in memory now
+                    stream.close();
+                }
+            }
+            catch (DirectoryIteratorException e)
+            {
+                stream.close();
+                throw e.getCause();
+            }
+            catch (RuntimeException e)
+            {
+                stream.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public byte[] next() throws IOException
+        {
+            final String piece;
+            if (! started)
+            {
+                started = true;
+                piece = head();
+            }
+            else if (finished)
+            {
+                return null;
+            }
+            else
+            {
+                try
+                {
+                    if (entries.hasNext() && (NO_LIMIT == page.getLimit() || count < page.getLimit()))
+                    {
+                        piece = entry(entries.next().getName(), 0 == count++);
+                    }
+                    else
+                    {
+                        finished = true;
+                        piece = foot(entries.hasNext());
+                        close();
+                    }
+                }
+                catch (DirectoryIteratorException e)
+                {
+                    throw e.getCause();
+                }
+            }
+
+            final byte[] bytes = piece.getBytes(StandardCharsets.UTF_8);
+            keep(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            stream.close();
+        }
+
+        private void keep(final byte[] bytes)
+        {
+            if (null == rendered)
+            {
+                return;
+            }
+            if (rendered.size() + bytes.length > maxPageBytes)
+            {
+                rendered = null;
+                return;
+            }
+            rendered.write(bytes, 0, bytes.length);
+            if (finished)
+            {
+                pages.put(key, new RenderedPage(lastModified, rendered.toByteArray()));
+                rendered = null;
+            }
+        }
+
+        private String head()
+        {
+            if (FORMAT_JSON.equals(page.getFormat()))
+            {
+                return String.format("{\"path\":\"%s\",\"offset\":%d,\"entries\":[", json(href), page.getOffset());
+            }
+
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("<html><head><title>Index of %s</title></head>\n", html(href)));
+            sb.append(String.format("<body>%s<hr/>\n<a href=\"%s\">.</a><br/>\n", html(href), html(href)));
+            if (! "/".equals(href))
+            {
+                final String trimmed = href.endsWith("/") ? href.substring(0, href.length() - 1) : href;
+                final String parent = trimmed.substring(0, trimmed.lastIndexOf('/') + 1);
+                sb.append(String.format("<a href=\"%s\">..</a><br/>\n", html(parent)));
+            }
+            return sb.toString();
+        }
+
+        private String entry(final String name, final boolean first)
+        {
+            if (FORMAT_JSON.equals(page.getFormat()))
+            {
+                return String.format("%s\n{\"name\":\"%s\",\"href\":\"%s\"}", first ? "" : ",", json(name), json(base + name));
+            }
+            return String.format("<a href=\"%s\">%s</a><br/>\n", html(base + name), html(name));
+        }
+
+        private String foot(final boolean more)
+        {
+            if (FORMAT_JSON.equals(page.getFormat()))
+            {
+                return String.format("\n],\"more\":%b}\n", more);
+            }
+            if (more)
+            {
+                return String.format("<hr/>\n<a href=\"%s\">Next</a>\n</body></html>\n",
+                        html(page.toQuery(page.getOffset() + count)));
+            }
+            return "</body></html>\n";
+        }
+    }
+
+    private static Ordering<Entry> ordering(final Page page)
+    {
+        Ordering<Entry> ordering = Ordering.from(new Comparator<Entry>()
+        {
+            @Override public int compare(final Entry lhs, final Entry rhs)
+            {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+        if (SORT_SIZE.equals(page.getSort()))
+        {
+            ordering = Ordering.from(new Comparator<Entry>()
+            {
+                @Override public int compare(final Entry lhs, final Entry rhs)
+                {
+                    return Long.compare(lhs.getSize(), rhs.getSize());
+                }
+            }).compound(ordering);
+        }
+        else if (SORT_MODIFIED.equals(page.getSort()))
+        {
+            ordering = Ordering.from(new Comparator<Entry>()
+            {
+                @Override public int compare(final Entry lhs, final Entry rhs)
+                {
+                    return Long.compare(lhs.getModified(), rhs.getModified());
+                }
+            }).compound(ordering);
+        }
+        return page.isDescending() ? ordering.reverse() : ordering;
+    }
+
+    private static String html(final String s)
+    {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String json(final String s)
+    {
+        final StringBuilder sb = new StringBuilder(s.length());
+        for (int i=0; i<s.length(); i++)
+        {
+            final char c = s.charAt(i);
+            if ('"' == c || '\\' == c)
+            {
+                sb.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Turns directory entries into names, reading their attributes only
+     * when the sort needs them.  Entries that disappear before their
+     * attributes are read are skipped.
+     */
+    private static class EntryIterator extends AbstractIterator<Entry>
+    {
+        private final Iterator<Path> paths;
+        private final boolean readAttributes;
+
+        EntryIterator(final Iterator<Path> paths, final boolean readAttributes)
+        {
+            this.paths = paths;
+            this.readAttributes = readAttributes;
+        }
+
+        @Override
+        protected Entry computeNext()
+        {
+            while (paths.hasNext())
+            {
+                final Path path = paths.next();
+                final String name = path.getFileName().toString();
+                if (! readAttributes)
+                {
+                    return new Entry(name, 0, 0);
+                }
+                try
+                {
+                    final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                    return new Entry(name, attrs.size(), attrs.lastModifiedTime().toMillis());
+                }
+                catch (IOException e)
+                {
+                    log.debug(String.format("Unable to read attributes of \"%s\"", path), e);
+                }
+            }
+            return endOfData();
+        }
+    }
+
+    @Value
+    private static class Entry
+    {
+        String name;
+        long size;
+        long modified;
+    }
+
+    @Value
+    private static class PageKey
+    {
+        Path directory;
+        Page page;
+    }
+
+    @Value
+    private static class RenderedPage
+    {
+        long lastModified;
+        byte[] content;
+    }
+}
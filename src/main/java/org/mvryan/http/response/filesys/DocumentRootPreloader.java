@@ -0,0 +1,170 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Warms the caches from the document root at startup, so a fresh
+ * instance doesn't serve its first requests from a cold cache.  The tree
+ * is walked in parallel, one fork/join task per directory.  Metadata is
+ * loaded for every path visited and file content is loaded into the
+ * content cache until the byte budget is spent.
+ *
+ * Symbolic links are skipped, as the watcher doesn't follow them either,
+ * so the walk can't leave the document root or loop.
+ */
+@Slf4j
+@Singleton
+public class DocumentRootPreloader
+{
+    private final Path documentRoot;
+    private final long maxBytes;
+    private final boolean cacheEnabled;
+    private final FileMetadataCache metadataCache;
+    private final FileContentCache contentCache;
+
+    @Inject
+    public DocumentRootPreloader(@Named(ConfigurationModule.DOCUMENT_ROOT) final String documentRoot,
+            @Named(ConfigurationModule.PRELOAD_MAX_BYTES) final String maxBytes,
+            @Named(ConfigurationModule.CACHE_ENABLED) final String cacheEnabled,
+            final FileMetadataCache metadataCache,
+            final FileContentCache contentCache)
+    {
+        this.documentRoot = Paths.get(documentRoot);
+        this.maxBytes = Long.parseLong(maxBytes);
+        this.cacheEnabled = Boolean.parseBoolean(cacheEnabled);
+        this.metadataCache = metadataCache;
+        this.contentCache = contentCache;
+    }
+
+    /**
+     * Walks the document root, returning once the budget is spent or
+     * every file has been visited.
+     *
+     * @return the bytes of content loaded
+     */
+    public long preload()
+    {
+        if (maxBytes <= 0)
+        {
+            return 0;
+        }
+
+        final long start = System.nanoTime();
+        final AtomicLong remaining = new AtomicLong(maxBytes);
+        final ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            pool.invoke(new PreloadDirectory(documentRoot, remaining));
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        final long loaded = maxBytes - remaining.get();
+        log.info(String.format("Preloaded %d bytes from \"%s\" in %d ms", loaded, documentRoot,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        return loaded;
+    }
+
+    private void preloadFile(final Path path, final FileMetadata metadata, final AtomicLong remaining) throws IOException
+    {
+        if (! cacheEnabled || 0 == metadata.getSize() || ! reserve(remaining, metadata.getSize()))
+        {
+            return;
+        }
+        final ResponseBody body = contentCache.get(path, metadata.getAttributes());
+        if (null == body)
+        {
+            // Too big for the cache, or the cache is full
+            remaining.addAndGet(metadata.getSize());
+        }
+    }
+
+    private static boolean reserve(final AtomicLong remaining, final long bytes)
+    {
+        long current;
+        do
+        {
+            current = remaining.get();
+            if (current < bytes)
+            {
+                return false;
+            }
+        }
+        while (! remaining.compareAndSet(current, current - bytes));
+        return true;
+    }
+
+    private class PreloadDirectory extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final AtomicLong remaining;
+
+        PreloadDirectory(final Path directory, final AtomicLong remaining)
+        {
+            this.directory = directory;
+            this.remaining = remaining;
+        }
+
+        @Override
+        protected void compute()
+        {
+            final List<PreloadDirectory> subdirectories = Lists.newArrayList();
+            try (final DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+            {
+                for (final Path entry : entries)
+                {
+                    if (remaining.get() <= 0)
+                    {
+                        break;
+                    }
+                    if (Files.isSymbolicLink(entry))
+                    {
+                        continue;
+                    }
+                    final FileMetadata metadata = metadataCache.get(entry);
+                    if (null == metadata || ! metadata.isReadable())
+                    {
+                        continue;
+                    }
+                    if (metadata.isDirectory())
+                    {
+                        subdirectories.add(new PreloadDirectory(entry, remaining));
+                    }
+                    else
+                    {
+                        preloadFile(entry, metadata, remaining);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                log.warn(String.format("Unable to preload \"%s\"", directory), e);
+            }
+            invokeAll(subdirectories);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package org.mvryan.http.response.filesys;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.modules.ConfigurationModule;
+
+/**
+ * Watches the document root tree and drops cached entries for paths as
+ * they change, so a deploy shows up at once instead of when the caches
+ * expire.  Changing a file also invalidates its directory, whose default
+ * document may have changed with it.  New directories are watched as
+ * they appear.
+ *
+ * If the watch overflows, events were lost and we can't tell what
+ * changed, so everything is invalidated and the tree is registered again.
+ * Rescans then repeat every interval until no overflow has been seen for
+ * a whole interval.  If a directory can't be watched at all (for instance
+ * the inotify watch limit is reached), rescans never stop.
+ */
+@Slf4j
+@Singleton
+public class DocumentRootWatcher
+{
+    private final Path documentRoot;
+    private final boolean enabled;
+    private final long rescanIntervalMillis;
+    private final FileMetadataCache metadataCache;
+    private final FileContentCache contentCache;
+    private final MappedFileCache mappedFileCache;
+    private final CompressedContentCache compressedContentCache;
+    private final SidecarFileCache sidecarFileCache;
+    private final DirectoryIndex directoryIndex;
+
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+
+    private WatchService watchService = null;
+    private Thread worker = null;
+    private volatile boolean running = false;
+
+    // Only touched by the worker thread, once started
+    private boolean rescanning = false;
+    private boolean unwatchable = false;
+    private long lastOverflowNanos = 0;
+    private long nextRescanNanos = 0;
+
+    @Inject
+    public DocumentRootWatcher(@Named(ConfigurationModule.DOCUMENT_ROOT) final String documentRoot,
+            @Named(ConfigurationModule.WATCH_ENABLED) final String enabled,
+            @Named(ConfigurationModule.WATCH_RESCAN_INTERVAL) final String rescanIntervalMillis,
+            final FileMetadataCache metadataCache,
+            final FileContentCache contentCache,
+            final MappedFileCache mappedFileCache,
+            final CompressedContentCache compressedContentCache,
+            final SidecarFileCache sidecarFileCache,
+            final DirectoryIndex directoryIndex)
+    {
+        this.documentRoot = Paths.get(documentRoot);
+        this.enabled = Boolean.parseBoolean(enabled);
+        this.rescanIntervalMillis = Long.parseLong(rescanIntervalMillis);
+        this.metadataCache = metadataCache;
+        this.contentCache = contentCache;
+        this.mappedFileCache = mappedFileCache;
+        this.compressedContentCache = compressedContentCache;
+        this.sidecarFileCache = sidecarFileCache;
+        this.directoryIndex = directoryIndex;
+    }
+
+    public synchronized void start() throws IOException
+    {
+        if (! enabled || running)
+        {
+            return;
+        }
+
+        watchService = documentRoot.getFileSystem().newWatchService();
+        running = true;
+        registerTree(documentRoot);
+        log.info("Watching {} directories under \"{}\" for changes", directories.size(), documentRoot);
+
+        worker = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                watch();
+            }
+        }, "docroot-watcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop()
+    {
+        if (! running)
+        {
+            return;
+        }
+        running = false;
+        try
+        {
+            // Wakes the worker with ClosedWatchServiceException
+            watchService.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Error trying to close watch service", e);
+        }
+    }
+
+    boolean isWatching(final Path directory)
+    {
+        return directories.containsKey(directory);
+    }
+
+    private void watch()
+    {
+        while (running)
+        {
+            final WatchKey key;
+            try
+            {
+                if (rescanning)
+                {
+                    key = watchService.poll(Math.max(0, nextRescanNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+                }
+                else
+                {
+                    key = watchService.take();
+                }
+            }
+            catch (InterruptedException | ClosedWatchServiceException e)
+            {
+                break;
+            }
+
+            if (null != key)
+            {
+                processEvents(key);
+            }
+            if (rescanning && System.nanoTime() - nextRescanNanos >= 0)
+            {
+                rescan();
+            }
+        }
+        log.debug("Stopped watching the document root");
+    }
+
+    private void processEvents(final WatchKey key)
+    {
+        final Path directory = keys.get(key);
+        for (final WatchEvent<?> event : key.pollEvents())
+        {
+            if (OVERFLOW == event.kind())
+            {
+                log.warn("Too many changes under the document root to track; rescanning");
+                lastOverflowNanos = System.nanoTime();
+                rescanning = true;
+                nextRescanNanos = lastOverflowNanos;
+            }
+            else if (null != directory)
+            {
+                changed(directory.resolve((Path) event.context()), event.kind());
+            }
+        }
+        if (! key.reset())
+        {
+            // The directory is gone
+            keys.remove(key);
+            if (null != directory)
+            {
+                directories.remove(directory);
+            }
+        }
+    }
+
+    private void changed(final Path path, final WatchEvent.Kind<?> kind)
+    {
+        log.debug("{}: \"{}\"", kind.name(), path);
+        invalidate(path);
+        // Its directory's modification time, default document and index
+        // may have changed too
+        metadataCache.invalidate(path.getParent());
+        directoryIndex.invalidate(path.getParent());
+
+        if (ENTRY_CREATE == kind && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS))
+        {
+            // Files may have been created in it before it was watched,
+            // and lookups under it may have been cached as missing
+            registerTree(path);
+            metadataCache.invalidateTree(path);
+        }
+        else if (ENTRY_DELETE == kind && directories.containsKey(path))
+        {
+            metadataCache.invalidateTree(path);
+        }
+    }
+
+    private void invalidate(final Path path)
+    {
+        metadataCache.invalidate(path);
+        contentCache.invalidate(path);
+        mappedFileCache.invalidate(path);
+        compressedContentCache.invalidate(path);
+        sidecarFileCache.invalidate(path);
+        directoryIndex.invalidate(path);
+    }
+
+    private void rescan()
+    {
+        log.debug("Rescanning the document root");
+        registerTree(documentRoot);
+
+        // Content caches check their entries against the metadata, so
+        // refreshing that is enough for them
+        metadataCache.invalidateAll();
+        sidecarFileCache.invalidateAll();
+
+        final long now = System.nanoTime();
+        if (! unwatchable && now - lastOverflowNanos > TimeUnit.MILLISECONDS.toNanos(rescanIntervalMillis))
+        {
+            rescanning = false;
+        }
+        nextRescanNanos = now + TimeUnit.MILLISECONDS.toNanos(rescanIntervalMillis);
+    }
+
+    private void registerTree(final Path root)
+    {
+        try
+        {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+                {
+                    register(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e)
+                {
+                    log.debug("Unable to visit \"{}\"", file, e);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to walk \"{}\"", root, e);
+        }
+    }
+
+    private void register(final Path directory)
+    {
+        try
+        {
+            final WatchKey key = directory.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            keys.put(key, directory);
+            directories.put(directory, key);
+        }
+        catch (ClosedWatchServiceException | NoSuchFileException e)
+        {
+            // Stopped, or the directory went away, while registering
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to watch \"{}\"; falling back to periodic rescans", directory, e);
+            if (! rescanning)
+            {
+                nextRescanNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rescanIntervalMillis);
+            }
+            unwatchable = true;
+            rescanning = true;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * A tier that serves file content without going back to the file for
+ * every request.  Entries are keyed by canonical path and are only used
+ * while the file's size and modification time still match, so a tier
+ * never serves stale content.
+ */
+@ImplementedBy(HeapContentCache.class)
+public interface FileContentCache extends MeteredCache
+{
+    /**
+     * @param path canonical path of the file
+     * @param attrs current attributes of the file, used to validate the entry
+     * @return a body with the file's current content, or null if the file
+     *         is not eligible for this tier
+     */
+    ResponseBody get(final Path path, final BasicFileAttributes attrs) throws IOException;
+    
+    void invalidate(final Path path);
+}
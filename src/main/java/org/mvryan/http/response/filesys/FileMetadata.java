@@ -0,0 +1,42 @@
+package org.mvryan.http.response.filesys;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import lombok.Value;
+
+/**
+ * What we know about a file without opening it: its attributes, whether
+ * we may read it, its content type or the default document if it is a
+ * directory, and the validators sent with it - an ETag and a preformatted
+ * Last-Modified date.
+ */
+@Value
+public class FileMetadata
+{
+    BasicFileAttributes attributes;
+    boolean readable;
+    String eTag;
+    String lastModifiedHeader;
+    
+    // Null for a directory
+    String contentType;
+    
+    // Null if not a directory or it has no default document
+    Path defaultDocument;
+    
+    public long getSize()
+    {
+        return attributes.size();
+    }
+    
+    public long getLastModified()
+    {
+        return attributes.lastModifiedTime().toMillis();
+    }
+    
+    public boolean isDirectory()
+    {
+        return attributes.isDirectory();
+    }
+}
@@ -0,0 +1,257 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.HttpDate;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Caches file metadata for a short time, so a request for a file already
+ * seen costs no stat calls at all and answering a revalidation request
+ * costs no disk I/O.  A miss costs one attribute read and one access
+ * check, plus a lookup of the default documents for a directory.  Entries
+ * are trusted for the configured time; a file changed within that window
+ * is still described by its old metadata until the entry expires.
+ * 
+ * Entries also carry the file's content type, so it is resolved once per
+ * entry rather than once per request.
+ * 
+ * Missing files are cached too, so repeated requests for something that
+ * isn't there don't go to the filesystem either.
+ * 
+ * ETags are built from the size and modification time.  Optionally a
+ * hash of the content is computed in the background and used instead
+ * once it is ready, so a file that is rewritten with the same bytes keeps
+ * its ETag.
+ */
+@Slf4j
+@Singleton
+public class FileMetadataCache implements MeteredCache
+{
+    private static final int MAX_HASHES = 10000;
+    
+    private final FilesystemResolver fileResolver;
+    private final Cache<Path, Optional<FileMetadata>> metadata;
+    private final Cache<Path, ContentHash> hashes;
+    private final ExecutorService hasher;
+    private final Set<Path> unhashed = ConcurrentHashMap.newKeySet();
+    
+    @Inject
+    public FileMetadataCache(@Named(ConfigurationModule.METADATA_CACHE_TTL) final String ttlMillis,
+            @Named(ConfigurationModule.METADATA_CACHE_MAX_ENTRIES) final String maxEntries,
+            @Named(ConfigurationModule.ETAG_CONTENT_HASH) final String contentHash,
+            final FilesystemResolver fileResolver)
+    {
+        this.fileResolver = fileResolver;
+        this.metadata = CacheBuilder.newBuilder()
+                .maximumSize(Long.parseLong(maxEntries))
+                .expireAfterWrite(Long.parseLong(ttlMillis), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+        this.hashes = CacheBuilder.newBuilder()
+                .maximumSize(MAX_HASHES)
+                .build();
+        this.hasher = Boolean.parseBoolean(contentHash) ? Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override public Thread newThread(final Runnable r)
+            {
+                final Thread thread = new Thread(r, "etag-hasher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+    
+    /**
+     * @return the file's metadata, or null if there is no such file
+     */
+    public FileMetadata get(final Path path) throws IOException
+    {
+        try
+        {
+            final FileMetadata result = metadata.get(path, new Callable<Optional<FileMetadata>>()
+            {
+                @Override public Optional<FileMetadata> call() throws IOException
+                {
+                    return Optional.ofNullable(load(path));
+                }
+            }).orElse(null);
+            // Only hash once the entry is in the cache, or a quick hash
+            // could invalidate it before it gets there
+            if (null != result && unhashed.remove(path))
+            {
+                scheduleHash(path, result.getSize(), result.getLastModified());
+            }
+            return result;
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+    
+    /**
+     * Reads the file's metadata afresh, leaving the cache as it is.
+     * 
+     * @return the file's metadata, or null if there is no such file
+     */
+    public FileMetadata getUncached(final Path path) throws IOException
+    {
+        return load(path);
+    }
+    
+    public void invalidate(final Path path)
+    {
+        metadata.invalidate(path);
+    }
+    
+    /**
+     * Drops the entries for a directory and everything under it,
+     * including paths remembered as missing.
+     */
+    public void invalidateTree(final Path directory)
+    {
+        final Iterator<Path> paths = metadata.asMap().keySet().iterator();
+        while (paths.hasNext())
+        {
+            if (paths.next().startsWith(directory))
+            {
+                paths.remove();
+            }
+        }
+    }
+    
+    public void invalidateAll()
+    {
+        metadata.invalidateAll();
+    }
+    
+    @Override
+    public CacheStats stats()
+    {
+        return metadata.stats();
+    }
+    
+    @Override
+    public long size()
+    {
+        return metadata.size();
+    }
+    
+    /**
+     * @return -1; the cache is bounded by entries, not bytes
+     */
+    @Override
+    public long bytes()
+    {
+        return -1;
+    }
+    
+    private FileMetadata load(final Path path) throws IOException
+    {
+        final BasicFileAttributes attrs = fileResolver.readAttributesIfExists(path);
+        if (null == attrs)
+        {
+            return null;
+        }
+        
+        final long size = attrs.size();
+        final long lastModified = attrs.lastModifiedTime().toMillis();
+        String eTag = String.format("\"%x-%x\"", size, lastModified);
+        if (null != hasher && attrs.isRegularFile())
+        {
+            final ContentHash hash = hashes.getIfPresent(path);
+            if (null != hash && hash.matches(size, lastModified))
+            {
+                eTag = hash.getETag();
+            }
+            else
+            {
+                unhashed.add(path);
+            }
+        }
+        return new FileMetadata(attrs, fileResolver.isReadable(path), eTag, HttpDate.format(lastModified),
+                attrs.isDirectory() ? null : fileResolver.resolveContentType(path.toFile()),
+                attrs.isDirectory() ? findDefaultDocument(path) : null);
+    }
+    
+    private Path findDefaultDocument(final Path directory) throws IOException
+    {
+        for (final String name : FilesystemResolver.DEFAULT_HTML_DOCS)
+        {
+            // Looked up through the cache, so a directory's candidates are
+            // only probed when its own entry is loaded
+            final Path candidate = directory.resolve(name);
+            final FileMetadata candidateMetadata = get(candidate);
+            if (null != candidateMetadata && candidateMetadata.getAttributes().isRegularFile())
+            {
+                return candidate;
+            }
+        }
+        return null;
+    }
+    
+    private void scheduleHash(final Path path, final long size, final long lastModified)
+    {
+        hasher.execute(new Runnable()
+        {
+            @Override public void run()
+            {
+                try
+                {
+                    final String eTag = "\"" + Files.hash(path.toFile(), Hashing.murmur3_128()).toString() + "\"";
+                    final BasicFileAttributes attrs = fileResolver.readAttributesIfExists(path);
+                    if (null != attrs && attrs.size() == size && attrs.lastModifiedTime().toMillis() == lastModified)
+                    {
+                        hashes.put(path, new ContentHash(size, lastModified, eTag));
+                        // Pick the hash up on the next request rather than after the TTL
+                        metadata.invalidate(path);
+                    }
+                }
+                catch (IOException e)
+                {
+                    log.debug("Unable to hash file \"{}\"", path, e);
+                }
+            }
+        });
+    }
+    
+    @Value
+    private static class ContentHash
+    {
+        long size;
+        long lastModified;
+        String eTag;
+        
+        boolean matches(final long size, final long lastModified)
+        {
+            return this.size == size && this.lastModified == lastModified;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import lombok.experimental.Builder;
 
 import org.mvryan.http.response.HttpResponse;
 import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.ResponseBody;
 
 @Builder
 public class FilesystemHttpResponse implements HttpResponse
@@ -15,13 +16,47 @@ public class FilesystemHttpResponse implements HttpResponse
     private byte[] responsePayload = null;
     @Getter
     private String contentType = HttpResponseStrategy.CONTENT_TYPE_DEFAULT; // HTTP default
+    private ResponseBody responseBody = null;
+    @Getter
+    private String contentEncoding = null;
+    @Getter
+    private String vary = null;
+    @Getter
+    private String eTag = null;
+    @Getter
+    private String lastModified = null;
+    @Getter
+    private String acceptRanges = null;
+    @Getter
+    private String contentRange = null;
     
     private FilesystemHttpResponse(final HttpResponseCode responseCode,
             final byte[] responsePayload,
-            final String contentType)
+            final String contentType,
+            final ResponseBody responseBody,
+            final String contentEncoding,
+            final String vary,
+            final String eTag,
+            final String lastModified,
+            final String acceptRanges,
+            final String contentRange)
     {
         this.responseCode = responseCode;
         this.responsePayload = responsePayload;
         this.contentType = null != contentType ? contentType : HttpResponseStrategy.CONTENT_TYPE_DEFAULT;
+        this.responseBody = responseBody;
+        this.contentEncoding = contentEncoding;
+        this.vary = vary;
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.acceptRanges = acceptRanges;
+        this.contentRange = contentRange;
+    }
+    
+    @Override
+    public ResponseBody getResponseBody()
+    {
+        // Large files are sent from a file region and have no payload
+        return null != responseBody ? responseBody : HttpResponse.super.getResponseBody();
     }
 }
@@ -3,14 +3,38 @@ package org.mvryan.http.response.filesys;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
 
-import com.google.common.collect.Lists;
+import javax.inject.Inject;
+
+import org.mvryan.http.response.FileRegionBody;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.collect.ImmutableList;
 
 public class FilesystemResolver
 {
-    private final List<String> defaultHtmlDocs =
-            Lists.newArrayList("index.html", "index.htm", "default.html", "default.htm");
+    public static final List<String> DEFAULT_HTML_DOCS =
+            ImmutableList.of("index.html", "index.htm", "default.html", "default.htm");
+    
+    private final MimeTypes mimeTypes;
+    
+    @Inject
+    public FilesystemResolver(final MimeTypes mimeTypes)
+    {
+        this.mimeTypes = mimeTypes;
+    }
+    
+    /**
+     * Uses only the built-in content types.
+     */
+    public FilesystemResolver()
+    {
+        this(new MimeTypes(""));
+    }
     
     public File getFile(final String path)
     {
@@ -22,18 +46,34 @@ public class FilesystemResolver
         return Files.readAllBytes(file.toPath());
     }
     
-    public File getDefaultHtmlFile(final File directory)
+    public BasicFileAttributes readAttributes(final Path path) throws IOException
+    {
+        return Files.readAttributes(path, BasicFileAttributes.class);
+    }
+    
+    /**
+     * @return the file's attributes, or null if there is no such file
+     */
+    public BasicFileAttributes readAttributesIfExists(final Path path) throws IOException
     {
-        File defaultHtmlFile = null;
-        for (final String defaultHtml : defaultHtmlDocs)
+        try
         {
-            defaultHtmlFile = getFile(joinPath(directory.getAbsolutePath(), defaultHtml));
-            if (defaultHtmlFile.exists() && defaultHtmlFile.isFile())
-            {
-                break;
-            }
+            return readAttributes(path);
         }
-        return defaultHtmlFile.exists() ? defaultHtmlFile : null;
+        catch (NoSuchFileException e)
+        {
+            return null;
+        }
+    }
+    
+    public boolean isReadable(final Path path)
+    {
+        return Files.isReadable(path);
+    }
+    
+    public ResponseBody getFileBody(final File file, final long position, final long count)
+    {
+        return new FileRegionBody(file.toPath(), position, count);
     }
     
     public static String joinPath(final String lhs, final String rhs)
@@ -43,25 +83,13 @@ public class FilesystemResolver
                 (rhs.startsWith(File.separator) ? lhs + rhs : lhs + File.separator + rhs);
     }    
     
-    public String resolveContentType(final File document) throws IOException
+    /**
+     * Looks the type up by the file name alone; the file itself is never
+     * read.
+     */
+    public String resolveContentType(final File document)
     {
-        String contentType = Files.probeContentType(document.toPath());
-        if (null == contentType)
-        {
-            int lastPeriod = document.getName().lastIndexOf(".");
-            if (-1 != lastPeriod)
-            {
-                final String ext = document.getName().substring(lastPeriod);
-                if (".html".equalsIgnoreCase(ext) || ".htm".equalsIgnoreCase(ext))
-                {
-                    contentType = HttpResponseStrategy.CONTENT_TYPE_TEXT_HTML;
-                }
-                else if (".txt".equalsIgnoreCase(ext))
-                {
-                    contentType = HttpResponseStrategy.CONTENT_TYPE_TEXT_PLAIN;
-                }
-            }
-        }
+        final String contentType = mimeTypes.lookup(document.getName());
         return null == contentType ? HttpResponseStrategy.CONTENT_TYPE_DEFAULT : contentType;
-    }    
+    }
 }
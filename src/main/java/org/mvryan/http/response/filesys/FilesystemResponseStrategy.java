@@ -2,214 +2,521 @@ package org.mvryan.http.response.filesys;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Optional;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Singleton;
 
 import lombok.extern.slf4j.Slf4j;
 
 import org.mvryan.http.modules.ConfigurationModule;
 import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.BufferBody;
+import org.mvryan.http.response.CompositeBody;
+import org.mvryan.http.response.FileRegionBody;
+import org.mvryan.http.response.HttpDate;
 import org.mvryan.http.response.HttpResponse;
 import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.ResponseBody;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
 
 @Slf4j
+@Singleton
 public class FilesystemResponseStrategy implements HttpResponseStrategy
 {
     private final FilesystemResolver fileResolver;
     private final String documentRoot;
+    private final Path documentRootPath;
     private final boolean allowDirectoryIndex;
+    private final long zeroCopyThreshold;
+    private final boolean compressionEnabled;
+    private final boolean precompressedEnabled;
     
-    private final Optional<LoadingCache<HttpRequest, HttpResponse>> cache;
+    private final List<FileContentCache> contentTiers = Lists.newArrayList();
+    private final CompressedContentCache compressedContentCache;
+    private final SidecarFileCache sidecarFileCache;
+    private final FileMetadataCache fileMetadataCache;
+    private final DirectoryIndex directoryIndex;
+    
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_IF_RANGE = "If-Range";
+    
+    // Separates the parts of multi-range responses
+    private static final String BOUNDARY = UUID.randomUUID().toString().replace("-", "");
+    private static final String CONTENT_TYPE_BYTERANGES = "multipart/byteranges; boundary=" + BOUNDARY;
     
     @Inject
     public FilesystemResponseStrategy(@Named(ConfigurationModule.DOCUMENT_ROOT) final String documentRoot,
             @Named(ConfigurationModule.ALLOW_DIRECTORY_INDEX) final String allowDirectoryIndex,
             @Named(ConfigurationModule.CACHE_ENABLED) final String cacheEnabled,
-            final FilesystemResolver fileResolver)
+            @Named(ConfigurationModule.ZERO_COPY_THRESHOLD) final String zeroCopyThreshold,
+            @Named(ConfigurationModule.MMAP_ENABLED) final String mmapEnabled,
+            @Named(ConfigurationModule.COMPRESSION_ENABLED) final String compressionEnabled,
+            @Named(ConfigurationModule.PRECOMPRESSED_ENABLED) final String precompressedEnabled,
+            final FilesystemResolver fileResolver,
+            final FileContentCache contentCache,
+            final MappedFileCache mappedFileCache,
+            final CompressedContentCache compressedContentCache,
+            final SidecarFileCache sidecarFileCache,
+            final FileMetadataCache fileMetadataCache,
+            final DirectoryIndex directoryIndex)
     {
         this.documentRoot = documentRoot;
+        this.documentRootPath = Paths.get(documentRoot).normalize();
         this.allowDirectoryIndex = Boolean.parseBoolean(allowDirectoryIndex);
+        this.zeroCopyThreshold = Long.parseLong(zeroCopyThreshold);
+        this.compressionEnabled = Boolean.parseBoolean(compressionEnabled);
+        this.precompressedEnabled = Boolean.parseBoolean(precompressedEnabled);
         this.fileResolver = fileResolver;
+        this.compressedContentCache = compressedContentCache;
+        this.sidecarFileCache = sidecarFileCache;
+        this.fileMetadataCache = fileMetadataCache;
+        this.directoryIndex = directoryIndex;
         
+        // Tiers are tried in order; files too big for the content cache
+        // can still be served from the mapped tier.
         if (Boolean.parseBoolean(cacheEnabled))
         {
-            // This is a simple caching solution.  It does not provide
-            // a caching solution that is compliant with the HTTP spec
-            // because it cannot support max-age, but it can
-            // support no-cache.
-            cache = Optional.of(CacheBuilder.newBuilder()
-                    .maximumSize(1000)
-                    .expireAfterAccess(5, TimeUnit.MINUTES)
-                    .build(
-                            new CacheLoader<HttpRequest, HttpResponse>()
-                            {
-                                public HttpResponse load(final HttpRequest request)
-                                {
-                                    return processRequest(request);
-                                }
-                            }));
+            contentTiers.add(contentCache);
         }
-        else
+        if (Boolean.parseBoolean(mmapEnabled))
         {
-            cache = Optional.empty();
+            contentTiers.add(mappedFileCache);
         }
     }
 
     @Override
     public HttpResponse determineResponse(final HttpRequest request)
     {
-        log.debug(String.format("Determining response for requested path \"%s\"", request.getUri().getPath()));
-        
-        if (cache.isPresent() && request.isCacheable())
-        {
-            try
-            {
-                return cache.get().get(request);
-            }
-            catch (ExecutionException e)
-            {
-                return processRequest(request);
-            }
-        }
-        else
+        if (log.isDebugEnabled())
         {
-            return processRequest(request);
+            log.debug(String.format("Determining response for requested path \"%s\"", request.getUri().getPath()));
         }
+        
+        return processRequest(request);
     }
     
     private HttpResponse processRequest(final HttpRequest request)
     {
-        File documentRootDir = fileResolver.getFile(documentRoot);
-        if (documentRootDir.exists() && documentRootDir.isDirectory())
+        try
         {
-            File document = fileResolver.getFile(FilesystemResolver.joinPath(documentRoot, request.getUri().getPath()));
-            if (document.exists())
+            final FileMetadata documentRootMetadata = fileMetadataCache.get(documentRootPath);
+            if (null != documentRootMetadata && documentRootMetadata.isDirectory())
             {
-                if (document.canRead())
+                // Normalized, so "/a.html", "/./a.html" and "//a.html" share
+                // one cache entry, and the path the watcher invalidates
+                final Path requested = Paths.get(FilesystemResolver.joinPath(documentRoot, request.getUri().getPath())).normalize();
+                if (! requested.startsWith(documentRootPath))
                 {
-                    return processDocument(document, request);
+                    return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FILE_NOT_FOUND).build();
+                }
+                File document = fileResolver.getFile(requested.toString());
+                final FileMetadata metadata = getMetadata(document, request);
+                if (null != metadata)
+                {
+                    if (metadata.isReadable())
+                    {
+                        return processDocument(document, metadata, request);
+                    }
+                    else
+                    {
+                        return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FORBIDDEN).build();
+                    }
                 }
                 else
                 {
-                    return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FORBIDDEN).build();
+                    return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FILE_NOT_FOUND).build();
                 }
             }
             else
             {
-                return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FILE_NOT_FOUND).build();
+                log.error("Document root does not exist or is not directory: " + documentRoot);
+                return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.INTERNAL_SERVER_ERROR).build();
             }
         }
-        else
+        catch (AccessDeniedException e)
+        {
+            return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FORBIDDEN).build();
+        }
+        catch (IOException e)
         {
-            log.error("Document root does not exist or is not directory: " + documentRoot);
+            log.error("Couldn't read attributes for " + request.getUri().getPath() + ": ", e);
             return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.INTERNAL_SERVER_ERROR).build();
         }
     }
     
-    private HttpResponse processDocument(final File document, final HttpRequest request)
+    private HttpResponse processDocument(final File document, final FileMetadata metadata, final HttpRequest request)
+            throws IOException
     {
-        if (document.isDirectory())
+        if (metadata.isDirectory())
         {
-            final File defaultHtmlFile = fileResolver.getDefaultHtmlFile(document);
-            if (null == defaultHtmlFile)
+            final Path defaultDocument = metadata.getDefaultDocument();
+            if (null == defaultDocument)
             {
                 // No default found, do an index
-                log.debug(String.format("Trying to perform index render on path \"%s\"", document.getAbsolutePath()));
-                return processDirectoryIndex(document);
+                if (log.isDebugEnabled())
+                {
+                    log.debug(String.format("Trying to perform index render on path \"%s\"", document.getAbsolutePath()));
+                }
+                return processDirectoryIndex(document, metadata, request);
             }
             else
             {
-                log.debug(String.format("Found default HTML file \"%s\" for requested path \"%s\"", defaultHtmlFile.getName(), document.getAbsolutePath()));
-                return processDocument(defaultHtmlFile, request);
+                if (log.isDebugEnabled())
+                {
+                    log.debug(String.format("Found default HTML file \"%s\" for requested path \"%s\"", defaultDocument.getFileName(), document.getAbsolutePath()));
+                }
+                final File defaultHtmlFile = fileResolver.getFile(defaultDocument.toString());
+                final FileMetadata defaultMetadata = getMetadata(defaultHtmlFile, request);
+                if (null == defaultMetadata)
+                {
+                    // Removed since the directory was looked at
+                    return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FILE_NOT_FOUND).build();
+                }
+                else if (! defaultMetadata.isReadable())
+                {
+                    return FilesystemHttpResponse.builder().responseCode(HttpResponseCode.FORBIDDEN).build();
+                }
+                return processDocument(defaultHtmlFile, defaultMetadata, request);
             }
         }
         else
         {
             HttpResponseCode responseCode = HttpResponseCode.INTERNAL_SERVER_ERROR;
             byte[] responsePayload = null;
+            ResponseBody responseBody = null;
             String contentType = HttpResponseStrategy.CONTENT_TYPE_DEFAULT;
+            String contentEncoding = null;
+            String vary = null;
+            String eTag = null;
+            String lastModified = null;
+            String acceptRanges = null;
+            String contentRange = null;
             
-            // Double-check file existence and access
-            if (! document.exists())
-            {
-                responseCode = HttpResponseCode.FILE_NOT_FOUND;
-            }
-            else if (! document.canRead())
-            {
-                responseCode = HttpResponseCode.FORBIDDEN;
-            }
-            else
+            try
             {
-                try
+                if (log.isDebugEnabled())
                 {
                     log.debug(String.format("Found file \"%s\"", document.getAbsolutePath()));
-                    
-                    contentType = fileResolver.resolveContentType(document);
+                }
+                
+                contentType = metadata.getContentType();
+                if (log.isDebugEnabled())
+                {
                     log.debug(String.format("Resolved response content type: \"%s\"", contentType));
+                }
+                
+                if (! contentTypeMatchesAccept(contentType, request.getHeader("Accept")))
+                {
+                    responsePayload = contentType.getBytes();
+                    responseCode = HttpResponseCode.NOT_ACCEPTABLE;
+                }
+                else
+                {
+                    final String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+                    final SidecarFileCache.Sidecar sidecar = precompressedEnabled ? sidecarFileCache.get(document.toPath()) : null;
+                    final boolean compressible = compressionEnabled && CompressedContentCache.isCompressible(contentType);
+                    if (null != sidecar || compressible)
+                    {
+                        // Whether or not this response is compressed,
+                        // another client's may be
+                        vary = HEADER_ACCEPT_ENCODING;
+                    }
+                    
+                    eTag = metadata.getETag();
+                    lastModified = metadata.getLastModifiedHeader();
+                    acceptRanges = ByteRange.UNIT;
                     
-                    if (! contentTypeMatchesAccept(contentType, request))
+                    final String matchedETag = matchConditions(request, metadata);
+                    final long length = metadata.getSize();
+                    final List<ByteRange> ranges = null == matchedETag ? getRanges(request, metadata, length) : null;
+                    if (null != matchedETag)
                     {
-                        responsePayload = contentType.getBytes();
-                        responseCode = HttpResponseCode.NOT_ACCEPTABLE;
+                        // The client's copy is current; nothing more to read
+                        eTag = matchedETag;
+                        responseCode = HttpResponseCode.NOT_MODIFIED;
+                    }
+                    else if (null != ranges)
+                    {
+                        // Ranges are of the file as it is, so they are
+                        // never compressed
+                        if (ranges.isEmpty())
+                        {
+                            contentRange = ByteRange.unsatisfiable(length);
+                            responseCode = HttpResponseCode.RANGE_NOT_SATISFIABLE;
+                        }
+                        else if (1 == ranges.size())
+                        {
+                            final ByteRange range = ranges.get(0);
+                            responseBody = fileResolver.getFileBody(document, range.getFirst(), range.getLength());
+                            contentRange = range.toContentRange(length);
+                            responseCode = HttpResponseCode.PARTIAL_CONTENT;
+                        }
+                        else
+                        {
+                            responseBody = getMultipartBody(document, contentType, ranges, length);
+                            contentType = CONTENT_TYPE_BYTERANGES;
+                            responseCode = HttpResponseCode.PARTIAL_CONTENT;
+                        }
                     }
                     else
                     {
-                        responsePayload = fileResolver.readFileBytes(document);
+                        if (null != sidecar && ContentEncoding.GZIP.isAccepted(acceptEncoding))
+                        {
+                            responseBody = new FileRegionBody(sidecar.getPath(), 0, sidecar.getSize());
+                            contentEncoding = ContentEncoding.GZIP.getToken();
+                        }
+                        if (null == responseBody && compressible)
+                        {
+                            final ContentEncoding encoding = ContentEncoding.negotiate(acceptEncoding);
+                            if (null != encoding)
+                            {
+                                responseBody = getCompressedContent(document, metadata, encoding);
+                                if (null != responseBody)
+                                {
+                                    contentEncoding = encoding.getToken();
+                                }
+                            }
+                        }
+                        if (null == responseBody)
+                        {
+                            responseBody = getCachedContent(document, metadata, request);
+                        }
+                        if (null == responseBody)
+                        {
+                            if (length >= zeroCopyThreshold)
+                            {
+                                // Sent straight from the file; never copied onto the heap
+                                responseBody = fileResolver.getFileBody(document, 0, length);
+                            }
+                            else
+                            {
+                                responsePayload = fileResolver.readFileBytes(document);
+                            }
+                        }
+                        if (null != eTag && null != contentEncoding)
+                        {
+                            // Each coding is a different representation
+                            // and needs its own tag
+                            eTag = eTag.substring(0, eTag.length()-1) + "-" + contentEncoding + "\"";
+                        }
                         responseCode = HttpResponseCode.OK;
                     }
                 }
-                catch (IOException e)
-                {
-                    // We already checked file existence and access;
-                    // this seems like a system error at this point
-                    log.error("Couldn't serve file " + document.getAbsolutePath() + ": ", e);
-                    responseCode = HttpResponseCode.INTERNAL_SERVER_ERROR;
-                }
+            }
+            catch (IOException e)
+            {
+                // We already checked file existence and access;
+                // this seems like a system error at this point
+                log.error("Couldn't serve file " + document.getAbsolutePath() + ": ", e);
+                responseCode = HttpResponseCode.INTERNAL_SERVER_ERROR;
             }
             
             return FilesystemHttpResponse.builder()
                     .responseCode(responseCode)
                     .responsePayload(responsePayload)
+                    .responseBody(responseBody)
                     .contentType(contentType)
+                    .contentEncoding(contentEncoding)
+                    .vary(vary)
+                    .eTag(eTag)
+                    .lastModified(lastModified)
+                    .acceptRanges(acceptRanges)
+                    .contentRange(contentRange)
                     .build();
         }
     }
     
-    private HttpResponse processDirectoryIndex(final File directory)
+    private ResponseBody getCachedContent(final File document, final FileMetadata metadata,
+            final HttpRequest request) throws IOException
     {
-        if (allowDirectoryIndex)
+        if (contentTiers.isEmpty())
+        {
+            return null;
+        }
+        
+        final Path path = document.toPath();
+        if (! request.isCacheable())
         {
-            final StringBuilder sb = new StringBuilder();
-            final String dirPath = getRelativePath(directory.getAbsolutePath());
-            sb.append(String.format("<html><head><title>Index of %s</title></head>\n", dirPath));
-            sb.append(String.format("<body>%s<hr/>\n<a href=\"%s\">.</a><br/>\n", dirPath, dirPath));
-            if (! dirPath.equals("/"))
+            // Client asked us not to use a cached copy, so the file is
+            // read instead.  Entries are checked against the file anyway,
+            // so dropping them would only let any client evict the hot set
+            return null;
+        }
+        
+        for (final FileContentCache tier : contentTiers)
+        {
+            final ResponseBody body = tier.get(path, metadata.getAttributes());
+            if (null != body)
+            {
+                return body;
+            }
+        }
+        return null;
+    }
+    
+    private FileMetadata getMetadata(final File document, final HttpRequest request) throws IOException
+    {
+        final Path path = document.toPath();
+        return request.isCacheable() ? fileMetadataCache.get(path) : fileMetadataCache.getUncached(path);
+    }
+    
+    /**
+     * @return the tag to send with a 304 if the request's conditions show
+     *         the client's copy is current, otherwise null
+     */
+    private String matchConditions(final HttpRequest request, final FileMetadata metadata)
+    {
+        final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (null != ifNoneMatch)
+        {
+            // If-Modified-Since is ignored when If-None-Match is present
+            for (final String tag : ifNoneMatch.split(","))
             {
-                String parentDirPath = dirPath.substring(0, dirPath.lastIndexOf(File.separator, dirPath.length()-2));
-                if (0 == parentDirPath.length())
+                final String candidate = tag.trim();
+                if ("*".equals(candidate))
                 {
-                    parentDirPath = "/";
+                    return metadata.getETag();
+                }
+                if (metadata.getETag().equals(baseETag(candidate)))
+                {
+                    return candidate.startsWith("W/") ? candidate.substring(2) : candidate;
                 }
-                sb.append(String.format("<a href=\"%s\">..</a><br/>\n", parentDirPath));
             }
-            for (final File file : directory.listFiles())
+            return null;
+        }
+        
+        final String ifModifiedSince = request.getHeader(HEADER_IF_MODIFIED_SINCE);
+        if (null != ifModifiedSince)
+        {
+            // HTTP dates only have whole seconds
+            final long since = HttpDate.parse(ifModifiedSince);
+            if (since >= 0 && metadata.getLastModified() / 1000 <= since / 1000)
             {
-                sb.append(String.format("<a href=\"%s\">%s</a><br/>\n", getRelativePath(file.getAbsolutePath()), file.getName()));
+                return metadata.getETag();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Strips the weak prefix and any content coding suffix from a tag, so
+     * a tag for any coding of a file matches the file's own tag.
+     */
+    private static String baseETag(String tag)
+    {
+        if (tag.startsWith("W/"))
+        {
+            tag = tag.substring(2);
+        }
+        for (final ContentEncoding encoding : ContentEncoding.values())
+        {
+            final String suffix = "-" + encoding.getToken() + "\"";
+            if (tag.endsWith(suffix))
+            {
+                return tag.substring(0, tag.length() - suffix.length()) + "\"";
+            }
+        }
+        return tag;
+    }
+    
+    /**
+     * @return the ranges requested, which is empty if none can be
+     *         satisfied, or null to send the whole file
+     */
+    private List<ByteRange> getRanges(final HttpRequest request, final FileMetadata metadata, final long length)
+    {
+        final String range = request.getHeader(HEADER_RANGE);
+        if (null == range)
+        {
+            return null;
+        }
+        
+        final String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (null != ifRange)
+        {
+            // The client only wants the range if its copy is current;
+            // otherwise it needs the whole file
+            final String validator = ifRange.trim();
+            if (validator.startsWith("\"") || validator.startsWith("W/"))
+            {
+                // Strong comparison; a weak tag never matches
+                if (! validator.equals(metadata.getETag()))
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                final long date = HttpDate.parse(validator);
+                if (date < 0 || date / 1000 != metadata.getLastModified() / 1000)
+                {
+                    return null;
+                }
+            }
+        }
+        return ByteRange.parse(range, length);
+    }
+    
+    private ResponseBody getMultipartBody(final File document, final String contentType,
+            final List<ByteRange> ranges, final long length)
+    {
+        final List<ResponseBody> parts = Lists.newArrayListWithCapacity(ranges.size() * 2 + 1);
+        for (final ByteRange range : ranges)
+        {
+            parts.add(new BufferBody(String.format("\r\n--%s\r\nContent-Type: %s\r\nContent-Range: %s\r\n\r\n",
+                    BOUNDARY, contentType, range.toContentRange(length)).getBytes(StandardCharsets.US_ASCII)));
+            parts.add(fileResolver.getFileBody(document, range.getFirst(), range.getLength()));
+        }
+        parts.add(new BufferBody(String.format("\r\n--%s--\r\n", BOUNDARY).getBytes(StandardCharsets.US_ASCII)));
+        return new CompositeBody(parts);
+    }
+    
+    private ResponseBody getCompressedContent(final File document, final FileMetadata metadata,
+            final ContentEncoding encoding) throws IOException
+    {
+        // Even for a client that asked for no cached copy, the cached
+        // variant is checked against freshly read metadata, so it is
+        // current; compressing again would only spend the CPU budget
+        return compressedContentCache.get(document.toPath(), metadata.getAttributes(), encoding);
+    }
+    
+    private HttpResponse processDirectoryIndex(final File directory, final FileMetadata metadata, final HttpRequest request)
+    {
+        if (allowDirectoryIndex)
+        {
+            final DirectoryIndex.Page page = DirectoryIndex.Page.parse(request.getUri().getQuery());
+            if (null == page)
+            {
+                return FilesystemHttpResponse.builder()
+                        .responseCode(HttpResponseCode.BAD_REQUEST)
+                        .responsePayload("Invalid directory index parameters".getBytes())
+                        .build();
             }
-            sb.append("</body></html>\n");
             
+            final Path path = directory.toPath();
+            final StringBuilder href = new StringBuilder("/");
+            for (final Path name : documentRootPath.relativize(path))
+            {
+                if (! name.toString().isEmpty())
+                {
+                    href.append(name).append('/');
+                }
+            }
             return FilesystemHttpResponse.builder()
                     .responseCode(HttpResponseCode.OK)
-                    .responsePayload(sb.toString().getBytes())
-                    .contentType(CONTENT_TYPE_TEXT_HTML)
+                    .responseBody(directoryIndex.render(path, href.toString(), metadata.getLastModified(), page))
+                    .contentType(page.getContentType())
                     .build();
         }
         else
@@ -223,23 +530,8 @@ public class FilesystemResponseStrategy implements HttpResponseStrategy
         }
     }
     
-    private String getRelativePath(final String absolutePath)
-    {
-        String relativePath = absolutePath;
-        if (absolutePath.startsWith(documentRoot))
-        {
-            relativePath = absolutePath.substring(documentRoot.endsWith(File.separator) ? documentRoot.length()-1 : documentRoot.length());
-        }
-        if (relativePath.endsWith("/"))
-        {
-            relativePath = relativePath.substring(0, relativePath.length()-1);
-        }
-        return relativePath;
-    }
-    
-    private boolean contentTypeMatchesAccept(final String contentType, final HttpRequest request)
+    static boolean contentTypeMatchesAccept(final String contentType, final String acceptHeader)
     {
-        final String acceptHeader = request.getHeaders().get("Accept");
         if (null == acceptHeader)
         {
             return true;
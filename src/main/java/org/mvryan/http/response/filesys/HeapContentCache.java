@@ -0,0 +1,117 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.CacheWeight;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.BufferBody;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches file content on the heap, bounded by the total number of bytes
+ * cached rather than by entry count.
+ */
+@Slf4j
+@Singleton
+public class HeapContentCache implements FileContentCache
+{
+    private final long maxFileSize;
+    private final Cache<Path, CachedContent> contents;
+    private final CacheWeight<Path, CachedContent> weight;
+    
+    @Inject
+    public HeapContentCache(@Named(ConfigurationModule.CACHE_MAX_BYTES) final String maxBytes,
+            @Named(ConfigurationModule.CACHE_MAX_FILE_SIZE) final String maxFileSize)
+    {
+        this.maxFileSize = Math.min(Long.parseLong(maxFileSize), Integer.MAX_VALUE);
+        this.weight = new CacheWeight<>(new Weigher<Path, CachedContent>()
+        {
+            @Override public int weigh(final Path path, final CachedContent content)
+            {
+                return content.getBytes().length;
+            }
+        });
+        this.contents = CacheBuilder.newBuilder()
+                .maximumWeight(Long.parseLong(maxBytes))
+                .weigher(weight)
+                .removalListener(weight)
+                .recordStats()
+                .build();
+    }
+    
+    @Override
+    public ResponseBody get(final Path path, final BasicFileAttributes attrs) throws IOException
+    {
+        if (! attrs.isRegularFile() || attrs.size() > maxFileSize)
+        {
+            return null;
+        }
+        
+        CachedContent content = contents.getIfPresent(path);
+        if (null == content || ! content.matches(attrs))
+        {
+            log.debug("Caching file \"{}\" ({} bytes)", path, attrs.size());
+            content = new CachedContent(Files.readAllBytes(path), attrs.size(), attrs.lastModifiedTime());
+            if (content.getBytes().length != attrs.size())
+            {
+                // File changed while we read it; serve what we read but don't keep it
+                return new BufferBody(content.getBytes());
+            }
+            contents.put(path, content);
+        }
+        return new BufferBody(content.getBytes());
+    }
+    
+    @Override
+    public void invalidate(final Path path)
+    {
+        contents.invalidate(path);
+    }
+    
+    @Override
+    public CacheStats stats()
+    {
+        return contents.stats();
+    }
+    
+    @Override
+    public long size()
+    {
+        return contents.size();
+    }
+    
+    @Override
+    public long bytes()
+    {
+        return weight.get();
+    }
+    
+    @Value
+    private static class CachedContent
+    {
+        byte[] bytes;
+        long size;
+        FileTime lastModified;
+        
+        boolean matches(final BasicFileAttributes attrs)
+        {
+            return size == attrs.size() && lastModified.equals(attrs.lastModifiedTime());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.CacheWeight;
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.BufferBody;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+/**
+ * A bounded table of memory-mapped files.  Bodies served from here are
+ * views of the mapping, so a request costs one stat to validate the entry
+ * and the bytes go from the page cache to the socket without a heap copy.
+ *
+ * Entries are remapped when a file's size or modification time changes.
+ * Evicted or stale mappings are not unmapped explicitly - a response may
+ * still be sending from one - and are released when they are collected.
+ */
+@Slf4j
+@Singleton
+public class MappedFileCache implements FileContentCache
+{
+    private final long maxFileSize;
+    private final Cache<Path, MappedRegion> regions;
+    private final CacheWeight<Path, MappedRegion> weight;
+
+    @Inject
+    public MappedFileCache(@Named(ConfigurationModule.MMAP_MAX_BYTES) final String maxBytes,
+            @Named(ConfigurationModule.MMAP_MAX_FILE_SIZE) final String maxFileSize)
+    {
+        this.maxFileSize = Math.min(Long.parseLong(maxFileSize), Integer.MAX_VALUE);
+        this.weight = new CacheWeight<>(new Weigher<Path, MappedRegion>()
+        {
+            @Override public int weigh(final Path path, final MappedRegion region)
+            {
+                return region.getBuffer().capacity();
+            }
+        });
+        this.regions = CacheBuilder.newBuilder()
+                .maximumWeight(Long.parseLong(maxBytes))
+                .weigher(weight)
+                .removalListener(weight)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public ResponseBody get(final Path path, final BasicFileAttributes attrs) throws IOException
+    {
+        if (! attrs.isRegularFile() || 0 == attrs.size() || attrs.size() > maxFileSize)
+        {
+            return null;
+        }
+
+        MappedRegion region = regions.getIfPresent(path);
+        if (null == region || ! region.matches(attrs))
+        {
+            region = map(path, attrs);
+            regions.put(path, region);
+        }
+        return new BufferBody(region.getBuffer());
+    }
+
+    @Override
+    public void invalidate(final Path path)
+    {
+        regions.invalidate(path);
+    }
+
+    @Override
+    public CacheStats stats()
+    {
+        return regions.stats();
+    }
+
+    @Override
+    public long size()
+    {
+        return regions.size();
+    }
+
+    @Override
+    public long bytes()
+    {
+        return weight.get();
+    }
+
+    private MappedRegion map(final Path path, final BasicFileAttributes attrs) throws IOException
+    {
+        log.debug("Mapping file \"{}\" ({} bytes)", path, attrs.size());
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, attrs.size());
+            return new MappedRegion(buffer, attrs.size(), attrs.lastModifiedTime());
+        }
+    }
+
+    @Value
+    private static class MappedRegion
+    {
+        MappedByteBuffer buffer;
+        long size;
+        FileTime lastModified;
+
+        boolean matches(final BasicFileAttributes attrs)
+        {
+            return size == attrs.size() && lastModified.equals(attrs.lastModifiedTime());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.modules.ConfigurationModule;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+
+/**
+ * Maps file name extensions to content types.  The table is built once,
+ * from a built-in list of common web types and then an optional file in
+ * the usual mime.types format, whose entries take precedence.
+ *
+ * Lookups hash the extension straight out of the file name into an open
+ * addressed table, ignoring case, so they allocate nothing.
+ */
+@Slf4j
+@Singleton
+public class MimeTypes
+{
+    // Each row is a type followed by its extensions, as in mime.types
+    private static final String[][] BUILT_IN = {
+        { HttpResponseStrategy.CONTENT_TYPE_TEXT_HTML, "html", "htm" },
+        { HttpResponseStrategy.CONTENT_TYPE_TEXT_PLAIN, "txt", "text", "log" },
+        { "text/css", "css" },
+        { "text/csv", "csv" },
+        { "text/markdown", "md", "markdown" },
+        { "text/calendar", "ics" },
+        { "application/javascript", "js", "mjs" },
+        { HttpResponseStrategy.CONTENT_TYPE_APP_JSON, "json", "map" },
+        { "application/manifest+json", "webmanifest" },
+        { HttpResponseStrategy.CONTENT_TYPE_APP_XML, "xml", "xsl" },
+        { "application/xhtml+xml", "xhtml" },
+        { "application/rss+xml", "rss" },
+        { "application/atom+xml", "atom" },
+        { "application/pdf", "pdf" },
+        { "application/zip", "zip" },
+        { "application/gzip", "gz" },
+        { "application/x-tar", "tar" },
+        { "application/wasm", "wasm" },
+        { "image/png", "png" },
+        { "image/jpeg", "jpg", "jpeg" },
+        { "image/gif", "gif" },
+        { "image/webp", "webp" },
+        { "image/avif", "avif" },
+        { "image/svg+xml", "svg" },
+        { "image/x-icon", "ico" },
+        { "image/bmp", "bmp" },
+        { "font/woff", "woff" },
+        { "font/woff2", "woff2" },
+        { "font/ttf", "ttf" },
+        { "font/otf", "otf" },
+        { "audio/mpeg", "mp3" },
+        { "audio/ogg", "ogg", "oga" },
+        { "audio/wav", "wav" },
+        { "video/mp4", "mp4", "m4v" },
+        { "video/webm", "webm" },
+        { "video/ogg", "ogv" },
+    };
+
+    private final String[] extensions;
+    private final String[] types;
+    private final int mask;
+
+    @Inject
+    public MimeTypes(@Named(ConfigurationModule.MIME_TYPES_FILE) final String mimeTypesFile)
+    {
+        final Map<String, String> table = Maps.newHashMap();
+        for (final String[] row : BUILT_IN)
+        {
+            for (int i=1; i<row.length; i++)
+            {
+                table.put(row[i], row[0]);
+            }
+        }
+        if (! Strings.isNullOrEmpty(mimeTypesFile))
+        {
+            load(mimeTypesFile, table);
+        }
+
+        // At most half full, so probe sequences stay short
+        final int size = Integer.highestOneBit(Math.max(1, table.size() * 2 - 1)) << 1;
+        this.mask = size - 1;
+        this.extensions = new String[size];
+        this.types = new String[size];
+        for (final Entry<String, String> entry : table.entrySet())
+        {
+            int index = hash(entry.getKey(), 0, entry.getKey().length()) & mask;
+            while (null != extensions[index])
+            {
+                index = (index + 1) & mask;
+            }
+            extensions[index] = entry.getKey();
+            types[index] = entry.getValue();
+        }
+    }
+
+    /**
+     * @return the content type for the file name's extension, or null if
+     *         it has no extension or the extension is unknown
+     */
+    public String lookup(final String fileName)
+    {
+        final int start = fileName.lastIndexOf('.') + 1;
+        final int length = fileName.length() - start;
+        if (0 == start || 0 == length)
+        {
+            return null;
+        }
+
+        int index = hash(fileName, start, fileName.length()) & mask;
+        String extension;
+        while (null != (extension = extensions[index]))
+        {
+            if (extension.length() == length && extension.regionMatches(true, 0, fileName, start, length))
+            {
+                return types[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private static void load(final String mimeTypesFile, final Map<String, String> table)
+    {
+        final Splitter splitter = Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings();
+        int count = 0;
+        try (final BufferedReader reader = Files.newBufferedReader(Paths.get(mimeTypesFile), StandardCharsets.UTF_8))
+        {
+            String line;
+            while (null != (line = reader.readLine()))
+            {
+                final int comment = line.indexOf('#');
+                String type = null;
+                for (final String token : splitter.split(-1 == comment ? line : line.substring(0, comment)))
+                {
+                    if (null == type)
+                    {
+                        type = token;
+                    }
+                    else
+                    {
+                        table.put(token.toLowerCase(Locale.ROOT), type);
+                        count++;
+                    }
+                }
+            }
+            log.info(String.format("Loaded %d extensions from \"%s\"", count, mimeTypesFile));
+        }
+        catch (IOException e)
+        {
+            log.warn(String.format("Unable to load \"%s\"; using built-in types only", mimeTypesFile), e);
+        }
+    }
+
+    private static int hash(final String s, final int start, final int end)
+    {
+        int h = 0;
+        for (int i=start; i<end; i++)
+        {
+            h = 31 * h + Character.toLowerCase(s.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+}
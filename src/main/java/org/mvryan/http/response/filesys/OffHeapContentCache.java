@@ -0,0 +1,357 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.response.FileRegionBody;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+
+/**
+ * Caches file content in pooled direct memory instead of on the heap, so
+ * a large cache adds nothing to heap size or GC pause times.  Files are
+ * read straight into off-heap blocks and written to the socket from them.
+ *
+ * Blocks of an evicted entry are only returned to the pool once every
+ * response still sending from it has finished.  A response that starts
+ * after its entry was freed falls back to sending from the file.
+ *
+ * The cache only evicts once a new entry is added, but the pool is the
+ * same size as the cache, so a full pool has no blocks for that entry.
+ * When it runs out, the least recently used entries are evicted until the
+ * new one fits.
+ */
+@Slf4j
+@Singleton
+public class OffHeapContentCache implements FileContentCache
+{
+    static final int BLOCK_SIZE = 4096;
+
+    private final long maxFileSize;
+    private final SlabAllocator allocator;
+    private final Cache<Path, Entry> entries;
+
+    @Inject
+    public OffHeapContentCache(@Named(ConfigurationModule.CACHE_MAX_BYTES) final String maxBytes,
+            @Named(ConfigurationModule.CACHE_MAX_FILE_SIZE) final String maxFileSize)
+    {
+        this.maxFileSize = Math.min(Long.parseLong(maxFileSize), Integer.MAX_VALUE);
+        this.allocator = new SlabAllocator(BLOCK_SIZE, Long.parseLong(maxBytes));
+        this.entries = CacheBuilder.newBuilder()
+                .maximumWeight(Long.parseLong(maxBytes))
+                .weigher(new Weigher<Path, Entry>()
+                {
+                    @Override public int weigh(final Path path, final Entry entry)
+                    {
+                        return entry.blocks.length * BLOCK_SIZE;
+                    }
+                })
+                .removalListener(new RemovalListener<Path, Entry>()
+                {
+                    @Override public void onRemoval(final RemovalNotification<Path, Entry> notification)
+                    {
+                        notification.getValue().release();
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public ResponseBody get(final Path path, final BasicFileAttributes attrs) throws IOException
+    {
+        if (! attrs.isRegularFile() || 0 == attrs.size() || attrs.size() > maxFileSize)
+        {
+            return null;
+        }
+
+        Entry entry = entries.getIfPresent(path);
+        if (null == entry || ! entry.matches(attrs))
+        {
+            entry = load(path, attrs);
+            if (null == entry)
+            {
+                return null;
+            }
+            entries.put(path, entry);
+        }
+        else
+        {
+            entry.lastAccess = System.nanoTime();
+        }
+        return new OffHeapBody(path, entry);
+    }
+
+    @Override
+    public void invalidate(final Path path)
+    {
+        entries.invalidate(path);
+    }
+
+    long getUsedBytes()
+    {
+        return allocator.getUsedBytes();
+    }
+
+    @Override
+    public CacheStats stats()
+    {
+        return entries.stats();
+    }
+
+    @Override
+    public long size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * @return the off-heap bytes in use, including blocks of evicted
+     *         entries that responses are still sending from
+     */
+    @Override
+    public long bytes()
+    {
+        return getUsedBytes();
+    }
+
+    private Entry load(final Path path, final BasicFileAttributes attrs) throws IOException
+    {
+        final ByteBuffer[] blocks = allocate(attrs.size());
+        if (null == blocks)
+        {
+            log.debug("No off-heap space to cache file \"{}\" ({} bytes)", path, attrs.size());
+            return null;
+        }
+
+        log.debug("Caching file \"{}\" off-heap ({} bytes)", path, attrs.size());
+        long read = 0;
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long n;
+            while (read < attrs.size() && (n = channel.read(blocks)) > 0)
+            {
+                read += n;
+            }
+        }
+        catch (IOException e)
+        {
+            allocator.free(blocks);
+            throw e;
+        }
+        if (read != attrs.size())
+        {
+            // File changed while we read it
+            allocator.free(blocks);
+            return null;
+        }
+
+        for (final ByteBuffer block : blocks)
+        {
+            block.flip();
+        }
+        return new Entry(path, blocks, attrs.size(), attrs.lastModifiedTime());
+    }
+
+    /**
+     * @return the blocks, evicting the coldest entries to free them if the
+     *         pool is exhausted, or null if even an empty cache has no room
+     *         because responses are still sending from evicted entries
+     */
+    private ByteBuffer[] allocate(final long bytes)
+    {
+        ByteBuffer[] blocks = allocator.allocate(bytes);
+        if (null != blocks)
+        {
+            return blocks;
+        }
+
+        // Access times are copied first, since hits keep changing them
+        final List<Eviction> evictions = Lists.newArrayList();
+        for (final Entry entry : entries.asMap().values())
+        {
+            evictions.add(new Eviction(entry, entry.lastAccess));
+        }
+        Collections.sort(evictions, COLDEST_FIRST);
+        for (final Eviction eviction : evictions)
+        {
+            entries.asMap().remove(eviction.entry.path, eviction.entry);
+            blocks = allocator.allocate(bytes);
+            if (null != blocks)
+            {
+                return blocks;
+            }
+        }
+        return null;
+    }
+
+    private static final Comparator<Eviction> COLDEST_FIRST = new Comparator<Eviction>()
+    {
+        @Override public int compare(final Eviction a, final Eviction b)
+        {
+            return Long.compare(a.lastAccess, b.lastAccess);
+        }
+    };
+
+    private static class Eviction
+    {
+        final Entry entry;
+        final long lastAccess;
+
+        Eviction(final Entry entry, final long lastAccess)
+        {
+            this.entry = entry;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private class Entry
+    {
+        final Path path;
+        final ByteBuffer[] blocks;
+        final long size;
+        final FileTime lastModified;
+
+        // Only a hint for eviction, so a stale read is harmless
+        long lastAccess = System.nanoTime();
+
+        // One reference is held by the cache, plus one per open transfer
+        final AtomicInteger refs = new AtomicInteger(1);
+
+        Entry(final Path path, final ByteBuffer[] blocks, final long size, final FileTime lastModified)
+        {
+            this.path = path;
+            this.blocks = blocks;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean matches(final BasicFileAttributes attrs)
+        {
+            return size == attrs.size() && lastModified.equals(attrs.lastModifiedTime());
+        }
+
+        boolean retain()
+        {
+            int current;
+            do
+            {
+                current = refs.get();
+                if (0 == current)
+                {
+                    return false;
+                }
+            }
+            while (! refs.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void release()
+        {
+            if (0 == refs.decrementAndGet())
+            {
+                allocator.free(blocks);
+            }
+        }
+    }
+
+    private static class OffHeapBody implements ResponseBody
+    {
+        private final Path path;
+        private final Entry entry;
+
+        OffHeapBody(final Path path, final Entry entry)
+        {
+            this.path = path;
+            this.entry = entry;
+        }
+
+        @Override
+        public long getContentLength()
+        {
+            return entry.size;
+        }
+
+        @Override
+        public Transfer open() throws IOException
+        {
+            if (! entry.retain())
+            {
+                // Evicted and freed since this body was handed out
+                return new FileRegionBody(path, 0, entry.size).open();
+            }
+
+            final ByteBuffer[] slices = new ByteBuffer[entry.blocks.length];
+            for (int i=0; i<slices.length; i++)
+            {
+                slices[i] = entry.blocks[i].duplicate();
+            }
+
+            return new Transfer()
+            {
+                int index = 0;
+                boolean released = false;
+
+                @Override
+                public boolean transferTo(final WritableByteChannel target) throws IOException
+                {
+                    if (target instanceof GatheringByteChannel)
+                    {
+                        ((GatheringByteChannel) target).write(slices, index, slices.length - index);
+                    }
+                    else
+                    {
+                        for (int i=index; i<slices.length; i++)
+                        {
+                            target.write(slices[i]);
+                            if (slices[i].hasRemaining())
+                            {
+                                break;
+                            }
+                        }
+                    }
+                    while (index < slices.length && ! slices[index].hasRemaining())
+                    {
+                        index++;
+                    }
+                    return index == slices.length;
+                }
+
+                @Override
+                public void close()
+                {
+                    if (! released)
+                    {
+                        released = true;
+                        entry.release();
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.modules.ConfigurationModule;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Remembers which files have a precompressed ".gz" sidecar next to them,
+ * so looking for one doesn't cost a stat on every request.  Both hits and
+ * misses are kept for the configured time, which bounds how long a newly
+ * added, removed or rebuilt sidecar can go unnoticed.  Like the metadata
+ * cache, it remembers at most the configured number of paths, so requests
+ * for endless distinct paths can't grow it without bound.
+ * 
+ * A sidecar older than its original is ignored, since it was built from
+ * an earlier version of the file.
+ */
+@Slf4j
+@Singleton
+public class SidecarFileCache implements MeteredCache
+{
+    public static final String GZIP_SUFFIX = ".gz";
+    
+    private final FilesystemResolver fileResolver;
+    private final Cache<Path, Optional<Sidecar>> sidecars;
+    
+    @Inject
+    public SidecarFileCache(@Named(ConfigurationModule.PRECOMPRESSED_LOOKUP_TTL) final String lookupTtlMillis,
+            @Named(ConfigurationModule.METADATA_CACHE_MAX_ENTRIES) final String maxEntries,
+            final FilesystemResolver fileResolver)
+    {
+        this.fileResolver = fileResolver;
+        this.sidecars = CacheBuilder.newBuilder()
+                .maximumSize(Long.parseLong(maxEntries))
+                .expireAfterWrite(Long.parseLong(lookupTtlMillis), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+    
+    /**
+     * @param original path of the file as requested
+     * @return the gzip sidecar of the file, or null if it has none
+     */
+    public Sidecar get(final Path original) throws IOException
+    {
+        try
+        {
+            return sidecars.get(original, new Callable<Optional<Sidecar>>()
+            {
+                @Override public Optional<Sidecar> call() throws IOException
+                {
+                    return Optional.ofNullable(lookup(original));
+                }
+            }).orElse(null);
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+    
+    /**
+     * Forgets what is known about a file changing, whether it is an
+     * original or a sidecar.
+     */
+    public void invalidate(final Path path)
+    {
+        sidecars.invalidate(path);
+        final String name = path.toString();
+        if (name.endsWith(GZIP_SUFFIX))
+        {
+            sidecars.invalidate(Paths.get(name.substring(0, name.length() - GZIP_SUFFIX.length())));
+        }
+    }
+    
+    public void invalidateAll()
+    {
+        sidecars.invalidateAll();
+    }
+    
+    @Override
+    public CacheStats stats()
+    {
+        return sidecars.stats();
+    }
+    
+    @Override
+    public long size()
+    {
+        return sidecars.size();
+    }
+    
+    /**
+     * @return -1; the cache is bounded by entries, not bytes
+     */
+    @Override
+    public long bytes()
+    {
+        return -1;
+    }
+    
+    private Sidecar lookup(final Path original) throws IOException
+    {
+        final Path path = Paths.get(original.toString() + GZIP_SUFFIX);
+        final BasicFileAttributes attrs = fileResolver.readAttributesIfExists(path);
+        if (null == attrs || ! attrs.isRegularFile())
+        {
+            return null;
+        }
+        
+        final BasicFileAttributes originalAttrs = fileResolver.readAttributesIfExists(original);
+        if (null != originalAttrs && attrs.lastModifiedTime().compareTo(originalAttrs.lastModifiedTime()) < 0)
+        {
+            log.warn(String.format("Ignoring sidecar \"%s\"; it is older than the file it was built from", path));
+            return null;
+        }
+        return new Sidecar(path, attrs.size());
+    }
+    
+    @Value
+    public static class Sidecar
+    {
+        Path path;
+        long size;
+    }
+}
@@ -0,0 +1,104 @@
+package org.mvryan.http.response.filesys;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+
+/**
+ * Hands out fixed-size blocks carved from large direct buffers.  Slabs are
+ * allocated on demand until the capacity is reached and are never given
+ * back, so the off-heap footprint is bounded by the capacity and no
+ * direct buffer is ever left for the garbage collector to clean up.
+ */
+class SlabAllocator
+{
+    static final int SLAB_SIZE = 1024 * 1024;
+
+    @Getter
+    private final int blockSize;
+    @Getter
+    private final long capacity;
+    private final int slabSize;
+
+    private final Queue<ByteBuffer> freeBlocks = new ConcurrentLinkedQueue<>();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    SlabAllocator(final int blockSize, final long capacity)
+    {
+        this.blockSize = blockSize;
+        this.capacity = capacity;
+        this.slabSize = (int) Math.min(SLAB_SIZE, capacity - capacity % blockSize);
+    }
+
+    /**
+     * @return enough blocks to hold the given number of bytes, with the
+     *         last block's limit trimmed to fit, or null if the capacity
+     *         is exhausted
+     */
+    ByteBuffer[] allocate(final long bytes)
+    {
+        final int count = (int) ((bytes + blockSize - 1) / blockSize);
+        final ByteBuffer[] blocks = new ByteBuffer[count];
+        for (int i=0; i<count; i++)
+        {
+            ByteBuffer block = freeBlocks.poll();
+            if (null == block && grow())
+            {
+                block = freeBlocks.poll();
+            }
+            if (null == block)
+            {
+                release(blocks, i);
+                return null;
+            }
+            block.clear();
+            blocks[i] = block;
+        }
+        if (count > 0)
+        {
+            blocks[count-1].limit((int) (bytes - (long) (count-1) * blockSize));
+        }
+        usedBytes.addAndGet((long) count * blockSize);
+        return blocks;
+    }
+
+    void free(final ByteBuffer[] blocks)
+    {
+        usedBytes.addAndGet(-(long) blocks.length * blockSize);
+        release(blocks, blocks.length);
+    }
+
+    long getUsedBytes()
+    {
+        return usedBytes.get();
+    }
+
+    private void release(final ByteBuffer[] blocks, final int count)
+    {
+        for (int i=0; i<count; i++)
+        {
+            freeBlocks.add(blocks[i]);
+        }
+    }
+
+    private synchronized boolean grow()
+    {
+        if (0 == slabSize || reservedBytes.get() + slabSize > capacity)
+        {
+            return false;
+        }
+
+        final ByteBuffer slab = ByteBuffer.allocateDirect(slabSize);
+        for (int offset=0; offset + blockSize <= slabSize; offset += blockSize)
+        {
+            slab.limit(offset + blockSize).position(offset);
+            freeBlocks.add(slab.slice());
+        }
+        reservedBytes.addAndGet(slabSize);
+        return true;
+    }
+}
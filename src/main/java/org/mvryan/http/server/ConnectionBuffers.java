@@ -0,0 +1,41 @@
+package org.mvryan.http.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.ResponsePipeline;
+
+/**
+ * The buffers a connection reads requests into and encodes responses
+ * from.  Each {@link EventLoop} keeps a pool of them, so a busy loop
+ * reuses the buffers of closed connections instead of allocating new
+ * ones for every connection it accepts.
+ */
+@Getter
+@FieldDefaults(level=AccessLevel.PRIVATE)
+class ConnectionBuffers
+{
+    final ByteBuffer readBuffer = ByteBuffer.allocate(HttpRequest.MAX_HEAD_SIZE);
+    final HttpRequest request;
+    final ResponsePipeline pipeline;
+
+    ConnectionBuffers(final HttpRequest request, final ResponsePipeline pipeline)
+    {
+        this.request = request;
+        this.pipeline = pipeline;
+    }
+
+    /**
+     * Releases anything still queued, ready for another connection.
+     */
+    void reset() throws IOException
+    {
+        readBuffer.clear();
+        pipeline.close();
+    }
+}
@@ -0,0 +1,306 @@
+package org.mvryan.http.server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.ResponsePipeline;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.inject.Injector;
+
+/**
+ * A single-threaded selector loop that multiplexes many connections.
+ * Either one loop owns the listening channel and distributes accepted
+ * connections round-robin across all loops, or every loop has a
+ * listening channel of its own, bound with SO_REUSEPORT, and keeps the
+ * connections it accepts, so loops share nothing.
+ *
+ * Each loop pools the buffers of its closed connections for the next
+ * ones it takes on.  Responses are worked out on a pool of workers shared
+ * by all loops, so a slow file never holds up a loop's other connections.
+ */
+@Slf4j
+class EventLoop implements Runnable
+{
+    private final Selector selector;
+    private final Injector injector;
+    private final HttpResponseFactory factory;
+    private final Executor workers;
+    private final Metrics metrics;
+    private final TimingWheel timer;
+    private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Set<NioConnection> connections = Sets.newHashSet();
+    private final ArrayDeque<ConnectionBuffers> bufferPool = new ArrayDeque<>();
+
+    private List<EventLoop> peers = null;
+    private int nextPeer = 0;
+    private volatile boolean running = true;
+
+    /**
+     * Most connections' buffers kept for reuse; a burst of connections
+     * beyond this leaves the rest to the garbage collector
+     */
+    static final int MAX_POOLED_BUFFERS = 256;
+
+    EventLoop(final Injector injector, final TimingWheel timer, final Executor workers) throws IOException
+    {
+        this.injector = injector;
+        this.factory = injector.getInstance(HttpResponseFactory.class);
+        this.workers = workers;
+        this.metrics = injector.getInstance(Metrics.class);
+        this.timer = timer;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Accepts connections from the channel, handing them out to the
+     * peers in turn.  A loop that is its own only peer takes them on
+     * directly.
+     */
+    void accept(final ServerSocketChannel serverChannel, final List<EventLoop> peers) throws IOException
+    {
+        this.peers = peers;
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    void register(final SocketChannel channel)
+    {
+        newChannels.add(channel);
+        selector.wakeup();
+    }
+
+    /**
+     * Runs a task on this loop's thread; used by timer callbacks and
+     * workers, since connections may only be touched by the loop that
+     * owns them.
+     */
+    void execute(final Runnable task)
+    {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * @return connections accepted and tasks waiting to run on this loop
+     */
+    int getQueueDepth()
+    {
+        return newChannels.size() + tasks.size();
+    }
+
+    void connectionClosed(final NioConnection connection)
+    {
+        connections.remove(connection);
+    }
+
+    /**
+     * Returns a closed connection's buffers to the pool.
+     */
+    void release(final ConnectionBuffers buffers)
+    {
+        if (bufferPool.size() < MAX_POOLED_BUFFERS)
+        {
+            try
+            {
+                buffers.reset();
+                bufferPool.push(buffers);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                // Not pooled, since it may still hold part of a response
+                log.debug("Unable to release pending responses", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of connections' buffers waiting to be reused
+     */
+    int getPooledBuffers()
+    {
+        return bufferPool.size();
+    }
+
+    void stop()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (running)
+            {
+                selector.select();
+                registerNewChannels();
+                runTasks();
+
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (! key.isValid())
+                    {
+                        continue;
+                    }
+
+                    if (key.isAcceptable())
+                    {
+                        acceptConnections((ServerSocketChannel) key.channel());
+                    }
+                    else
+                    {
+                        final NioConnection connection = (NioConnection) key.attachment();
+                        if (key.isWritable())
+                        {
+                            connection.onWritable();
+                        }
+                        else if (key.isReadable())
+                        {
+                            connection.onReadable();
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.error("Event loop terminated unexpectedly", e);
+        }
+        finally
+        {
+            shutdown();
+        }
+    }
+
+    private void acceptConnections(final ServerSocketChannel serverChannel)
+    {
+        SocketChannel channel;
+        while (null != (channel = accept(serverChannel)))
+        {
+            final EventLoop target = peers.get(nextPeer);
+            nextPeer = (nextPeer + 1) % peers.size();
+            if (this == target)
+            {
+                open(channel);
+            }
+            else
+            {
+                target.register(channel);
+            }
+        }
+    }
+
+    private static SocketChannel accept(final ServerSocketChannel serverChannel)
+    {
+        try
+        {
+            return serverChannel.accept();
+        }
+        catch (IOException e)
+        {
+            // Such as running out of file descriptors; the connections
+            // already open carry on, and accepting is retried on the
+            // next select
+            log.warn("Unable to accept connection", e);
+            return null;
+        }
+    }
+
+    private void registerNewChannels()
+    {
+        SocketChannel channel;
+        while (null != (channel = newChannels.poll()))
+        {
+            open(channel);
+        }
+    }
+
+    private void open(final SocketChannel channel)
+    {
+        try
+        {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            final NioConnection connection = new NioConnection(this, timer, channel, key, factory, workers, metrics, takeBuffers());
+            key.attach(connection);
+            connections.add(connection);
+        }
+        catch (IOException e)
+        {
+            log.warn("Unable to register accepted connection", e);
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ce)
+            {
+                log.debug("Unable to close channel", ce);
+            }
+        }
+    }
+
+    private ConnectionBuffers takeBuffers()
+    {
+        final ConnectionBuffers buffers = bufferPool.poll();
+        return null != buffers ? buffers
+                : new ConnectionBuffers(injector.getInstance(HttpRequest.class), injector.getInstance(ResponsePipeline.class));
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while (null != (task = tasks.poll()))
+        {
+            try
+            {
+                task.run();
+            }
+            catch (RuntimeException e)
+            {
+                // A failed task must not take every connection on the loop with it
+                log.error("Event loop task failed", e);
+            }
+        }
+    }
+
+    private void shutdown()
+    {
+        for (final NioConnection connection : Lists.newArrayList(connections))
+        {
+            connection.close();
+        }
+        try
+        {
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            log.warn("Error trying to close selector", e);
+        }
+    }
+}
@@ -1,42 +1,131 @@
 package org.mvryan.http.server;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.mvryan.http.log.AccessLog;
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.modules.ConfigurationModule;
 import org.mvryan.http.modules.HttpServerModule;
 import org.mvryan.http.request.RequestHandler;
+import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.filesys.DocumentRootPreloader;
+import org.mvryan.http.response.filesys.DocumentRootWatcher;
 
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.name.Names;
 
 @Slf4j
 public class HttpServer implements Server
 {
-    private final ExecutorService pool = Executors.newCachedThreadPool();
-    private boolean keep_running = true;
-    private ServerSocket serverSocket;
-    
+    public static final String MODE_BLOCKING = "blocking";
+    public static final String MODE_NIO = "nio";
+
+    public static final String EXECUTOR_CACHED = "cached";
+    public static final String EXECUTOR_VIRTUAL = "virtual";
+
+    private ExecutorService pool = null;
+    private volatile boolean keep_running = true;
+    private ServerSocketChannel serverChannel;
+    private final List<ServerSocketChannel> loopChannels = Lists.newArrayList();
+    private final List<EventLoop> eventLoops = Lists.newArrayList();
+    private final List<Thread> ioThreads = Lists.newArrayList();
+    private ThreadPoolExecutor workers = null;
+    private TimingWheel timer = null;
+    private DocumentRootWatcher watcher = null;
+    private Metrics metrics = null;
+    private AccessLog accessLog = null;
+    private final Module module;
+
+    public HttpServer()
+    {
+        this(new HttpServerModule());
+    }
+
+    /**
+     * @param module the bindings to run with, usually an {@link HttpServerModule}
+     *        with some of its configuration overridden
+     */
+    public HttpServer(final Module module)
+    {
+        this.module = module;
+    }
+
     @Override
     public void start(int port)
     {
         try
         {
-            Injector injector = Guice.createInjector(new HttpServerModule());
-            serverSocket = new ServerSocket(port);
-            while (keep_running)
+            Injector injector = Guice.createInjector(module);
+            // Warm the caches before the first connection is accepted, and
+            // keep them fresh from then on
+            injector.getInstance(DocumentRootPreloader.class).preload();
+            watcher = injector.getInstance(DocumentRootWatcher.class);
+            watcher.start();
+            metrics = injector.getInstance(Metrics.class);
+            metrics.registerMBeans();
+            accessLog = injector.getInstance(AccessLog.class);
+            accessLog.start();
+            timer = new TimingWheel();
+
+            if (MODE_NIO.equalsIgnoreCase(getConfig(injector, ConfigurationModule.SERVER_MODE)))
+            {
+                startEventLoops(injector, port, Integer.parseInt(getConfig(injector, ConfigurationModule.IO_THREADS)),
+                        Integer.parseInt(getConfig(injector, ConfigurationModule.WORKER_THREADS)),
+                        Boolean.parseBoolean(getConfig(injector, ConfigurationModule.REUSEPORT_ENABLED)));
+            }
+            else
             {
-                pool.execute(new RequestHandler(serverSocket.accept(), injector));
+                pool = newExecutor(getConfig(injector, ConfigurationModule.EXECUTOR));
+                if (pool instanceof ThreadPoolExecutor)
+                {
+                    final ThreadPoolExecutor threadPool = (ThreadPoolExecutor) pool;
+                    metrics.setExecutorQueueDepth(new LongSupplier()
+                    {
+                        @Override public long getAsLong()
+                        {
+                            return threadPool.getQueue().size();
+                        }
+                    });
+                }
+                final HttpResponseFactory factory = injector.getInstance(HttpResponseFactory.class);
+                // Accept through a channel so handlers can send files
+                // with FileChannel.transferTo
+                serverChannel = ServerSocketChannel.open();
+                serverChannel.bind(new InetSocketAddress(port));
+                while (keep_running)
+                {
+                    pool.execute(new RequestHandler(serverChannel.accept().socket(), injector, factory, metrics, timer));
+                }
             }
             stop();
         }
         catch (IOException e)
         {
-            log.error(String.format("Unable to start server on port %d", port), e);
+            if (keep_running)
+            {
+                // Otherwise this is just accept() being interrupted by stop()
+                log.error(String.format("Unable to start server on port %d", port), e);
+                stop();
+            }
         }
     }
 
@@ -44,30 +133,191 @@ public class HttpServer implements Server
     public void stop()
     {
         keep_running = false;
-        if (! serverSocket.isClosed())
+        if (null != serverChannel && serverChannel.isOpen())
+        {
+            try
+            {
+                serverChannel.close();
+            }
+            catch (IOException e)
+            {
+                log.warn("Error trying to close server socket", e);
+            }
+        }
+        for (final ServerSocketChannel loopChannel : loopChannels)
         {
             try
             {
-                serverSocket.close();
+                loopChannel.close();
             }
             catch (IOException e)
             {
                 log.warn("Error trying to close server socket", e);
             }
         }
-        
-        pool.shutdown();
+        for (final EventLoop eventLoop : eventLoops)
+        {
+            eventLoop.stop();
+        }
+        if (null != workers)
+        {
+            workers.shutdownNow();
+        }
+        if (null != timer)
+        {
+            timer.stop();
+        }
+        if (null != watcher)
+        {
+            watcher.stop();
+        }
+        if (null != metrics)
+        {
+            metrics.unregisterMBeans();
+        }
+
+        if (null != pool)
+        {
+            pool.shutdown();
+            try
+            {
+                pool.awaitTermination(500, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                log.info("Error during threadpool shutdown", e);
+            }
+            if (! pool.isTerminated())
+            {
+                pool.shutdownNow();
+            }
+        }
+        // Last, so the lines of responses finished during shutdown are kept
+        if (null != accessLog)
+        {
+            accessLog.stop();
+        }
+    }
+
+    private static ExecutorService newExecutor(final String executor)
+    {
+        if (EXECUTOR_VIRTUAL.equalsIgnoreCase(executor))
+        {
+            try
+            {
+                // Looked up reflectively so the server still builds and runs
+                // on JVMs older than 21, which have no virtual threads.
+                final ExecutorService virtualPool = (ExecutorService)
+                        Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("Handling connections on virtual threads");
+                return virtualPool;
+            }
+            catch (ReflectiveOperationException e)
+            {
+                log.warn("Virtual threads are not available on this JVM; using a cached thread pool");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
+    private void startEventLoops(final Injector injector, int port, int ioThreadCount, int workerThreadCount, boolean reusePort) throws IOException
+    {
+        final int workerCount = Math.max(1, workerThreadCount);
+        workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat("http-worker-%d").setDaemon(true).build());
+        for (int i=0; i<Math.max(1, ioThreadCount); i++)
+        {
+            eventLoops.add(new EventLoop(injector, timer, workers));
+        }
+
+        metrics.setExecutorQueueDepth(new LongSupplier()
+        {
+            @Override public long getAsLong()
+            {
+                long depth = workers.getQueue().size();
+                for (final EventLoop eventLoop : eventLoops)
+                {
+                    depth += eventLoop.getQueueDepth();
+                }
+                return depth;
+            }
+        });
+
+        final SocketOption<Boolean> reusePortOption = reusePort ? getReusePortOption() : null;
+        if (null != reusePortOption)
+        {
+            // The kernel spreads incoming connections across the loops'
+            // listening channels, so no loop accepts on another's behalf
+            for (final EventLoop eventLoop : eventLoops)
+            {
+                final ServerSocketChannel loopChannel = ServerSocketChannel.open();
+                loopChannels.add(loopChannel);
+                loopChannel.setOption(reusePortOption, true);
+                loopChannel.bind(new InetSocketAddress(port));
+                eventLoop.accept(loopChannel, Collections.singletonList(eventLoop));
+            }
+        }
+        else
+        {
+            if (reusePort)
+            {
+                log.warn("SO_REUSEPORT is not available on this JVM or platform; accepting on one event loop");
+            }
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            eventLoops.get(0).accept(serverChannel, eventLoops);
+        }
+
+        for (int i=0; i<eventLoops.size(); i++)
+        {
+            final Thread ioThread = new Thread(eventLoops.get(i), "http-io-" + i);
+            ioThreads.add(ioThread);
+            ioThread.start();
+        }
+        log.info(String.format("Started %d event loop(s) on port %d%s", eventLoops.size(), port,
+                loopChannels.isEmpty() ? "" : ", each with its own listening socket"));
+
+        for (final Thread ioThread : ioThreads)
+        {
+            try
+            {
+                ioThread.join();
+            }
+            catch (InterruptedException e)
+            {
+                log.info("Interrupted waiting for event loops", e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Looked up reflectively, since SO_REUSEPORT only exists from Java 9,
+     * and checked against a channel, since not every platform has it.
+     *
+     * @return the option, or null if it can't be used
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() throws IOException
+    {
+        final SocketOption<Boolean> option;
         try
         {
-            pool.awaitTermination(500, TimeUnit.MILLISECONDS);
+            option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
         }
-        catch (InterruptedException e)
+        catch (ReflectiveOperationException e)
         {
-            log.info("Error during threadpool shutdown", e);
+            return null;
         }
-        if (! pool.isTerminated())
+        try (final ServerSocketChannel probe = ServerSocketChannel.open())
         {
-            pool.shutdownNow();
+            return probe.supportedOptions().contains(option) ? option : null;
         }
     }
+
+    private static String getConfig(final Injector injector, final String name)
+    {
+        return injector.getInstance(Key.get(String.class, Names.named(name)));
+    }
 }
@@ -0,0 +1,385 @@
+package org.mvryan.http.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.experimental.FieldDefaults;
+import lombok.extern.slf4j.Slf4j;
+
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.request.RequestHandler;
+import org.mvryan.http.response.HttpResponse;
+import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.ResponsePipeline;
+import org.mvryan.http.response.filesys.HttpResponseStrategy;
+import org.mvryan.http.server.TimingWheel.Timeout;
+
+/**
+ * State for one connection owned by an {@link EventLoop}.  Bytes are read
+ * into a per-connection buffer until a complete request head is present,
+ * each complete request is handed to the response strategy, and the
+ * serialized responses are drained to the channel in request order
+ * without blocking.  Only the owning event loop thread ever touches an
+ * instance.  The buffers come from the loop's pool and go back to it
+ * when the connection closes.
+ *
+ * The response strategy may stat, read or compress files, so it runs on
+ * a worker thread and its response is handed back to the loop, which
+ * only ever parses and writes.  While a worker has the request, the loop
+ * neither parses the next one into it nor reads from the channel.
+ */
+@Slf4j
+@FieldDefaults(level=AccessLevel.PRIVATE)
+class NioConnection
+{
+    final EventLoop eventLoop;
+    final TimingWheel timer;
+    final SocketChannel channel;
+    final SelectionKey key;
+    final HttpResponseFactory factory;
+    final Executor workers;
+    final Metrics metrics;
+    final ConnectionBuffers buffers;
+    final HttpRequest request;
+    final ResponsePipeline pipeline;
+    final ByteBuffer readBuffer;
+
+    boolean closeAfterWrite = false;
+    boolean active = false;
+    // A worker is working out the response to the current request
+    boolean dispatched = false;
+
+    @Getter
+    boolean closed = false;
+    Timeout idleTimeout;
+    Timeout maxTimeout = null;
+
+    NioConnection(final EventLoop eventLoop, final TimingWheel timer,
+            final SocketChannel channel, final SelectionKey key,
+            final HttpResponseFactory factory, final Executor workers,
+            final Metrics metrics, final ConnectionBuffers buffers)
+    {
+        this.eventLoop = eventLoop;
+        this.timer = timer;
+        this.channel = channel;
+        this.key = key;
+        this.factory = factory;
+        this.workers = workers;
+        this.metrics = metrics;
+        this.buffers = buffers;
+        this.request = buffers.getRequest();
+        this.pipeline = buffers.getPipeline();
+        this.readBuffer = buffers.getReadBuffer();
+        request.setRemoteAddress(channel.socket().getInetAddress().getHostAddress());
+        this.idleTimeout = timer.schedule(onLoop(idleExpired), RequestHandler.KEEPALIVE_TIMEOUT_SECONDS*1000);
+        metrics.connectionOpened();
+    }
+
+    final Runnable idleExpired = new Runnable()
+    {
+        @Override public void run()
+        {
+            expire("Keepalive timeout expired - socket closed", true);
+        }
+    };
+
+    final Runnable maxExpired = new Runnable()
+    {
+        @Override public void run()
+        {
+            expire("Max keepalive timeout expired - socket closed", false);
+        }
+    };
+
+    void onReadable()
+    {
+        try
+        {
+            if (channel.read(readBuffer) < 0)
+            {
+                close();
+                return;
+            }
+            processRequests();
+        }
+        catch (IOException e)
+        {
+            log.debug("Error reading from connection - closing", e);
+            close();
+        }
+        catch (RuntimeException e)
+        {
+            // Only this connection is lost, never the loop
+            log.error("Unexpected error handling connection - closing", e);
+            close();
+        }
+    }
+
+    void onWritable()
+    {
+        try
+        {
+            if (flush())
+            {
+                processRequests();
+            }
+        }
+        catch (IOException e)
+        {
+            log.debug("Error writing to connection - closing", e);
+            close();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unexpected error writing to connection - closing", e);
+            close();
+        }
+    }
+
+    private void expire(final String reason, final boolean idle)
+    {
+        if (closed)
+        {
+            return;
+        }
+        if (! pipeline.isEmpty() || dispatched)
+        {
+            // Never cut off a response that is still being worked out or written
+            final Runnable task = idle ? idleExpired : maxExpired;
+            final Timeout retry = timer.schedule(onLoop(task), idle ? RequestHandler.KEEPALIVE_TIMEOUT_SECONDS*1000 : TimingWheel.DEFAULT_TICK_MILLIS);
+            if (idle)
+            {
+                idleTimeout = retry;
+            }
+            else
+            {
+                maxTimeout = retry;
+            }
+            return;
+        }
+        close();
+        log.debug(reason);
+    }
+
+    private Runnable onLoop(final Runnable task)
+    {
+        // Timer callbacks run on the timer thread; hop back to our loop
+        return new Runnable()
+        {
+            @Override public void run()
+            {
+                eventLoop.execute(task);
+            }
+        };
+    }
+
+    void close()
+    {
+        if (! closed)
+        {
+            closed = true;
+            key.cancel();
+            idleTimeout.cancel();
+            if (null != maxTimeout)
+            {
+                maxTimeout.cancel();
+            }
+            eventLoop.connectionClosed(this);
+            idle();
+            metrics.connectionClosed();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                log.debug("Unable to close channel", e);
+            }
+            // Nothing may touch the buffers from here on; a worker still
+            // reading the request hands them back once it is done
+            if (! dispatched)
+            {
+                eventLoop.release(buffers);
+            }
+        }
+    }
+
+    private void processRequests() throws IOException
+    {
+        while (! closed)
+        {
+            // Queue a response for every complete request already read,
+            // up to the pipeline limit, then write them all at once
+            while (! closeAfterWrite && ! dispatched && ! pipeline.isFull())
+            {
+                readBuffer.flip();
+                final HttpResponseCode responseCode = request.parse(readBuffer);
+                readBuffer.compact();
+                if (null == responseCode)
+                {
+                    break;
+                }
+                if (! active)
+                {
+                    active = true;
+                    metrics.connectionActive();
+                }
+                handleRequest(responseCode);
+            }
+
+            if (dispatched || pipeline.isEmpty() || ! flush())
+            {
+                // Waiting for a response, for more of a request, or for
+                // the channel to drain; responses already queued go out
+                // together with the one being worked out
+                return;
+            }
+        }
+    }
+
+    private void handleRequest(HttpResponseCode responseCode)
+    {
+        try
+        {
+            if (responseCode.isError() || responseCode.isRedirect())
+            {
+                if (responseCode.isError())
+                {
+                    metrics.parseError();
+                }
+                respond(responseCode, Optional.empty(), true);
+                return;
+            }
+
+            workers.execute(new Runnable()
+            {
+                @Override public void run()
+                {
+                    determineResponse();
+                }
+            });
+            dispatched = true;
+            key.interestOps(0);
+        }
+        catch (Exception e)
+        {
+            log.error("Exception caught handling request", e);
+            respond(HttpResponseCode.INTERNAL_SERVER_ERROR, Optional.empty(), true);
+        }
+    }
+
+    /**
+     * Called on a worker thread, which has the request to itself until
+     * the response is handed back to the loop.
+     */
+    private void determineResponse()
+    {
+        HttpResponse response = null;
+        try
+        {
+            final HttpResponseStrategy responseStrategy = factory.getResponseStrategy(request);
+            response = responseStrategy.determineResponse(request);
+        }
+        catch (Exception e)
+        {
+            log.error("Exception caught handling request", e);
+        }
+
+        final HttpResponse determined = response;
+        eventLoop.execute(new Runnable()
+        {
+            @Override public void run()
+            {
+                onResponse(determined);
+            }
+        });
+    }
+
+    /**
+     * @param response the response worked out for the current request,
+     *        or null if working it out failed
+     */
+    private void onResponse(final HttpResponse response)
+    {
+        dispatched = false;
+        if (closed)
+        {
+            eventLoop.release(buffers);
+            return;
+        }
+
+        try
+        {
+            if (null == response)
+            {
+                respond(HttpResponseCode.INTERNAL_SERVER_ERROR, Optional.empty(), true);
+            }
+            else
+            {
+                final HttpResponseCode responseCode = response.getResponseCode();
+                respond(responseCode, Optional.of(response), responseCode.isError() || ! request.isKeepalive());
+            }
+            processRequests();
+        }
+        catch (IOException e)
+        {
+            log.debug("Error writing to connection - closing", e);
+            close();
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Unexpected error writing to connection - closing", e);
+            close();
+        }
+    }
+
+    private void respond(final HttpResponseCode responseCode,
+            final Optional<HttpResponse> response,
+            final boolean close)
+    {
+        pipeline.add(request, responseCode, response);
+        closeAfterWrite = close;
+
+        idleTimeout.reschedule(RequestHandler.KEEPALIVE_TIMEOUT_SECONDS*1000);
+        if (null == maxTimeout)
+        {
+            maxTimeout = timer.schedule(onLoop(maxExpired), RequestHandler.MAX_KEEPALIVE_TIMEOUT_SECONDS*1000);
+        }
+    }
+
+    private boolean flush() throws IOException
+    {
+        if (! pipeline.writeTo(channel))
+        {
+            // Socket send buffer is full; wait until the channel is writable
+            key.interestOps(SelectionKey.OP_WRITE);
+            return false;
+        }
+
+        if (closeAfterWrite)
+        {
+            close();
+            return false;
+        }
+        idle();
+        key.interestOps(SelectionKey.OP_READ);
+        return true;
+    }
+
+    private void idle()
+    {
+        if (active)
+        {
+            active = false;
+            metrics.connectionIdle();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.mvryan.http.server;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A hashed timing wheel for connection deadlines.  One thread serves every
+ * timeout in the server, and scheduling, rescheduling and cancelling are
+ * all O(1) and never block.  Expiry is accurate to one tick, which is
+ * plenty for keep-alive timeouts measured in seconds.
+ *
+ * Rescheduling only records the new deadline; a timeout stays in its
+ * bucket until the wheel reaches it and is then moved along or dropped.
+ * Each live timeout is therefore touched about once per revolution no
+ * matter how often it is pushed back, and a cancelled one is gone by its
+ * original deadline at the latest.
+ */
+@Slf4j
+public class TimingWheel
+{
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+
+    private long tick = 0;
+    private volatile boolean running = true;
+
+    public TimingWheel()
+    {
+        this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE);
+    }
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(final long tickMillis, final int wheelSize)
+    {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+
+        // Round up to a power of two so a tick maps to its bucket with a mask
+        final int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayDeque[size];
+        for (int i=0; i<size; i++)
+        {
+            buckets[i] = new ArrayDeque<>();
+        }
+
+        worker = new Thread(new Runnable()
+        {
+            @Override public void run()
+            {
+                runWheel();
+            }
+        }, "http-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs the task on the timer thread once the delay has passed, unless
+     * the timeout is cancelled first.  Tasks must be quick and must not
+     * block; anything slow should be handed off to another thread.
+     */
+    public Timeout schedule(final Runnable task, final long delayMillis)
+    {
+        final Timeout timeout = new Timeout(task, deadline(delayMillis));
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    public void stop()
+    {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void runWheel()
+    {
+        while (running)
+        {
+            final long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0)
+            {
+                try
+                {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                }
+                catch (InterruptedException e)
+                {
+                    continue;
+                }
+            }
+
+            Timeout timeout;
+            while (null != (timeout = newTimeouts.poll()))
+            {
+                place(timeout, tick);
+            }
+
+            final int index = (int) (tick & mask);
+            final ArrayDeque<Timeout> bucket = buckets[index];
+            buckets[index] = new ArrayDeque<>();
+            final long now = System.nanoTime();
+            while (null != (timeout = bucket.poll()))
+            {
+                if (timeout.cancelled)
+                {
+                    continue;
+                }
+                if (timeout.deadline - now <= 0)
+                {
+                    timeout.expire();
+                }
+                else
+                {
+                    // Pushed back since it was placed
+                    place(timeout, tick + 1);
+                }
+            }
+            tick++;
+        }
+    }
+
+    private void place(final Timeout timeout, final long earliestTick)
+    {
+        // Never place behind the wheel, or anything already due would wait
+        // a whole revolution
+        final long dueTick = Math.max((timeout.deadline - startNanos) / tickNanos, earliestTick);
+        buckets[(int) (dueTick & mask)].add(timeout);
+    }
+
+    private static long deadline(final long delayMillis)
+    {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    public static class Timeout
+    {
+        private final Runnable task;
+        private volatile long deadline;
+        private volatile boolean cancelled = false;
+        private volatile boolean expired = false;
+
+        private Timeout(final Runnable task, final long deadline)
+        {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Moves the deadline to the given delay from now.  The new deadline
+         * must not be earlier than the current one.  Has no effect once
+         * the timeout has expired.
+         */
+        public void reschedule(final long delayMillis)
+        {
+            deadline = deadline(delayMillis);
+        }
+
+        public void cancel()
+        {
+            cancelled = true;
+        }
+
+        public boolean isExpired()
+        {
+            return expired;
+        }
+
+        private void expire()
+        {
+            expired = true;
+            try
+            {
+                task.run();
+            }
+            catch (Throwable t)
+            {
+                log.warn("Timer task failed", t);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.mvryan.http.log;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.server.HttpServer;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+public class AccessLogTest
+{
+    private static final String DATE = "\\[\\d{2}/\\w{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4}\\]";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Metrics metrics = new Metrics(ImmutableMap.<String, MeteredCache>of());
+
+    @Test
+    public void testCombinedFormat() throws IOException
+    {
+        final File file = folder.newFile("access.log");
+        final AccessLog sut = accessLog(file, AccessLog.FORMAT_COMBINED);
+        sut.start();
+
+        final HttpRequest request = request("GET /test.html HTTP/1.1\r\nHost: localhost\r\nReferer: http://localhost/\r\n"
+                + "User-Agent: Agent \"X\"\r\n\r\n");
+        request.setRemoteAddress("127.0.0.1");
+        sut.log(request, HttpResponseCode.OK, 1234);
+        sut.log(request("GET /missing.html HTTP/1.1\r\nHost: localhost\r\n\r\n"), HttpResponseCode.FILE_NOT_FOUND, 0);
+        sut.stop();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("127\\.0\\.0\\.1 - - " + DATE
+                + " \"GET /test\\.html HTTP/1\\.1\" 200 1234 \"http://localhost/\" \"Agent \\\\x22X\\\\x22\""));
+        assertTrue(lines.get(1), lines.get(1).matches("- - - " + DATE + " \"GET /missing\\.html HTTP/1\\.1\" 404 - \"-\" \"-\""));
+    }
+
+    @Test
+    public void testCommonFormat() throws IOException
+    {
+        final File file = folder.newFile("access.log");
+        final AccessLog sut = accessLog(file, AccessLog.FORMAT_COMMON);
+        sut.start();
+        sut.log(request("HEAD / HTTP/1.1\r\nHost: localhost\r\nUser-Agent: Agent\r\n\r\n"), HttpResponseCode.OK, 0);
+        sut.stop();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(1, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("- - - " + DATE + " \"HEAD / HTTP/1\\.1\" 200 -"));
+    }
+
+    @Test
+    public void testLongLinesCut() throws IOException
+    {
+        final File file = folder.newFile("access.log");
+        final AccessLog sut = accessLog(file, AccessLog.FORMAT_COMBINED);
+        sut.start();
+        sut.log(request("GET /" + Strings.repeat("a", 2000) + " HTTP/1.1\r\nHost: localhost\r\nUser-Agent: " + Strings.repeat("b", 2000)
+                + "\r\n\r\n"), HttpResponseCode.REQUEST_URI_TOO_LONG, 0);
+        sut.stop();
+
+        final List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+        assertEquals(1, lines.size());
+        assertEquals(AccessLog.RECORD_SIZE - 1, lines.get(0).length());
+        assertTrue(lines.get(0), lines.get(0).contains("aaaa\" 414 - \"-\" \"bbbb"));
+        assertTrue(lines.get(0), lines.get(0).endsWith("bbbb\""));
+    }
+
+    @Test
+    public void testNothingLoggedUntilStarted() throws IOException
+    {
+        final File file = folder.newFile("access.log");
+        final AccessLog sut = accessLog(file, AccessLog.FORMAT_COMBINED);
+        sut.log(request("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n"), HttpResponseCode.OK, 10);
+        sut.start();
+        sut.stop();
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void testNeverBlocksEventLoops() throws IOException
+    {
+        final String file = folder.newFile("access.log").getAbsolutePath();
+        assertTrue(new AccessLog(file, "combined", "16", AccessLog.FULL_POLICY_BLOCK, HttpServer.MODE_BLOCKING, "1000", "0", "0", metrics).isBlocking());
+        assertFalse(new AccessLog(file, "combined", "16", AccessLog.FULL_POLICY_BLOCK, HttpServer.MODE_NIO, "1000", "0", "0", metrics).isBlocking());
+    }
+
+    @Test
+    public void testRotatesBySize() throws IOException
+    {
+        final Path path = folder.getRoot().toPath().resolve("access.log");
+        try (final AccessLogFile sut = new AccessLogFile(path, 10, 2))
+        {
+            for (int i=0; i<4; i++)
+            {
+                sut.write(ByteBuffer.wrap(("line " + i + "\n").getBytes(StandardCharsets.US_ASCII)));
+            }
+            assertEquals("line 3\n", read(path));
+            assertEquals("line 2\n", read(sut.rotated(1)));
+            assertEquals("line 1\n", read(sut.rotated(2)));
+            assertFalse(Files.exists(sut.rotated(3)));
+        }
+    }
+
+    private AccessLog accessLog(final File file, final String format)
+    {
+        return new AccessLog(file.getAbsolutePath(), format, "16", AccessLog.FULL_POLICY_DROP, HttpServer.MODE_BLOCKING, "1000", "0", "0", metrics);
+    }
+
+    private static HttpRequest request(final String head)
+    {
+        final HttpRequest request = new HttpRequest();
+        final ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.MAX_HEAD_SIZE);
+        buffer.put(head.getBytes(StandardCharsets.ISO_8859_1)).flip();
+        request.parse(buffer);
+        return request;
+    }
+
+    private static String read(final Path path) throws IOException
+    {
+        return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+    }
+}
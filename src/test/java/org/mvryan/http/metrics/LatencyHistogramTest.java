@@ -0,0 +1,67 @@
+package org.mvryan.http.metrics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+    private final LatencyHistogram sut = new LatencyHistogram();
+
+    @Test
+    public void testEmpty()
+    {
+        assertEquals(0, sut.getCount());
+        assertEquals(0, sut.getMeanMillis(), 0);
+        assertEquals(0, sut.getP99Millis(), 0);
+    }
+
+    @Test
+    public void testCountsIntoBuckets()
+    {
+        sut.record(TimeUnit.MICROSECONDS.toNanos(50));
+        sut.record(TimeUnit.MICROSECONDS.toNanos(100));
+        sut.record(TimeUnit.MILLISECONDS.toNanos(3));
+        sut.record(TimeUnit.SECONDS.toNanos(30));
+
+        final long[] counts = sut.snapshot();
+        assertEquals(LatencyHistogram.BOUNDS_SECONDS.length + 1, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[5]);
+        assertEquals(1, counts[counts.length-1]);
+        assertEquals(4, sut.getCount());
+        assertEquals(30.00315, sut.getSumSeconds(), 1e-9);
+    }
+
+    @Test
+    public void testPercentilesInterpolateWithinBucket()
+    {
+        for (int i=0; i<100; i++)
+        {
+            sut.record(TimeUnit.MICROSECONDS.toNanos(600));
+        }
+        // All in the 0.5ms - 1ms bucket
+        assertEquals(0.75, sut.getP50Millis(), 1e-9);
+        assertEquals(0.995, sut.getP99Millis(), 1e-9);
+        assertEquals(0.6, sut.getMeanMillis(), 1e-9);
+    }
+
+    @Test
+    public void testPercentileInUnboundedBucket()
+    {
+        sut.record(TimeUnit.SECONDS.toNanos(20));
+        assertEquals(10000, sut.getP999Millis(), 0);
+    }
+
+    @Test
+    public void testBoundLabels()
+    {
+        final String[] labels = LatencyHistogram.getBoundLabels();
+        assertEquals("0.0001", labels[0]);
+        assertEquals("1", labels[12]);
+        assertArrayEquals(new String[] { "2.5", "5", "10" }, new String[] { labels[13], labels[14], labels[15] });
+    }
+}
@@ -0,0 +1,109 @@
+package org.mvryan.http.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponse;
+import org.mvryan.http.response.HttpResponseCode;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableMap;
+
+public class StatusResponseStrategyTest
+{
+    private Metrics metrics = null;
+    private StatusResponseStrategy sut = null;
+
+    @Before
+    public void before()
+    {
+        metrics = new Metrics(ImmutableMap.<String, MeteredCache>of("content", new TestCache(42), "metadata", new TestCache(-1)));
+        sut = new StatusResponseStrategy(metrics);
+    }
+
+    @Test
+    public void testServesMetrics() throws MalformedURLException
+    {
+        final HttpResponse response = sut.determineResponse(request("/_status"));
+        assertEquals(HttpResponseCode.OK, response.getResponseCode());
+        assertEquals(StatusResponseStrategy.CONTENT_TYPE_PROMETHEUS, response.getContentType());
+    }
+
+    @Test
+    public void testOtherPathsNotFound() throws MalformedURLException
+    {
+        assertEquals(HttpResponseCode.FILE_NOT_FOUND, sut.determineResponse(request("/_status/x")).getResponseCode());
+    }
+
+    @Test
+    public void testRendersPrometheusText()
+    {
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionActive();
+        metrics.parseError();
+        metrics.responseSent(HttpResponseCode.OK, TimeUnit.MILLISECONDS.toNanos(2), 100);
+        metrics.responseSent(HttpResponseCode.BAD_REQUEST, TimeUnit.MILLISECONDS.toNanos(20), 50);
+
+        final String text = sut.render();
+        assertTrue(text.contains("# TYPE simple_http_request_duration_seconds histogram\n"));
+        assertTrue(text.contains("simple_http_request_duration_seconds_bucket{status=\"2xx\",le=\"0.001\"} 0\n"));
+        assertTrue(text.contains("simple_http_request_duration_seconds_bucket{status=\"2xx\",le=\"0.0025\"} 1\n"));
+        assertTrue(text.contains("simple_http_request_duration_seconds_bucket{status=\"2xx\",le=\"+Inf\"} 1\n"));
+        assertTrue(text.contains("simple_http_request_duration_seconds_count{status=\"4xx\"} 1\n"));
+        assertTrue(text.contains("simple_http_request_duration_seconds_count{status=\"5xx\"} 0\n"));
+        assertTrue(text.contains("simple_http_response_bytes_total 150\n"));
+        assertTrue(text.contains("simple_http_parse_errors_total 1\n"));
+        assertTrue(text.contains("simple_http_connections_accepted_total 2\n"));
+        assertTrue(text.contains("simple_http_connections{state=\"active\"} 1\n"));
+        assertTrue(text.contains("simple_http_connections{state=\"idle\"} 1\n"));
+        assertTrue(text.contains("simple_http_cache_entries{cache=\"content\"} 3\n"));
+        assertTrue(text.contains("simple_http_cache_bytes{cache=\"content\"} 42\n"));
+        assertTrue(! text.contains("simple_http_cache_bytes{cache=\"metadata\"}"));
+    }
+
+    private static HttpRequest request(final String path) throws MalformedURLException
+    {
+        final HttpRequest request = mock(HttpRequest.class);
+        when(request.getUri()).thenReturn(new URL("http://localhost" + path));
+        return request;
+    }
+
+    private static class TestCache implements MeteredCache
+    {
+        private final long bytes;
+
+        TestCache(final long bytes)
+        {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public CacheStats stats()
+        {
+            return CacheBuilder.newBuilder().recordStats().build().stats();
+        }
+
+        @Override
+        public long size()
+        {
+            return 3;
+        }
+
+        @Override
+        public long bytes()
+        {
+            return bytes;
+        }
+    }
+}
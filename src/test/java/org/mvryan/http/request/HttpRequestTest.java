@@ -2,12 +2,15 @@ package org.mvryan.http.request;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -122,6 +125,73 @@ public class HttpRequestTest
         assertTrue("http://localhost/get/test/test.html".equals(sut.getUri().toString()));
     }
     
+    @Test
+    public void testHeadersClearedBetweenRequests() throws IOException
+    {
+        final Map<String, String> m = Maps.newHashMap(noKeepaliveHeaders);
+        m.put("X-Extra", "extra");
+        sut.parse(new GetMsg("/get/test/test.html", m).getInputStream());
+        assertEquals("extra", sut.getHeader("X-Extra"));
+        sut.parse(STD_GET.getInputStream());
+        assertNull(sut.getHeader("X-Extra"));
+        assertTrue(equalMap(STD_GET.getHeaders(), sut.getHeaders()));
+    }
+    
+    @Test
+    public void testHeaderNamesCaseInsensitive() throws IOException
+    {
+        sut.parse(STD_GET.getInputStream());
+        assertEquals("localhost", sut.getHeader("host"));
+        assertEquals("keep-alive", sut.getHeader("CONNECTION"));
+    }
+    
+    @Test
+    public void testEndOfStreamBetweenRequests() throws IOException
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.MAX_HEAD_SIZE);
+        assertNull(sut.parse(new ByteArrayInputStream(new byte[0]), buffer));
+    }
+    
+    @Test
+    public void testIncompleteHead()
+    {
+        final String request = STD_GET.toString();
+        final ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.MAX_HEAD_SIZE);
+        buffer.put(request.substring(0, request.length() - 2).getBytes(StandardCharsets.US_ASCII)).flip();
+        assertNull(sut.parse(buffer));
+        assertEquals(0, buffer.position());
+        
+        buffer.compact();
+        buffer.put("\r\n".getBytes(StandardCharsets.US_ASCII)).flip();
+        assertEquals(HttpResponseCode.OK, sut.parse(buffer));
+        assertFalse(buffer.hasRemaining());
+    }
+    
+    @Test
+    public void testPipelinedRequests()
+    {
+        final ByteBuffer buffer = ByteBuffer.wrap((FULL_URI_GET.toString() + NO_KEEPALIVE_GET.toString()).getBytes(StandardCharsets.US_ASCII));
+        assertEquals(HttpResponseCode.OK, sut.parse(buffer));
+        assertTrue(sut.isKeepalive());
+        assertEquals(HttpResponseCode.OK, sut.parse(buffer));
+        assertFalse(sut.isKeepalive());
+        assertFalse(buffer.hasRemaining());
+    }
+    
+    @Test
+    public void testHeadTooLarge()
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate(HttpRequest.MAX_HEAD_SIZE);
+        final byte[] request = STD_GET.toString().getBytes(StandardCharsets.US_ASCII);
+        buffer.put(request, 0, request.length - 2);
+        while (buffer.hasRemaining())
+        {
+            buffer.put((byte) 'x');
+        }
+        buffer.flip();
+        assertEquals(HttpResponseCode.BAD_REQUEST, sut.parse(buffer));
+    }
+    
     
     private boolean equalMap(final Map<String, String> lhs, final Map<String, String> rhs)
     {
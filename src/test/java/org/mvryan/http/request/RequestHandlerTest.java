@@ -0,0 +1,148 @@
+package org.mvryan.http.request;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.metrics.Metrics;
+import org.mvryan.http.modules.HttpServerModule;
+import org.mvryan.http.response.HttpResponse;
+import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.ResponseBody;
+import org.mvryan.http.response.filesys.HttpResponseStrategy;
+import org.mvryan.http.server.TimingWheel;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Guice;
+
+public class RequestHandlerTest
+{
+    private final TimingWheel timer = new TimingWheel();
+    private ServerSocketChannel serverChannel = null;
+
+    @Before
+    public void before() throws IOException
+    {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void after() throws IOException
+    {
+        serverChannel.close();
+        timer.stop();
+    }
+
+    @Test
+    public void testFailedResponseAnsweredWithError() throws Exception
+    {
+        final String response = exchange(new HttpResponseStrategy()
+        {
+            @Override public HttpResponse determineResponse(final HttpRequest request)
+            {
+                throw new IllegalStateException("Strategy failure");
+            }
+        });
+        assertTrue(response, response.startsWith("HTTP/1.1 500 "));
+    }
+
+    @Test
+    public void testFailedWriteClosesWithoutError() throws Exception
+    {
+        final String response = exchange(new HttpResponseStrategy()
+        {
+            @Override public HttpResponse determineResponse(final HttpRequest request)
+            {
+                return new FailingResponse();
+            }
+        });
+        // The head already sent is all the client sees before the socket closes
+        assertTrue(response, response.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(response, response.endsWith("\r\n\r\n"));
+        assertFalse(response, response.contains(" 500 "));
+    }
+
+    private String exchange(final HttpResponseStrategy strategy) throws Exception
+    {
+        try (final Socket socket = new Socket())
+        {
+            socket.connect(serverChannel.getLocalAddress());
+            socket.setSoTimeout(2000);
+            final Thread handler = new Thread(new RequestHandler(serverChannel.accept().socket(),
+                    Guice.createInjector(new HttpServerModule()),
+                    new HttpResponseFactory(ImmutableMap.of(HttpResponseFactory.ROOT, strategy)),
+                    new Metrics(ImmutableMap.<String, MeteredCache>of()),
+                    timer));
+            handler.start();
+
+            socket.getOutputStream().write("GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            final InputStream in = socket.getInputStream();
+            final StringBuilder response = new StringBuilder();
+            int b;
+            while (-1 != (b = in.read()))
+            {
+                response.append((char) b);
+            }
+            handler.join(2000);
+            assertFalse(handler.isAlive());
+            return response.toString();
+        }
+    }
+
+    private static class FailingResponse implements HttpResponse
+    {
+        @Override public HttpResponseCode getResponseCode()
+        {
+            return HttpResponseCode.OK;
+        }
+
+        @Override public byte[] getResponsePayload()
+        {
+            return null;
+        }
+
+        @Override public String getContentType()
+        {
+            return "text/plain";
+        }
+
+        @Override public ResponseBody getResponseBody()
+        {
+            return new ResponseBody()
+            {
+                @Override public long getContentLength()
+                {
+                    return 10;
+                }
+
+                @Override public Transfer open() throws IOException
+                {
+                    return new Transfer()
+                    {
+                        @Override public boolean transferTo(final WritableByteChannel target) throws IOException
+                        {
+                            throw new IOException("Body failure");
+                        }
+
+                        @Override public void close()
+                        {
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.mvryan.http.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mvryan.http.response.ResponseBodies.read;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class ChunkedBodyTest
+{
+    @Test
+    public void testSmallBody() throws IOException
+    {
+        final String encoded = read(body("Test ", "Content"));
+        assertEquals("000c\r\nTest Content\r\n0\r\n\r\n", encoded);
+    }
+    
+    @Test
+    public void testEmptyBody() throws IOException
+    {
+        assertEquals("0\r\n\r\n", read(body()));
+    }
+    
+    @Test
+    public void testLargeBodySpansChunks() throws IOException
+    {
+        final String large = Strings.repeat("x", ChunkedBody.BUFFER_SIZE * 3);
+        final String encoded = read(body("start", large, "", "end"));
+        assertEquals("start" + large + "end", decode(encoded));
+        assertTrue(encoded.startsWith(Integer.toHexString(ChunkedBody.BUFFER_SIZE - 13) + "\r\nstart"));
+    }
+    
+    @Test
+    public void testResumesAfterPartialWrites() throws IOException
+    {
+        final String large = Strings.repeat("y", ChunkedBody.BUFFER_SIZE * 2 + 100);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final WritableByteChannel trickle = new WritableByteChannel()
+        {
+            final WritableByteChannel target = Channels.newChannel(os);
+            
+            @Override
+            public int write(final ByteBuffer src) throws IOException
+            {
+                // Accept at most 1000 bytes per call, like a full socket
+                final ByteBuffer slice = src.duplicate();
+                slice.limit(slice.position() + Math.min(1000, slice.remaining()));
+                final int n = target.write(slice);
+                src.position(src.position() + n);
+                return n;
+            }
+            
+            @Override public boolean isOpen() { return true; }
+            @Override public void close() { }
+        };
+        
+        int calls = 0;
+        try (final ResponseBody.Transfer transfer = body(large).open())
+        {
+            while (! transfer.transferTo(trickle))
+            {
+                calls++;
+            }
+        }
+        assertTrue(calls > 10);
+        assertEquals(large, decode(new String(os.toByteArray(), StandardCharsets.US_ASCII)));
+    }
+    
+    @Test
+    public void testUnknownLength()
+    {
+        assertTrue(body("Test").getContentLength() < 0);
+        assertTrue(new CompositeBody(Arrays.asList(new BufferBody(new byte[1]), body("Test"))).getContentLength() < 0);
+    }
+    
+    private static ChunkedBody body(final String... pieces)
+    {
+        final List<String> list = Arrays.asList(pieces);
+        return new ChunkedBody()
+        {
+            @Override
+            protected Source openSource()
+            {
+                final Iterator<String> it = list.iterator();
+                return new Source()
+                {
+                    @Override
+                    public byte[] next()
+                    {
+                        return it.hasNext() ? it.next().getBytes(StandardCharsets.US_ASCII) : null;
+                    }
+                };
+            }
+        };
+    }
+    
+    private static String decode(final String encoded)
+    {
+        final StringBuilder sb = new StringBuilder();
+        int pos = 0;
+        while (true)
+        {
+            final int eol = encoded.indexOf("\r\n", pos);
+            final int size = Integer.parseInt(encoded.substring(pos, eol), 16);
+            if (0 == size)
+            {
+                assertEquals("\r\n", encoded.substring(eol + 2));
+                return sb.toString();
+            }
+            sb.append(encoded, eol + 2, eol + 2 + size);
+            assertEquals("\r\n", encoded.substring(eol + 2 + size, eol + 4 + size));
+            pos = eol + 4 + size;
+        }
+    }
+}
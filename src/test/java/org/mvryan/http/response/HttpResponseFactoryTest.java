@@ -1,5 +1,6 @@
 package org.mvryan.http.response;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -9,29 +10,25 @@ import java.net.URL;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
-import org.mvryan.http.modules.ConfigurationModule;
+import org.mvryan.http.modules.HttpServerModule;
 import org.mvryan.http.request.HttpRequest;
-import org.mvryan.http.response.filesys.FilesystemResponseStrategy;
 import org.mvryan.http.response.filesys.FilesystemHttpResponse;
 import org.mvryan.http.response.filesys.HttpResponseStrategy;
 
-import com.google.inject.AbstractModule;
+import com.google.common.collect.ImmutableMap;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 
 public class HttpResponseFactoryTest
 {
-    private final Injector injector = Guice.createInjector(new AbstractModule()
-    {
-        @Override protected void configure()
-        {
-            install(new ConfigurationModule());
-            bind(HttpResponseStrategy.class).to(FilesystemResponseStrategy.class);
-        }
-    });
+    private final Injector injector = Guice.createInjector(new HttpServerModule());
     
     private static final HttpRequest mockRequest = mock(HttpRequest.class);
     
+    private final HttpResponseStrategy rootStrategy = mock(HttpResponseStrategy.class);
+    private final HttpResponseStrategy apiStrategy = mock(HttpResponseStrategy.class);
+    private final HttpResponseStrategy apiV2Strategy = mock(HttpResponseStrategy.class);
+    
     @BeforeClass
     public static void beforeClass() throws MalformedURLException
     {
@@ -45,4 +42,48 @@ public class HttpResponseFactoryTest
         final HttpResponse response = sut.getResponseStrategy(mockRequest).determineResponse(mockRequest);
         assertTrue(response instanceof FilesystemHttpResponse);
     }
+    
+    @Test
+    public void testStrategiesWiredOnce()
+    {
+        final HttpResponseFactory sut = injector.getInstance(HttpResponseFactory.class);
+        assertSame(sut, injector.getInstance(HttpResponseFactory.class));
+        assertSame(sut.getResponseStrategy(mockRequest), sut.getResponseStrategy(mockRequest));
+    }
+    
+    @Test
+    public void testLongestPrefixMatch()
+    {
+        final HttpResponseFactory sut = new HttpResponseFactory(ImmutableMap.of(
+                "/", rootStrategy, "/api", apiStrategy, "/api/v2/", apiV2Strategy));
+        assertSame(rootStrategy, sut.lookup("/"));
+        assertSame(rootStrategy, sut.lookup(""));
+        assertSame(rootStrategy, sut.lookup("/index.html"));
+        assertSame(apiStrategy, sut.lookup("/api"));
+        assertSame(apiStrategy, sut.lookup("/api/"));
+        assertSame(apiStrategy, sut.lookup("/api/v1/users"));
+        assertSame(apiV2Strategy, sut.lookup("/api/v2"));
+        assertSame(apiV2Strategy, sut.lookup("/api/v2/users"));
+    }
+    
+    @Test
+    public void testMatchesWholeSegments()
+    {
+        final HttpResponseFactory sut = new HttpResponseFactory(ImmutableMap.of("/", rootStrategy, "api", apiStrategy));
+        assertSame(rootStrategy, sut.lookup("/apix"));
+        assertSame(rootStrategy, sut.lookup("/ap"));
+        assertSame(apiStrategy, sut.lookup("/api/x"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testRootRouteRequired()
+    {
+        new HttpResponseFactory(ImmutableMap.of("/api", apiStrategy));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateRouteRejected()
+    {
+        new HttpResponseFactory(ImmutableMap.of("/", rootStrategy, "/api", apiStrategy, "/api/", apiV2Strategy));
+    }
 }
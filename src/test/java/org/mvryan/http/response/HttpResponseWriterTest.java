@@ -0,0 +1,145 @@
+package org.mvryan.http.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mvryan.http.request.HttpRequest;
+
+public class HttpResponseWriterTest
+{
+    private final HttpRequest mockRequest = mock(HttpRequest.class);
+    private final HttpResponse mockResponse = mock(HttpResponse.class);
+    
+    @Before
+    public void before()
+    {
+        when(mockRequest.getMethod()).thenReturn(HttpRequest.METHOD_GET);
+        when(mockRequest.isKeepalive()).thenReturn(true);
+        when(mockResponse.getResponseCode()).thenReturn(HttpResponseCode.OK);
+        when(mockResponse.getContentType()).thenReturn("text/html");
+        when(mockResponse.getResponseBody()).thenReturn(new BufferBody("Test Content".getBytes()));
+    }
+    
+    @Test
+    public void testHeadFormat() throws IOException
+    {
+        final String[] lines = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.OK, Optional.of(mockResponse))).split("\r\n", -1);
+        assertEquals("HTTP/1.1 200 OK", lines[0]);
+        assertTrue(lines[1], lines[1].matches("Date: (Mon|Tue|Wed|Thu|Fri|Sat|Sun), \\d{2} [A-Z][a-z]{2} \\d{4} \\d{2}:\\d{2}:\\d{2} GMT"));
+        assertEquals("Server: " + HttpResponseWriter.SERVER, lines[2]);
+        assertEquals("Connection: keep-alive", lines[3]);
+        assertTrue(lines[4].startsWith("Keep-Alive: timeout="));
+        assertEquals("Content-Length: 12", lines[5]);
+        assertEquals("Content-Type: text/html", lines[6]);
+        assertEquals("", lines[7]);
+        assertEquals("Test Content", lines[8]);
+    }
+    
+    @Test
+    public void testHeadRequestHasLengthButNoBody() throws IOException
+    {
+        when(mockRequest.getMethod()).thenReturn(HttpRequest.METHOD_HEAD);
+        final String response = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.OK, Optional.of(mockResponse)));
+        assertTrue(response.contains("\r\nContent-Length: 12\r\n"));
+        assertTrue(response.endsWith("\r\n\r\n"));
+    }
+    
+    @Test
+    public void testErrorWithoutBody() throws IOException
+    {
+        when(mockRequest.isKeepalive()).thenReturn(false);
+        final String response = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.BAD_REQUEST, Optional.empty()));
+        assertTrue(response.startsWith("HTTP/1.1 400 Bad Request\r\n"));
+        assertTrue(response.contains("\r\nConnection: close\r\n"));
+        assertTrue(response.endsWith("\r\nContent-Length: 0\r\n\r\n"));
+        assertFalse(response.contains("Content-Type"));
+    }
+    
+    @Test
+    public void testNotModifiedHasValidatorsButNoContentHeaders() throws IOException
+    {
+        when(mockResponse.getResponseBody()).thenReturn(null);
+        when(mockResponse.getETag()).thenReturn("\"c-1\"");
+        when(mockResponse.getLastModified()).thenReturn("Sun, 06 Nov 1994 08:49:37 GMT");
+        final String response = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.NOT_MODIFIED, Optional.of(mockResponse)));
+        assertTrue(response.startsWith("HTTP/1.1 304 Not Modified\r\n"));
+        assertTrue(response.endsWith("\r\nETag: \"c-1\"\r\nLast-Modified: Sun, 06 Nov 1994 08:49:37 GMT\r\n\r\n"));
+        assertFalse(response.contains("Content-"));
+    }
+    
+    @Test
+    public void testChunkedBody() throws IOException
+    {
+        when(mockResponse.getResponseBody()).thenReturn(new ChunkedBody()
+        {
+            @Override
+            protected Source openSource()
+            {
+                return new Source()
+                {
+                    boolean sent = false;
+                    
+                    @Override
+                    public byte[] next()
+                    {
+                        final byte[] piece = sent ? null : "Test Content".getBytes();
+                        sent = true;
+                        return piece;
+                    }
+                };
+            }
+        });
+        final String response = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.OK, Optional.of(mockResponse)));
+        assertTrue(response.contains("\r\nTransfer-Encoding: chunked\r\n"));
+        assertFalse(response.contains("Content-Length"));
+        assertTrue(response.endsWith("\r\n\r\n000c\r\nTest Content\r\n0\r\n\r\n"));
+    }
+    
+    @Test
+    public void testHeadsShareBuffer() throws IOException
+    {
+        final ByteBuffer headBuffer = ByteBuffer.allocate(1024);
+        final String first = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.OK, Optional.of(mockResponse), headBuffer));
+        final int used = headBuffer.position();
+        final String second = write(HttpResponseWriter.encode(mockRequest, HttpResponseCode.OK, Optional.of(mockResponse), headBuffer));
+        assertEquals(first.length() - "Test Content".length(), used);
+        assertEquals(used * 2, headBuffer.position());
+        assertEquals(first.substring(0, 15), second.substring(0, 15));
+    }
+    
+    @Test
+    public void testDateCachedWithinSecond()
+    {
+        final byte[] first = HttpDate.now();
+        final byte[] second = HttpDate.now();
+        assertEquals(29, first.length);
+        if (new String(first, StandardCharsets.US_ASCII).equals(new String(second, StandardCharsets.US_ASCII)))
+        {
+            assertSame(first, second);
+        }
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(784111777000L));
+        assertEquals(784111777000L, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+    }
+    
+    private static String write(final PendingResponse response) throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        while (! response.writeTo(Channels.newChannel(os)));
+        response.close();
+        return new String(os.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
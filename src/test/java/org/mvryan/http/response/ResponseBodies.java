@@ -0,0 +1,29 @@
+package org.mvryan.http.response;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Test helpers for response bodies.
+ */
+public final class ResponseBodies
+{
+    private ResponseBodies()
+    {
+    }
+
+    /**
+     * @return everything the body sends, drained through a stream channel
+     */
+    public static String read(final ResponseBody body) throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try (final ResponseBody.Transfer transfer = body.open())
+        {
+            while (! transfer.transferTo(Channels.newChannel(os)));
+        }
+        return new String(os.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
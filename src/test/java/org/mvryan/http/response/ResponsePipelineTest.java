@@ -0,0 +1,171 @@
+package org.mvryan.http.response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.log.AccessLog;
+import org.mvryan.http.metrics.MeteredCache;
+import org.mvryan.http.metrics.Metrics;
+
+import com.google.common.collect.ImmutableMap;
+
+public class ResponsePipelineTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private ResponsePipeline sut = null;
+    private CountingChannel channel = null;
+    private Metrics metrics = null;
+    
+    @Before
+    public void before()
+    {
+        metrics = new Metrics(ImmutableMap.<String, MeteredCache>of());
+        sut = new ResponsePipeline("4", metrics, new AccessLog("", "combined", "16", "drop", "blocking", "1000", "0", "0", metrics));
+        channel = new CountingChannel(Integer.MAX_VALUE);
+    }
+    
+    @Test
+    public void testInMemoryResponsesCoalesced() throws IOException
+    {
+        sut.add(response("head1|", "body1|"));
+        sut.add(response("head2|", null));
+        sut.add(response("head3|", "body3|"));
+        assertTrue(sut.writeTo(channel));
+        assertEquals("head1|body1|head2|head3|body3|", channel.getContent());
+        assertEquals(1, channel.writes);
+        assertTrue(sut.isEmpty());
+    }
+    
+    @Test
+    public void testFileBodyWrittenInOrder() throws IOException
+    {
+        final File file = folder.newFile("body.txt");
+        Files.write(file.toPath(), "file|".getBytes(StandardCharsets.US_ASCII));
+        
+        sut.add(response("head1|", "body1|"));
+        sut.add(new PendingResponse(buffer("head2|"), new FileRegionBody(file.toPath(), 0, file.length())));
+        sut.add(response("head3|", "body3|"));
+        while (! sut.writeTo(channel));
+        assertEquals("head1|body1|head2|file|head3|body3|", channel.getContent());
+    }
+    
+    @Test
+    public void testResumesAfterPartialWrite() throws IOException
+    {
+        channel = new CountingChannel(5);
+        sut.add(response("head1|", "body1|"));
+        sut.add(response("head2|", "body2|"));
+        assertFalse(sut.writeTo(channel));
+        assertFalse(sut.isEmpty());
+        while (! sut.writeTo(channel));
+        assertEquals("head1|body1|head2|body2|", channel.getContent());
+    }
+    
+    @Test
+    public void testDepthLimit()
+    {
+        for (int i=0; i<3; i++)
+        {
+            sut.add(response("head|", null));
+            assertFalse(sut.isFull());
+        }
+        sut.add(response("head|", null));
+        assertTrue(sut.isFull());
+    }
+    
+    @Test
+    public void testSentResponsesCounted() throws IOException
+    {
+        channel = new CountingChannel(5);
+        sut.add(new PendingResponse(buffer("head1|"), new BufferBody(buffer("body1|")), HttpResponseCode.OK, System.nanoTime()));
+        sut.add(new PendingResponse(buffer("head2|"), null, HttpResponseCode.FILE_NOT_FOUND, System.nanoTime()));
+        assertFalse(sut.writeTo(channel));
+        assertEquals(0, metrics.getBytesSent());
+        while (! sut.writeTo(channel));
+        assertEquals(18, metrics.getBytesSent());
+        assertEquals(1, metrics.getLatencies().get("2xx").getCount());
+        assertEquals(1, metrics.getLatencies().get("4xx").getCount());
+    }
+    
+    private static PendingResponse response(final String head, final String body)
+    {
+        return new PendingResponse(buffer(head), null == body ? null : new BufferBody(buffer(body)));
+    }
+    
+    private static ByteBuffer buffer(final String s)
+    {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+    
+    /**
+     * Accepts at most a fixed number of bytes per write call.
+     */
+    private static class CountingChannel implements GatheringByteChannel
+    {
+        private final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        private final int maxPerWrite;
+        int writes = 0;
+        
+        CountingChannel(final int maxPerWrite)
+        {
+            this.maxPerWrite = maxPerWrite;
+        }
+        
+        String getContent()
+        {
+            return new String(os.toByteArray(), StandardCharsets.US_ASCII);
+        }
+        
+        @Override
+        public int write(final ByteBuffer src)
+        {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+        
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length)
+        {
+            writes++;
+            int written = 0;
+            for (int i=offset; i<offset+length && written < maxPerWrite; i++)
+            {
+                while (srcs[i].hasRemaining() && written < maxPerWrite)
+                {
+                    os.write(srcs[i].get());
+                    written++;
+                }
+            }
+            return written;
+        }
+        
+        @Override
+        public long write(final ByteBuffer[] srcs)
+        {
+            return write(srcs, 0, srcs.length);
+        }
+        
+        @Override
+        public boolean isOpen()
+        {
+            return true;
+        }
+        
+        @Override
+        public void close() { }
+    }
+}
@@ -0,0 +1,81 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ByteRangeTest
+{
+    private static final long LENGTH = 1000;
+    
+    @Test
+    public void testSingleRange()
+    {
+        assertEquals(Arrays.asList(new ByteRange(0, 499)), ByteRange.parse("bytes=0-499", LENGTH));
+        assertEquals(500, ByteRange.parse("bytes=0-499", LENGTH).get(0).getLength());
+    }
+    
+    @Test
+    public void testOpenAndSuffixRanges()
+    {
+        assertEquals(Arrays.asList(new ByteRange(900, 999)), ByteRange.parse("bytes=900-", LENGTH));
+        assertEquals(Arrays.asList(new ByteRange(900, 999)), ByteRange.parse("bytes=-100", LENGTH));
+        assertEquals(Arrays.asList(new ByteRange(0, 999)), ByteRange.parse("bytes=-5000", LENGTH));
+    }
+    
+    @Test
+    public void testRangeClippedToLength()
+    {
+        assertEquals(Arrays.asList(new ByteRange(500, 999)), ByteRange.parse("bytes=500-5000", LENGTH));
+    }
+    
+    @Test
+    public void testMultipleRanges()
+    {
+        assertEquals(Arrays.asList(new ByteRange(0, 0), new ByteRange(10, 19), new ByteRange(999, 999)),
+                ByteRange.parse("bytes=0-0, 10-19,,-1", LENGTH));
+    }
+    
+    @Test
+    public void testUnsatisfiable()
+    {
+        assertTrue(ByteRange.parse("bytes=1000-", LENGTH).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", LENGTH).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-10", 0).isEmpty());
+        assertEquals(Arrays.asList(new ByteRange(0, 9)), ByteRange.parse("bytes=2000-3000,0-9", LENGTH));
+        assertEquals("bytes */1000", ByteRange.unsatisfiable(LENGTH));
+    }
+    
+    @Test
+    public void testMalformedIgnored()
+    {
+        assertNull(ByteRange.parse("items=0-10", LENGTH));
+        assertNull(ByteRange.parse("bytes=", LENGTH));
+        assertNull(ByteRange.parse("bytes=10", LENGTH));
+        assertNull(ByteRange.parse("bytes=10-5", LENGTH));
+        assertNull(ByteRange.parse("bytes=a-b", LENGTH));
+        assertNull(ByteRange.parse("bytes=+1-5", LENGTH));
+        assertNull(ByteRange.parse("bytes=--5", LENGTH));
+    }
+    
+    @Test
+    public void testTooManyRangesIgnored()
+    {
+        final StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i=1; i<=ByteRange.MAX_RANGES; i++)
+        {
+            header.append(",").append(i).append("-").append(i);
+        }
+        assertNull(ByteRange.parse(header.toString(), LENGTH));
+    }
+    
+    @Test
+    public void testContentRange()
+    {
+        assertEquals("bytes 10-19/1000", new ByteRange(10, 19).toContentRange(LENGTH));
+    }
+}
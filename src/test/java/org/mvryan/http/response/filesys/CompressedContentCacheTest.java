@@ -0,0 +1,92 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mvryan.http.response.filesys.TestFiles.attributes;
+import static org.mvryan.http.response.filesys.TestFiles.writeFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.base.Strings;
+
+public class CompressedContentCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private CompressedContentCache sut = null;
+    
+    @Before
+    public void before()
+    {
+        sut = new CompressedContentCache("16", String.valueOf(64 * 1024), String.valueOf(1024 * 1024), "1000");
+    }
+    
+    @Test
+    public void testCompressesOncePerVersion() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", Strings.repeat("Test Content ", 100));
+        final ResponseBody first = get(file, ContentEncoding.GZIP);
+        assertNotNull(first);
+        assertTrue(first.getContentLength() < file.length());
+        assertEquals(first.asByteBuffer().array(), get(file, ContentEncoding.GZIP).asByteBuffer().array());
+        
+        Files.write(file.toPath(), Strings.repeat("Changed Test Content ", 100).getBytes());
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+        assertFalse(first.getContentLength() == get(file, ContentEncoding.GZIP).getContentLength());
+    }
+    
+    @Test
+    public void testVariantPerEncoding() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", Strings.repeat("Test Content ", 100));
+        assertFalse(get(file, ContentEncoding.GZIP).getContentLength() == get(file, ContentEncoding.DEFLATE).getContentLength());
+    }
+    
+    @Test
+    public void testSizeLimits() throws IOException
+    {
+        assertNull(get(writeFile(folder, "small.html", "Test"), ContentEncoding.GZIP));
+        assertNull(get(writeFile(folder, "large.html", Strings.repeat("x", 64 * 1024 + 1)), ContentEncoding.GZIP));
+    }
+    
+    @Test
+    public void testIncompressibleNotCompressed() throws IOException
+    {
+        assertNull(get(writeFile(folder, "test.txt", "0123456789abcdefghij"), ContentEncoding.GZIP));
+    }
+    
+    @Test
+    public void testNoBudget() throws IOException
+    {
+        sut = new CompressedContentCache("16", String.valueOf(64 * 1024), String.valueOf(1024 * 1024), "0");
+        assertNull(get(writeFile(folder, "test.html", Strings.repeat("Test Content ", 100)), ContentEncoding.GZIP));
+    }
+    
+    @Test
+    public void testCompressibleTypes()
+    {
+        assertTrue(CompressedContentCache.isCompressible("text/html"));
+        assertTrue(CompressedContentCache.isCompressible("application/json"));
+        assertTrue(CompressedContentCache.isCompressible("image/svg+xml"));
+        assertFalse(CompressedContentCache.isCompressible("image/png"));
+        assertFalse(CompressedContentCache.isCompressible("application/octet-stream"));
+    }
+    
+    private ResponseBody get(final File file, final ContentEncoding encoding) throws IOException
+    {
+        return sut.get(file.toPath(), attributes(file), encoding);
+    }
+}
@@ -0,0 +1,76 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Test;
+
+public class ContentEncodingTest
+{
+    @Test
+    public void testNegotiate()
+    {
+        assertNull(ContentEncoding.negotiate(null));
+        assertNull(ContentEncoding.negotiate(""));
+        assertNull(ContentEncoding.negotiate("identity"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("gzip, deflate, br"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("deflate"));
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("x-gzip"));
+    }
+    
+    @Test
+    public void testNegotiateWithQuality()
+    {
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0.5, deflate"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, deflate;q=0.1"));
+        assertNull(ContentEncoding.negotiate("gzip;q=0"));
+    }
+    
+    @Test
+    public void testNegotiateWildcard()
+    {
+        assertEquals(ContentEncoding.GZIP, ContentEncoding.negotiate("*"));
+        assertEquals(ContentEncoding.DEFLATE, ContentEncoding.negotiate("gzip;q=0, *"));
+        assertNull(ContentEncoding.negotiate("*;q=0"));
+    }
+    
+    @Test
+    public void testAccepted()
+    {
+        assertTrue(ContentEncoding.GZIP.isAccepted("deflate, gzip;q=0.1"));
+        assertTrue(ContentEncoding.GZIP.isAccepted("*"));
+        assertFalse(ContentEncoding.GZIP.isAccepted("gzip;q=0, *"));
+        assertFalse(ContentEncoding.GZIP.isAccepted("deflate"));
+        assertFalse(ContentEncoding.GZIP.isAccepted(null));
+    }
+    
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final byte[] content = "Test Content Test Content Test Content".getBytes();
+        assertArrayEquals(content, readAll(new GZIPInputStream(new ByteArrayInputStream(ContentEncoding.GZIP.compress(content)))));
+        assertArrayEquals(content, readAll(new InflaterInputStream(new ByteArrayInputStream(ContentEncoding.DEFLATE.compress(content)))));
+    }
+    
+    private static byte[] readAll(final InputStream is) throws IOException
+    {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        final byte[] buf = new byte[1024];
+        int n;
+        while ((n = is.read(buf)) > 0)
+        {
+            os.write(buf, 0, n);
+        }
+        return os.toByteArray();
+    }
+}
@@ -0,0 +1,192 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.response.ResponseBodies;
+import org.mvryan.http.response.ResponseBody;
+
+public class DirectoryIndexTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private DirectoryIndex sut = null;
+    private Path directory = null;
+    
+    @Before
+    public void before() throws IOException
+    {
+        sut = new DirectoryIndex(String.valueOf(1024 * 1024));
+        directory = folder.newFolder("dir").toPath();
+        writeFile("b.txt", 30, 3000);
+        writeFile("a.txt", 10, 1000);
+        writeFile("c <&>.txt", 20, 2000);
+    }
+    
+    @Test
+    public void testHtmlIndex() throws IOException
+    {
+        final String html = render(DirectoryIndex.Page.DEFAULT);
+        assertTrue(html.startsWith("<html><head><title>Index of /dir/</title></head>\n"));
+        assertTrue(html.contains("<a href=\"/\">..</a><br/>\n"));
+        assertTrue(html.contains("<a href=\"/dir/a.txt\">a.txt</a><br/>\n"));
+        assertTrue(html.contains("<a href=\"/dir/c &lt;&amp;&gt;.txt\">c &lt;&amp;&gt;.txt</a><br/>\n"));
+        assertTrue(html.endsWith("</body></html>\n"));
+    }
+    
+    @Test
+    public void testSortedJsonIndex() throws IOException
+    {
+        assertEquals("{\"path\":\"/dir/\",\"offset\":0,\"entries\":[\n"
+                + "{\"name\":\"a.txt\",\"href\":\"/dir/a.txt\"},\n"
+                + "{\"name\":\"b.txt\",\"href\":\"/dir/b.txt\"},\n"
+                + "{\"name\":\"c <&>.txt\",\"href\":\"/dir/c <&>.txt\"}\n"
+                + "],\"more\":false}\n",
+                render(DirectoryIndex.Page.parse("format=json&sort=name")));
+    }
+    
+    @Test
+    public void testSortBySizeAndModified() throws IOException
+    {
+        assertEquals("b.txt,c <&>.txt,a.txt", names(render(DirectoryIndex.Page.parse("format=json&sort=size&order=desc"))));
+        assertEquals("a.txt,c <&>.txt,b.txt", names(render(DirectoryIndex.Page.parse("format=json&sort=modified"))));
+    }
+    
+    @Test
+    public void testPaging() throws IOException
+    {
+        final String first = render(DirectoryIndex.Page.parse("format=json&sort=name&limit=2"));
+        assertEquals("a.txt,b.txt", names(first));
+        assertTrue(first.endsWith("\"more\":true}\n"));
+        
+        final String last = render(DirectoryIndex.Page.parse("format=json&sort=name&offset=2&limit=2"));
+        assertEquals("c <&>.txt", names(last));
+        assertTrue(last.endsWith("\"more\":false}\n"));
+        
+        assertTrue(render(DirectoryIndex.Page.parse("sort=name&limit=2")).contains("<a href=\"?offset=2&amp;limit=2&amp;sort=name&amp;order=asc\">Next</a>"));
+        assertEquals(2, names(render(DirectoryIndex.Page.parse("format=json&offset=1&limit=5"))).split(",").length);
+    }
+    
+    @Test
+    public void testCachedUntilDirectoryChanges() throws IOException
+    {
+        final DirectoryIndex.Page page = DirectoryIndex.Page.parse("format=json&sort=name");
+        final String before = render(page);
+        final ResponseBody cached = render(page, 0);
+        assertEquals(before.length(), cached.getContentLength());
+        assertEquals(before, read(cached));
+        
+        writeFile("d.txt", 1, 4000);
+        final ResponseBody changed = render(page, 1);
+        assertTrue(changed.getContentLength() < 0);
+        assertTrue(read(changed).contains("d.txt"));
+        assertTrue(render(page, 1).getContentLength() > 0);
+        
+        sut.invalidate(directory);
+        assertTrue(render(page, 1).getContentLength() < 0);
+    }
+    
+    @Test
+    public void testParse()
+    {
+        assertEquals(DirectoryIndex.Page.DEFAULT, DirectoryIndex.Page.parse(null));
+        assertEquals(DirectoryIndex.Page.DEFAULT, DirectoryIndex.Page.parse("unrelated=1"));
+        
+        final DirectoryIndex.Page page = DirectoryIndex.Page.parse("order=desc&offset=10&limit=20");
+        assertEquals(DirectoryIndex.SORT_NAME, page.getSort());
+        assertTrue(page.isDescending());
+        assertEquals(10, page.getOffset());
+        assertEquals(20, page.getLimit());
+        assertFalse(DirectoryIndex.Page.parse("format=json").getContentType().contains("html"));
+        
+        assertNull(DirectoryIndex.Page.parse("format=xml"));
+        assertNull(DirectoryIndex.Page.parse("sort=owner"));
+        assertNull(DirectoryIndex.Page.parse("order=up"));
+        assertNull(DirectoryIndex.Page.parse("offset=-1"));
+        assertNull(DirectoryIndex.Page.parse("limit=0"));
+        assertNull(DirectoryIndex.Page.parse("limit=many"));
+        assertNull(DirectoryIndex.Page.parse("offset=2147483648"));
+        assertNull(DirectoryIndex.Page.parse("limit=9223372036854775807"));
+        assertNull(DirectoryIndex.Page.parse("offset=99999999999999999999"));
+    }
+    
+    @Test
+    public void testHugePages() throws IOException
+    {
+        final DirectoryIndex.Page largest = DirectoryIndex.Page.parse("format=json&sort=name&offset=2147483647&limit=2147483647");
+        assertEquals(Integer.MAX_VALUE, DirectoryIndex.entriesNeeded(largest));
+        assertEquals("", names(render(largest)));
+        assertEquals("a.txt,b.txt,c <&>.txt", names(render(DirectoryIndex.Page.parse("format=json&sort=name&offset=0&limit=2147483647"))));
+        
+        final DirectoryIndex.Page overflowing = new DirectoryIndex.Page(DirectoryIndex.FORMAT_JSON, DirectoryIndex.SORT_NAME,
+                false, Long.MAX_VALUE, Long.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, DirectoryIndex.entriesNeeded(overflowing));
+        assertEquals("", names(render(overflowing)));
+    }
+    
+    private String render(final DirectoryIndex.Page page) throws IOException
+    {
+        return read(render(page, 0));
+    }
+    
+    private ResponseBody render(final DirectoryIndex.Page page, final long lastModified)
+    {
+        return sut.render(directory, "/dir/", lastModified, page);
+    }
+    
+    private void writeFile(final String name, final int size, final long lastModified) throws IOException
+    {
+        final File file = new File(directory.toFile(), name);
+        Files.write(file.toPath(), new byte[size]);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(lastModified));
+    }
+    
+    private static String names(final String json)
+    {
+        final StringBuilder sb = new StringBuilder();
+        for (final String line : json.split("\n"))
+        {
+            if (line.startsWith("{\"name\":\""))
+            {
+                sb.append(sb.length() > 0 ? "," : "").append(line.substring(9, line.indexOf('"', 9)));
+            }
+        }
+        return sb.toString();
+    }
+    
+    private static String read(final ResponseBody body) throws IOException
+    {
+        final String encoded = ResponseBodies.read(body);
+        return body.getContentLength() < 0 ? decode(encoded) : encoded;
+    }
+    
+    private static String decode(final String chunked)
+    {
+        final StringBuilder sb = new StringBuilder();
+        int position = 0;
+        while (true)
+        {
+            final int lineEnd = chunked.indexOf("\r\n", position);
+            final int size = Integer.parseInt(chunked.substring(position, lineEnd), 16);
+            if (0 == size)
+            {
+                return sb.toString();
+            }
+            sb.append(chunked, lineEnd + 2, lineEnd + 2 + size);
+            position = lineEnd + 2 + size + 2;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DocumentRootPreloaderTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder outside = new TemporaryFolder();
+
+    private FileMetadataCache metadataCache = null;
+    private HeapContentCache contentCache = null;
+
+    @Before
+    public void before() throws IOException
+    {
+        metadataCache = new FileMetadataCache("60000", "1000", Boolean.FALSE.toString(), new FilesystemResolver());
+        contentCache = new HeapContentCache(String.valueOf(1024 * 1024), "100");
+        writeFile(folder.getRoot(), "a.html", 40);
+        final File directory = folder.newFolder("sub");
+        writeFile(directory, "b.html", 40);
+        writeFile(directory, "c.html", 40);
+        writeFile(directory, "large.bin", 200);
+    }
+
+    @Test
+    public void testPreloadsTree() throws IOException
+    {
+        assertEquals(120, newPreloader("1000", true).preload());
+    }
+
+    @Test
+    public void testStopsAtBudget() throws IOException
+    {
+        assertEquals(80, newPreloader("100", true).preload());
+    }
+
+    @Test
+    public void testDisabled() throws IOException
+    {
+        assertEquals(0, newPreloader("0", true).preload());
+    }
+
+    @Test
+    public void testSymbolicLinksNotFollowed() throws IOException
+    {
+        writeFile(outside.getRoot(), "d.html", 40);
+        Files.createSymbolicLink(folder.getRoot().toPath().resolve("outside"), outside.getRoot().toPath());
+        Files.createSymbolicLink(folder.getRoot().toPath().resolve("d.html"), outside.getRoot().toPath().resolve("d.html"));
+        Files.createSymbolicLink(folder.getRoot().toPath().resolve("sub/loop"), folder.getRoot().toPath());
+        assertEquals(120, newPreloader("1000", true).preload());
+    }
+
+    @Test
+    public void testMetadataOnlyWithoutCache() throws IOException
+    {
+        final FileContentCache mockCache = mock(FileContentCache.class);
+        final DocumentRootPreloader sut = new DocumentRootPreloader(folder.getRoot().getPath(), "1000",
+                Boolean.FALSE.toString(), metadataCache, mockCache);
+        assertEquals(0, sut.preload());
+        verify(mockCache, never()).get(any(Path.class), any(BasicFileAttributes.class));
+    }
+
+    private DocumentRootPreloader newPreloader(final String maxBytes, final boolean cacheEnabled)
+    {
+        return new DocumentRootPreloader(folder.getRoot().getPath(), maxBytes,
+                String.valueOf(cacheEnabled), metadataCache, contentCache);
+    }
+
+    private static void writeFile(final File directory, final String name, final int size) throws IOException
+    {
+        Files.write(new File(directory, name).toPath(), new byte[size]);
+    }
+}
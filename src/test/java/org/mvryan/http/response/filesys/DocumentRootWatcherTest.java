@@ -0,0 +1,118 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DocumentRootWatcherTest
+{
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FileMetadataCache metadataCache = null;
+    private FileContentCache contentCache = null;
+    private DocumentRootWatcher sut = null;
+
+    @Before
+    public void before() throws IOException
+    {
+        metadataCache = new FileMetadataCache("60000", "1000", Boolean.FALSE.toString(), new FilesystemResolver());
+        contentCache = mock(FileContentCache.class);
+        sut = new DocumentRootWatcher(folder.getRoot().getPath(), Boolean.TRUE.toString(), "10000",
+                metadataCache, contentCache, mock(MappedFileCache.class),
+                mock(CompressedContentCache.class), mock(SidecarFileCache.class), mock(DirectoryIndex.class));
+        sut.start();
+    }
+
+    @After
+    public void after()
+    {
+        sut.stop();
+    }
+
+    @Test
+    public void testModifiedFileInvalidated() throws Exception
+    {
+        final Path path = writeFile(folder.getRoot(), "test.html", "Test Content");
+        assertEquals(12, metadataCache.get(path).getSize());
+
+        Files.write(path, "Changed Test Content".getBytes());
+        verify(contentCache, timeout(TIMEOUT_MILLIS).atLeastOnce()).invalidate(path);
+        assertEquals(20, waitForSize(path, 20));
+    }
+
+    @Test
+    public void testCreatedFileInvalidated() throws Exception
+    {
+        final Path path = folder.getRoot().toPath().resolve("new.html");
+        assertNull(metadataCache.get(path));
+
+        writeFile(folder.getRoot(), "new.html", "Test Content");
+        verify(contentCache, timeout(TIMEOUT_MILLIS).atLeastOnce()).invalidate(path);
+        assertNotNull(metadataCache.get(path));
+    }
+
+    @Test
+    public void testNewDirectoryWatched() throws Exception
+    {
+        final File directory = new File(folder.getRoot(), "new");
+        assertFalse(sut.isWatching(directory.toPath()));
+        assertTrue(directory.mkdir());
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (! sut.isWatching(directory.toPath()) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        assertTrue(sut.isWatching(directory.toPath()));
+
+        final Path path = writeFile(directory, "test.html", "Test Content");
+        verify(contentCache, timeout(TIMEOUT_MILLIS).atLeastOnce()).invalidate(path);
+    }
+
+    @Test
+    public void testDisabled() throws IOException
+    {
+        final DocumentRootWatcher disabled = new DocumentRootWatcher(folder.getRoot().getPath(),
+                Boolean.FALSE.toString(), "10000", metadataCache, contentCache, mock(MappedFileCache.class),
+                mock(CompressedContentCache.class), mock(SidecarFileCache.class), mock(DirectoryIndex.class));
+        disabled.start();
+        assertFalse(disabled.isWatching(folder.getRoot().toPath()));
+        disabled.stop();
+    }
+
+    private long waitForSize(final Path path, final long size) throws Exception
+    {
+        // The modify event may arrive before the write has finished
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (metadataCache.get(path).getSize() != size && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(10);
+        }
+        return metadataCache.get(path).getSize();
+    }
+
+    private static Path writeFile(final File directory, final String name, final String content) throws IOException
+    {
+        final Path path = new File(directory, name).toPath();
+        Files.write(path, content.getBytes());
+        return path;
+    }
+}
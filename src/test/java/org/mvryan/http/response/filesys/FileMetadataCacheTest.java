@@ -0,0 +1,127 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mvryan.http.response.filesys.TestFiles.writeFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.response.HttpDate;
+
+public class FileMetadataCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private FileMetadataCache sut = null;
+    
+    @Before
+    public void before()
+    {
+        sut = new FileMetadataCache("60000", "1000", Boolean.FALSE.toString(), new FilesystemResolver());
+    }
+    
+    @Test
+    public void testValidators() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        final FileMetadata metadata = sut.get(file.toPath());
+        assertEquals(file.length(), metadata.getSize());
+        assertEquals(file.lastModified(), metadata.getLastModified());
+        assertFalse(metadata.isDirectory());
+        assertTrue(metadata.isReadable());
+        assertNull(metadata.getDefaultDocument());
+        assertEquals(HttpResponseStrategy.CONTENT_TYPE_TEXT_HTML, metadata.getContentType());
+        assertEquals(String.format("\"%x-%x\"", file.length(), file.lastModified()), metadata.getETag());
+        assertEquals(HttpDate.format(file.lastModified()), metadata.getLastModifiedHeader());
+    }
+    
+    @Test
+    public void testMissingFile() throws IOException
+    {
+        assertNull(sut.get(new File(folder.getRoot(), "missing.html").toPath()));
+    }
+    
+    @Test
+    public void testDefaultDocument() throws IOException
+    {
+        final File dir = folder.newFolder("dir");
+        folder.newFolder("dir", "index.html");
+        final File defaultDocument = writeFile(folder, "dir/index.htm", "Test Content");
+        final FileMetadata metadata = sut.get(dir.toPath());
+        assertTrue(metadata.isDirectory());
+        assertEquals(defaultDocument.toPath(), metadata.getDefaultDocument());
+        
+        // Found through the cache, so the candidates are cached as well
+        assertTrue(sut.get(dir.toPath().resolve("index.html")).isDirectory());
+        assertNull(sut.get(folder.newFolder("empty").toPath()).getDefaultDocument());
+    }
+    
+    @Test
+    public void testMetadataCached() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        final FileMetadata metadata = sut.get(file.toPath());
+        touch(file);
+        assertEquals(metadata, sut.get(file.toPath()));
+        
+        sut.invalidate(file.toPath());
+        assertNotEquals(metadata, sut.get(file.toPath()));
+    }
+    
+    @Test
+    public void testUncachedLeavesCacheAlone() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        final FileMetadata metadata = sut.get(file.toPath());
+        touch(file);
+        assertEquals(file.lastModified(), sut.getUncached(file.toPath()).getLastModified());
+        assertEquals(metadata, sut.get(file.toPath()));
+        assertEquals(1, sut.size());
+    }
+    
+    @Test
+    public void testContentHashETag() throws Exception
+    {
+        sut = new FileMetadataCache("60000", "1000", Boolean.TRUE.toString(), new FilesystemResolver());
+        final File file = writeFile(folder, "test.html", "Test Content");
+        final String initial = sut.get(file.toPath()).getETag();
+        final String hashed = awaitETagChange(file, initial);
+        
+        // Same bytes, new modification time: the tag survives
+        touch(file);
+        sut.invalidate(file.toPath());
+        final String retagged = sut.get(file.toPath()).getETag();
+        assertNotEquals(hashed, retagged);
+        assertEquals(hashed, awaitETagChange(file, retagged));
+    }
+    
+    private String awaitETagChange(final File file, final String eTag) throws Exception
+    {
+        for (int i=0; i<200; i++)
+        {
+            final String current = sut.get(file.toPath()).getETag();
+            if (! current.equals(eTag))
+            {
+                return current;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("ETag never changed from " + eTag);
+    }
+    
+    private static void touch(final File file) throws IOException
+    {
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+    }
+}
@@ -1,22 +1,41 @@
 package org.mvryan.http.response.filesys;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.mvryan.http.response.ResponseBodies.read;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mvryan.http.modules.ConfigurationModule;
 import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.BufferBody;
+import org.mvryan.http.response.FileRegionBody;
+import org.mvryan.http.response.HttpDate;
 import org.mvryan.http.response.HttpResponse;
 import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.ResponseBody;
 
 import com.google.common.collect.Maps;
 import com.google.inject.AbstractModule;
@@ -30,12 +49,15 @@ public class FilesystemResponseStrategyTest
     
     private final FilesystemResolver resolver = mock(FilesystemResolver.class);
     private final HttpRequest mockRequest = mock(HttpRequest.class);
-    private final File mockDocRoot = mock(File.class);
     private final File mockSubRoot = mock(File.class);
     private final File mockTestFile = mock(File.class);
     private final File mockIndexFile = mock(File.class);
     
     private static final String docRoot = "/docroot";
+    private static final long ZERO_COPY_THRESHOLD = 1024;
+    private static final Path testFilePath = Paths.get(docRoot, "get", "test.html");
+    private static final Path indexFilePath = Paths.get(docRoot, "get", "index.html");
+    private static final long LAST_MODIFIED = 1400000000000L;
     
     private String testContent = "Test Content";
     
@@ -46,8 +68,7 @@ public class FilesystemResponseStrategyTest
     @Before
     public void before() throws IOException
     {
-        when(resolver.getFile(docRoot)).thenReturn(mockDocRoot);
-        when(resolver.getFile(docRoot + "/get/")).thenReturn(mockSubRoot);
+        when(resolver.getFile(docRoot + "/get")).thenReturn(mockSubRoot);
         when(resolver.getFile(docRoot + "/get/test.html")).thenReturn(mockTestFile);
         when(resolver.getFile(docRoot + "/get/test.txt")).thenReturn(mockTestFile);
         when(resolver.getFile(docRoot + "/get/test.xml")).thenReturn(mockTestFile);
@@ -55,23 +76,20 @@ public class FilesystemResponseStrategyTest
         when(resolver.getFile(docRoot + "/get/test.jpg")).thenReturn(mockTestFile);
         when(resolver.readFileBytes(any(File.class))).thenReturn(testContent.getBytes());
         
-        when(mockDocRoot.exists()).thenReturn(true);
-        when(mockDocRoot.isDirectory()).thenReturn(true);
-        when(mockDocRoot.canRead()).thenReturn(true);
+        when(resolver.getFile(indexFilePath.toString())).thenReturn(mockIndexFile);
+        when(resolver.isReadable(any(Path.class))).thenReturn(true);
         
-        when(mockSubRoot.exists()).thenReturn(true);
-        when(mockSubRoot.isDirectory()).thenReturn(true);
-        when(mockSubRoot.canRead()).thenReturn(true);
+        mockAttributes(Paths.get(docRoot), true, 0);
+        
+        when(mockSubRoot.toPath()).thenReturn(Paths.get(docRoot, "get"));
+        mockAttributes(Paths.get(docRoot, "get"), true, 0);
         
-        when(mockTestFile.exists()).thenReturn(true);
-        when(mockTestFile.canRead()).thenReturn(true);
-        when(mockTestFile.isDirectory()).thenReturn(false);
         when(mockTestFile.getName()).thenReturn(new String("test.html"));
+        when(mockTestFile.toPath()).thenReturn(testFilePath);
+        mockAttributes(testFilePath, false, testContent.length());
 
-        when(mockIndexFile.exists()).thenReturn(true);
-        when(mockIndexFile.canRead()).thenReturn(true);
-        when(mockIndexFile.isDirectory()).thenReturn(false);
         when(mockIndexFile.getName()).thenReturn("index.html");
+        when(mockIndexFile.toPath()).thenReturn(indexFilePath);
         
         mockHeaders.put("Host", "localhost");
         mockHeaders.put("Connection", "keep-alive");
@@ -96,6 +114,24 @@ public class FilesystemResponseStrategyTest
             {
                 bind(String.class).annotatedWith(Names.named(ConfigurationModule.DOCUMENT_ROOT)).toInstance(docRoot);
                 bind(String.class).annotatedWith(Names.named(ConfigurationModule.ALLOW_DIRECTORY_INDEX)).toInstance(Boolean.FALSE.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.CACHE_ENABLED)).toInstance(Boolean.FALSE.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.ZERO_COPY_THRESHOLD)).toInstance(String.valueOf(ZERO_COPY_THRESHOLD));
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.CACHE_MAX_BYTES)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.CACHE_MAX_FILE_SIZE)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.MMAP_ENABLED)).toInstance(Boolean.FALSE.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.MMAP_MAX_BYTES)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.MMAP_MAX_FILE_SIZE)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.COMPRESSION_ENABLED)).toInstance(Boolean.FALSE.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.COMPRESSION_MIN_SIZE)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.COMPRESSION_MAX_SIZE)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.COMPRESSION_CACHE_MAX_BYTES)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.COMPRESSION_CPU_BUDGET)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.PRECOMPRESSED_ENABLED)).toInstance(Boolean.FALSE.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.PRECOMPRESSED_LOOKUP_TTL)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.METADATA_CACHE_TTL)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.METADATA_CACHE_MAX_ENTRIES)).toInstance("0");
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.ETAG_CONTENT_HASH)).toInstance(Boolean.FALSE.toString());
+                bind(String.class).annotatedWith(Names.named(ConfigurationModule.INDEX_CACHE_MAX_BYTES)).toInstance("0");
                 bind(FilesystemResolver.class).toInstance(resolver);
                 bind(HttpResponseStrategy.class).to(FilesystemResponseStrategy.class);
             }
@@ -113,19 +149,51 @@ public class FilesystemResponseStrategyTest
     }
     
     @Test
-    public void testDetermineDefaultFileResponse() throws MalformedURLException
+    public void testLargeFileSentFromFileRegion() throws IOException
+    {
+        final ResponseBody fileBody = new FileRegionBody(new File(docRoot + "/get/test.html").toPath(), 0, ZERO_COPY_THRESHOLD);
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        mockAttributes(testFilePath, false, ZERO_COPY_THRESHOLD);
+        when(resolver.getFileBody(mockTestFile, 0, ZERO_COPY_THRESHOLD)).thenReturn(fileBody);
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.OK, response.getResponseCode());
+        assertNull(response.getResponsePayload());
+        assertSame(fileBody, response.getResponseBody());
+    }
+    
+    @Test
+    public void testDetermineDefaultFileResponse() throws IOException
     {
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/"));
-        when(resolver.getDefaultHtmlFile(any(File.class))).thenReturn(mockIndexFile);
+        mockAttributes(indexFilePath, false, testContent.length());
         HttpResponse response = sut.determineResponse( mockRequest);
         assertEquals(HttpResponseCode.OK, response.getResponseCode());
+        verify(resolver).readFileBytes(mockIndexFile);
+    }
+    
+    @Test
+    public void testEquivalentPathsShareFile() throws IOException
+    {
+        for (final String path : new String[] { "/get/./test.html", "//get//test.html", "/get/sub/../test.html" })
+        {
+            when(mockRequest.getUri()).thenReturn(new URL("http://localhost" + path));
+            assertEquals(HttpResponseCode.OK, sut.determineResponse(mockRequest).getResponseCode());
+        }
+        verify(resolver, times(3)).getFile(docRoot + "/get/test.html");
+    }
+    
+    @Test
+    public void testPathOutsideDocumentRootNotFound() throws IOException
+    {
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/../etc/passwd"));
+        assertEquals(HttpResponseCode.FILE_NOT_FOUND, sut.determineResponse(mockRequest).getResponseCode());
+        verify(resolver, never()).getFile(anyString());
     }
     
     @Test
     public void testDetermineDirectoryIndexResponse() throws MalformedURLException
     {
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/"));
-        when(resolver.getDefaultHtmlFile(any(File.class))).thenReturn(null);
         HttpResponse response = sut.determineResponse( mockRequest);
         assertEquals(HttpResponseCode.FORBIDDEN, response.getResponseCode());
     }
@@ -134,16 +202,16 @@ public class FilesystemResponseStrategyTest
     public void testAccessDeniedResponse() throws MalformedURLException
     {
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
-        when(mockTestFile.canRead()).thenReturn(false);
+        when(resolver.isReadable(testFilePath)).thenReturn(false);
         HttpResponse response = sut.determineResponse( mockRequest);
         assertEquals(HttpResponseCode.FORBIDDEN, response.getResponseCode());
     }
     
     @Test
-    public void testFileNotFoundResponse() throws MalformedURLException
+    public void testFileNotFoundResponse() throws IOException
     {
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
-        when(mockTestFile.exists()).thenReturn(false);
+        when(resolver.readAttributesIfExists(testFilePath)).thenReturn(null);
         HttpResponse response = sut.determineResponse(mockRequest);
         assertEquals(HttpResponseCode.FILE_NOT_FOUND, response.getResponseCode());
     }
@@ -196,7 +264,7 @@ public class FilesystemResponseStrategyTest
     @Test
     public void testResponseNotAcceptable() throws IOException
     {
-        when(mockRequest.getHeaders()).thenReturn(mockHeadersRestrictedAccept);
+        when(mockRequest.getHeader("Accept")).thenReturn(mockHeadersRestrictedAccept.get("Accept"));
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
         when(resolver.resolveContentType(any(File.class))).thenReturn("text/html");
         HttpResponse response = sut.determineResponse( mockRequest);
@@ -207,7 +275,7 @@ public class FilesystemResponseStrategyTest
     @Test
     public void testResponseNotAcceptableWithList() throws IOException
     {
-        when(mockRequest.getHeaders()).thenReturn(mockHeadersRestrictedAcceptList);
+        when(mockRequest.getHeader("Accept")).thenReturn(mockHeadersRestrictedAcceptList.get("Accept"));
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
         when(resolver.resolveContentType(any(File.class))).thenReturn("text/html");
         HttpResponse response = sut.determineResponse( mockRequest);
@@ -218,7 +286,7 @@ public class FilesystemResponseStrategyTest
     @Test
     public void testResponseAcceptable() throws IOException
     {
-        when(mockRequest.getHeaders()).thenReturn(mockHeadersRestrictedAccept);
+        when(mockRequest.getHeader("Accept")).thenReturn(mockHeadersRestrictedAccept.get("Accept"));
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.txt"));
         when(resolver.resolveContentType(any(File.class))).thenReturn("text/plain");
         HttpResponse response = sut.determineResponse( mockRequest);
@@ -228,7 +296,7 @@ public class FilesystemResponseStrategyTest
     @Test
     public void testResponseAcceptableWithList() throws IOException
     {
-        when(mockRequest.getHeaders()).thenReturn(mockHeadersRestrictedAcceptList);
+        when(mockRequest.getHeader("Accept")).thenReturn(mockHeadersRestrictedAcceptList.get("Accept"));
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.xml"));
         when(resolver.resolveContentType(any(File.class))).thenReturn("text/xml");
         HttpResponse response = sut.determineResponse( mockRequest);
@@ -238,10 +306,157 @@ public class FilesystemResponseStrategyTest
     @Test
     public void testResponseAcceptableWithWildcard() throws IOException
     {
-        when(mockRequest.getHeaders()).thenReturn(mockHeaders);
+        when(mockRequest.getHeader("Accept")).thenReturn(mockHeaders.get("Accept"));
         when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
         when(resolver.resolveContentType(any(File.class))).thenReturn("madeupcontenttype/fake");
         HttpResponse response = sut.determineResponse( mockRequest);
         assertEquals(HttpResponseCode.OK, response.getResponseCode());
     }
+    
+    @Test
+    public void testValidatorHeaders() throws IOException
+    {
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.OK, response.getResponseCode());
+        assertEquals(eTag(), response.getETag());
+        assertEquals(HttpDate.format(LAST_MODIFIED), response.getLastModified());
+    }
+    
+    @Test
+    public void testIfNoneMatchNotModified() throws IOException
+    {
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_NONE_MATCH)).thenReturn("\"other\", W/" + eTag());
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.NOT_MODIFIED, response.getResponseCode());
+        assertEquals(eTag(), response.getETag());
+        assertNull(response.getResponseBody());
+        verify(resolver, never()).readFileBytes(any(File.class));
+    }
+    
+    @Test
+    public void testIfNoneMatchEncodedVariantNotModified() throws IOException
+    {
+        final String gzipETag = eTag().replaceFirst("\"$", "-gzip\"");
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_NONE_MATCH)).thenReturn(gzipETag);
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.NOT_MODIFIED, response.getResponseCode());
+        assertEquals(gzipETag, response.getETag());
+    }
+    
+    @Test
+    public void testIfNoneMatchChanged() throws IOException
+    {
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_NONE_MATCH)).thenReturn("\"other\"");
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_MODIFIED_SINCE)).thenReturn(HttpDate.format(LAST_MODIFIED));
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.OK, response.getResponseCode());
+        assertEquals(testContent, new String(response.getResponsePayload()));
+    }
+    
+    @Test
+    public void testIfModifiedSince() throws IOException
+    {
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_MODIFIED_SINCE)).thenReturn(HttpDate.format(LAST_MODIFIED));
+        assertEquals(HttpResponseCode.NOT_MODIFIED, sut.determineResponse(mockRequest).getResponseCode());
+        
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_MODIFIED_SINCE)).thenReturn(HttpDate.format(LAST_MODIFIED - 1000));
+        assertEquals(HttpResponseCode.OK, sut.determineResponse(mockRequest).getResponseCode());
+    }
+    
+    @Test
+    public void testSingleRange() throws IOException
+    {
+        mockRangeBodies();
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_RANGE)).thenReturn("bytes=5-");
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.PARTIAL_CONTENT, response.getResponseCode());
+        assertEquals("bytes 5-11/12", response.getContentRange());
+        assertEquals("bytes", response.getAcceptRanges());
+        assertEquals("Content", read(response.getResponseBody()));
+    }
+    
+    @Test
+    public void testMultipleRanges() throws IOException
+    {
+        mockRangeBodies();
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_RANGE)).thenReturn("bytes=0-3,-7");
+        when(resolver.resolveContentType(any(File.class))).thenReturn("text/html");
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.PARTIAL_CONTENT, response.getResponseCode());
+        assertNull(response.getContentRange());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        
+        final String boundary = response.getContentType().substring(response.getContentType().indexOf('=') + 1);
+        final String body = read(response.getResponseBody());
+        assertEquals(body.length(), response.getResponseBody().getContentLength());
+        assertEquals("\r\n--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes 0-3/12\r\n\r\nTest"
+                + "\r\n--" + boundary + "\r\nContent-Type: text/html\r\nContent-Range: bytes 5-11/12\r\n\r\nContent"
+                + "\r\n--" + boundary + "--\r\n", body);
+    }
+    
+    @Test
+    public void testRangeNotSatisfiable() throws IOException
+    {
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_RANGE)).thenReturn("bytes=100-");
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.RANGE_NOT_SATISFIABLE, response.getResponseCode());
+        assertEquals("bytes */12", response.getContentRange());
+        assertNull(response.getResponseBody());
+    }
+    
+    @Test
+    public void testIfRange() throws IOException
+    {
+        mockRangeBodies();
+        when(mockRequest.getUri()).thenReturn(new URL("http://localhost/get/test.html"));
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_RANGE)).thenReturn("bytes=5-");
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_RANGE)).thenReturn(eTag());
+        assertEquals(HttpResponseCode.PARTIAL_CONTENT, sut.determineResponse(mockRequest).getResponseCode());
+        
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_RANGE)).thenReturn(HttpDate.format(LAST_MODIFIED));
+        assertEquals(HttpResponseCode.PARTIAL_CONTENT, sut.determineResponse(mockRequest).getResponseCode());
+        
+        // The client's copy is stale, so it gets the whole file
+        when(mockRequest.getHeader(FilesystemResponseStrategy.HEADER_IF_RANGE)).thenReturn("\"other\"");
+        HttpResponse response = sut.determineResponse(mockRequest);
+        assertEquals(HttpResponseCode.OK, response.getResponseCode());
+        assertNull(response.getContentRange());
+        assertEquals(testContent, new String(response.getResponsePayload()));
+    }
+    
+    private void mockRangeBodies()
+    {
+        when(resolver.getFileBody(any(File.class), anyLong(), anyLong())).thenAnswer(new Answer<ResponseBody>()
+        {
+            @Override public ResponseBody answer(final InvocationOnMock invocation)
+            {
+                final int position = ((Long) invocation.getArguments()[1]).intValue();
+                final int count = ((Long) invocation.getArguments()[2]).intValue();
+                return new BufferBody(testContent.substring(position, position + count).getBytes());
+            }
+        });
+    }
+    
+        private void mockAttributes(final Path path, final boolean directory, final long size) throws IOException
+    {
+        final BasicFileAttributes attrs = mock(BasicFileAttributes.class);
+        when(attrs.size()).thenReturn(size);
+        when(attrs.lastModifiedTime()).thenReturn(FileTime.fromMillis(LAST_MODIFIED));
+        when(attrs.isRegularFile()).thenReturn(! directory);
+        when(attrs.isDirectory()).thenReturn(directory);
+        when(resolver.readAttributesIfExists(path)).thenReturn(attrs);
+    }
+    
+    private String eTag()
+    {
+        return String.format("\"%x-%x\"", testContent.length(), LAST_MODIFIED);
+    }
 }
@@ -0,0 +1,108 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mvryan.http.response.ResponseBodies.read;
+import static org.mvryan.http.response.filesys.TestFiles.attributes;
+import static org.mvryan.http.response.filesys.TestFiles.writeFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.base.Strings;
+
+public class HeapContentCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HeapContentCache sut = null;
+
+    @Before
+    public void before()
+    {
+        sut = new HeapContentCache(String.valueOf(1024 * 1024), "64");
+    }
+
+    @Test
+    public void testServesCachedContent() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        assertEquals("Test Content", read(get(file)));
+        assertEquals("Test Content", read(get(file)));
+    }
+
+    @Test
+    public void testReloadsChangedFile() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        assertEquals("Test Content", read(get(file)));
+
+        Files.write(file.toPath(), "Changed Test Content".getBytes());
+        assertEquals("Changed Test Content", read(get(file)));
+
+        Files.write(file.toPath(), "Changed Test Stuff!!".getBytes());
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+        assertEquals("Changed Test Stuff!!", read(get(file)));
+    }
+
+    @Test
+    public void testLargeFileNotCached() throws IOException
+    {
+        final File file = writeFile(folder, "large.txt", Strings.repeat("x", 65));
+        assertNull(get(file));
+    }
+
+    @Test
+    public void testNothingKeptWithoutBudget() throws IOException
+    {
+        sut = new HeapContentCache("0", "64");
+        final File file = writeFile(folder, "test.txt", Strings.repeat("a", 60));
+        final BasicFileAttributes attrs = attributes(file);
+        assertEquals(Strings.repeat("a", 60), read(sut.get(file.toPath(), attrs)));
+        
+        // Rewrite the file keeping its size and mtime, so a cached copy
+        // would still look valid
+        Files.write(file.toPath(), Strings.repeat("c", 60).getBytes());
+        Files.setLastModifiedTime(file.toPath(), attrs.lastModifiedTime());
+        assertEquals(Strings.repeat("c", 60), read(sut.get(file.toPath(), attrs)));
+    }
+    
+    @Test
+    public void testTracksBytesHeld() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        get(file);
+        get(file);
+        assertEquals(1, sut.stats().hitCount());
+        assertEquals(1, sut.size());
+        assertEquals(12, sut.bytes());
+
+        Files.write(file.toPath(), "Changed Test Content".getBytes());
+        get(file);
+        assertEquals(20, sut.bytes());
+
+        sut.invalidate(file.toPath());
+        assertEquals(0, sut.bytes());
+    }
+    
+    @Test
+    public void testDirectoryNotCached() throws IOException
+    {
+        assertNull(get(folder.getRoot()));
+    }
+
+    private ResponseBody get(final File file) throws IOException
+    {
+        return sut.get(file.toPath(), attributes(file));
+    }
+}
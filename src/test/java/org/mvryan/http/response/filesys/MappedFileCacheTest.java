@@ -0,0 +1,74 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mvryan.http.response.ResponseBodies.read;
+import static org.mvryan.http.response.filesys.TestFiles.attributes;
+import static org.mvryan.http.response.filesys.TestFiles.writeFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.base.Strings;
+
+public class MappedFileCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MappedFileCache sut = null;
+
+    @Before
+    public void before()
+    {
+        sut = new MappedFileCache(String.valueOf(1024 * 1024), "64");
+    }
+
+    @Test
+    public void testServesMappedContent() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        assertEquals("Test Content", read(get(file)));
+        assertEquals("Test Content", read(get(file)));
+    }
+
+    @Test
+    public void testRemapsChangedFile() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        assertEquals("Test Content", read(get(file)));
+
+        Files.write(file.toPath(), "Changed Test Content".getBytes());
+        assertEquals("Changed Test Content", read(get(file)));
+
+        Files.write(file.toPath(), "Changed Test Stuff!!".getBytes());
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+        assertEquals("Changed Test Stuff!!", read(get(file)));
+    }
+
+    @Test
+    public void testLargeFileNotMapped() throws IOException
+    {
+        final File file = writeFile(folder, "large.txt", Strings.repeat("x", 65));
+        assertNull(get(file));
+    }
+
+    @Test
+    public void testDirectoryNotMapped() throws IOException
+    {
+        assertNull(get(folder.getRoot()));
+    }
+
+    private ResponseBody get(final File file) throws IOException
+    {
+        return sut.get(file.toPath(), attributes(file));
+    }
+}
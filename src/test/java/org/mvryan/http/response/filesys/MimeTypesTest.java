@@ -0,0 +1,71 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MimeTypesTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void testBuiltInTypes()
+    {
+        final MimeTypes sut = new MimeTypes("");
+        assertEquals(HttpResponseStrategy.CONTENT_TYPE_TEXT_HTML, sut.lookup("index.html"));
+        assertEquals("text/css", sut.lookup("site.css"));
+        assertEquals("application/javascript", sut.lookup("app.min.js"));
+        assertEquals("image/png", sut.lookup("logo.png"));
+        assertEquals("image/svg+xml", sut.lookup("icon.svg"));
+        assertEquals("font/woff2", sut.lookup("font.woff2"));
+    }
+    
+    @Test
+    public void testIgnoresCase()
+    {
+        final MimeTypes sut = new MimeTypes("");
+        assertEquals("image/jpeg", sut.lookup("PHOTO.JPG"));
+        assertEquals(HttpResponseStrategy.CONTENT_TYPE_TEXT_HTML, sut.lookup("Index.Html"));
+    }
+    
+    @Test
+    public void testUnknownExtension()
+    {
+        final MimeTypes sut = new MimeTypes("");
+        assertNull(sut.lookup("file.madeup"));
+        assertNull(sut.lookup("README"));
+        assertNull(sut.lookup("trailing."));
+        assertNull(sut.lookup("html"));
+    }
+    
+    @Test
+    public void testMimeTypesFile() throws IOException
+    {
+        final File file = folder.newFile("mime.types");
+        Files.write(file.toPath(), ("# comment line\n"
+                + "application/x-custom\t\tcust  CUS2\n"
+                + "\n"
+                + "text/x-markdown md # overrides the built-in type\n"
+                + "application/x-no-extensions\n").getBytes());
+        final MimeTypes sut = new MimeTypes(file.getPath());
+        assertEquals("application/x-custom", sut.lookup("data.cust"));
+        assertEquals("application/x-custom", sut.lookup("data.cus2"));
+        assertEquals("text/x-markdown", sut.lookup("README.md"));
+        assertEquals("text/css", sut.lookup("site.css"));
+    }
+    
+    @Test
+    public void testMissingMimeTypesFile()
+    {
+        final MimeTypes sut = new MimeTypes(new File(folder.getRoot(), "missing.types").getPath());
+        assertEquals("text/css", sut.lookup("site.css"));
+    }
+}
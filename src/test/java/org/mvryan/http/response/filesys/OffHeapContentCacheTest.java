@@ -0,0 +1,131 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mvryan.http.response.ResponseBodies.read;
+import static org.mvryan.http.response.filesys.TestFiles.attributes;
+import static org.mvryan.http.response.filesys.TestFiles.writeFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mvryan.http.response.ResponseBody;
+
+import com.google.common.base.Strings;
+
+public class OffHeapContentCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OffHeapContentCache sut = null;
+
+    @Before
+    public void before()
+    {
+        sut = new OffHeapContentCache(String.valueOf(1024 * 1024), String.valueOf(64 * 1024));
+    }
+
+    @Test
+    public void testServesCachedContent() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        assertEquals("Test Content", read(get(file)));
+        assertEquals("Test Content", read(get(file)));
+        assertEquals(OffHeapContentCache.BLOCK_SIZE, sut.getUsedBytes());
+    }
+
+    @Test
+    public void testMultiBlockContent() throws IOException
+    {
+        final String content = Strings.repeat("x", OffHeapContentCache.BLOCK_SIZE * 3 + 17);
+        final File file = writeFile(folder, "test.txt", content);
+        assertEquals(content, read(get(file)));
+        assertEquals(OffHeapContentCache.BLOCK_SIZE * 4, sut.getUsedBytes());
+    }
+
+    @Test
+    public void testReloadsChangedFile() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        assertEquals("Test Content", read(get(file)));
+
+        Files.write(file.toPath(), "Changed Test Content".getBytes());
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() + 2000));
+        assertEquals("Changed Test Content", read(get(file)));
+        assertEquals(OffHeapContentCache.BLOCK_SIZE, sut.getUsedBytes());
+    }
+
+    @Test
+    public void testBlocksHeldUntilTransferCloses() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        final ResponseBody body = get(file);
+        final ResponseBody.Transfer transfer = body.open();
+
+        sut.invalidate(file.toPath());
+        assertEquals(OffHeapContentCache.BLOCK_SIZE, sut.getUsedBytes());
+
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        while (! transfer.transferTo(Channels.newChannel(os)));
+        transfer.close();
+        assertEquals("Test Content", new String(os.toByteArray()));
+        assertEquals(0, sut.getUsedBytes());
+    }
+
+    @Test
+    public void testFreedEntryFallsBackToFile() throws IOException
+    {
+        final File file = writeFile(folder, "test.html", "Test Content");
+        final ResponseBody body = get(file);
+        sut.invalidate(file.toPath());
+        assertEquals(0, sut.getUsedBytes());
+        assertEquals("Test Content", read(body));
+    }
+
+    @Test
+    public void testNotCachedWhenFull() throws IOException
+    {
+        sut = new OffHeapContentCache(String.valueOf(OffHeapContentCache.BLOCK_SIZE), String.valueOf(64 * 1024));
+        final File file = writeFile(folder, "test.txt", Strings.repeat("x", OffHeapContentCache.BLOCK_SIZE + 1));
+        assertNull(get(file));
+    }
+
+    @Test
+    public void testEvictsToCacheNewFilesWhenFull() throws IOException
+    {
+        sut = new OffHeapContentCache(String.valueOf(OffHeapContentCache.BLOCK_SIZE * 4), String.valueOf(64 * 1024));
+        for (int i=0; i<16; i++)
+        {
+            final File file = writeFile(folder, "test" + i + ".txt", "Test Content " + i);
+            assertNotNull(get(file));
+            final long misses = sut.stats().missCount();
+            assertEquals("Test Content " + i, read(get(file)));
+            assertEquals(misses, sut.stats().missCount());
+        }
+        assertTrue(sut.size() <= 4);
+        assertEquals(OffHeapContentCache.BLOCK_SIZE * sut.size(), sut.getUsedBytes());
+    }
+
+    @Test
+    public void testLargeFileNotCached() throws IOException
+    {
+        final File file = writeFile(folder, "large.txt", Strings.repeat("x", 64 * 1024 + 1));
+        assertNull(get(file));
+    }
+
+    private ResponseBody get(final File file) throws IOException
+    {
+        return sut.get(file.toPath(), attributes(file));
+    }
+}
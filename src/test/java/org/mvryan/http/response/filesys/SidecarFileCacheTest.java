@@ -0,0 +1,80 @@
+package org.mvryan.http.response.filesys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mvryan.http.response.filesys.TestFiles.writeFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SidecarFileCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private SidecarFileCache sut = null;
+    
+    @Before
+    public void before()
+    {
+        sut = new SidecarFileCache("60000", "10000", new FilesystemResolver());
+    }
+    
+    @Test
+    public void testFindsSidecar() throws IOException
+    {
+        final File file = writeFile(folder, "app.js", "Test Content");
+        final File sidecar = writeFile(folder, "app.js.gz", "gzipped");
+        final SidecarFileCache.Sidecar found = sut.get(file.toPath());
+        assertNotNull(found);
+        assertEquals(sidecar.toPath(), found.getPath());
+        assertEquals(sidecar.length(), found.getSize());
+    }
+    
+    @Test
+    public void testNoSidecar() throws IOException
+    {
+        assertNull(sut.get(writeFile(folder, "app.js", "Test Content").toPath()));
+    }
+    
+    @Test
+    public void testLookupCached() throws IOException
+    {
+        final File file = writeFile(folder, "app.js", "Test Content");
+        assertNull(sut.get(file.toPath()));
+        writeFile(folder, "app.js.gz", "gzipped");
+        assertNull(sut.get(file.toPath()));
+        
+        sut = new SidecarFileCache("0", "10000", new FilesystemResolver());
+        assertNotNull(sut.get(file.toPath()));
+    }
+    
+    @Test
+    public void testLookupsBounded() throws IOException
+    {
+        sut = new SidecarFileCache("60000", "2", new FilesystemResolver());
+        for (int i=0; i<10; i++)
+        {
+            assertNull(sut.get(folder.getRoot().toPath().resolve("missing" + i + ".js")));
+        }
+        assertTrue(sut.size() <= 2);
+    }
+    
+    @Test
+    public void testStaleSidecarIgnored() throws IOException
+    {
+        final File file = writeFile(folder, "app.js", "Test Content");
+        final File sidecar = writeFile(folder, "app.js.gz", "gzipped");
+        Files.setLastModifiedTime(sidecar.toPath(), FileTime.fromMillis(file.lastModified() - 2000));
+        assertNull(sut.get(file.toPath()));
+    }
+}
@@ -0,0 +1,30 @@
+package org.mvryan.http.response.filesys;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test helpers for files under a temporary folder.
+ */
+final class TestFiles
+{
+    private TestFiles()
+    {
+    }
+
+    static File writeFile(final TemporaryFolder folder, final String name, final String content) throws IOException
+    {
+        final File file = folder.newFile(name);
+        Files.write(file.toPath(), content.getBytes());
+        return file;
+    }
+
+    static BasicFileAttributes attributes(final File file) throws IOException
+    {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    }
+}
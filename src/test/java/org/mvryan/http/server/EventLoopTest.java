@@ -0,0 +1,269 @@
+package org.mvryan.http.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mvryan.http.modules.HttpServerModule;
+import org.mvryan.http.request.HttpRequest;
+import org.mvryan.http.response.HttpResponse;
+import org.mvryan.http.response.HttpResponseCode;
+import org.mvryan.http.response.HttpResponseFactory;
+import org.mvryan.http.response.ResponseBody;
+import org.mvryan.http.response.filesys.HttpResponseStrategy;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.util.Modules;
+
+public class EventLoopTest
+{
+    private final TimingWheel timer = new TimingWheel();
+    private final ExecutorService workers = Executors.newFixedThreadPool(2);
+    private final CountDownLatch slow = new CountDownLatch(1);
+    private final HttpResponseStrategy strategy = new HttpResponseStrategy()
+    {
+        @Override public HttpResponse determineResponse(final HttpRequest request)
+        {
+            if ("/slow".equals(request.getUri().getPath()))
+            {
+                Uninterruptibles.awaitUninterruptibly(slow, 5, TimeUnit.SECONDS);
+            }
+            return response("/fail".equals(request.getUri().getPath()) ? new FailingBody() : null);
+        }
+    };
+    private ServerSocketChannel serverChannel = null;
+    private EventLoop sut = null;
+    private Thread loopThread = null;
+
+    @Before
+    public void before() throws IOException
+    {
+        final HttpResponseFactory factory = new HttpResponseFactory(ImmutableMap.of(HttpResponseFactory.ROOT, strategy));
+        sut = new EventLoop(Guice.createInjector(Modules.override(new HttpServerModule()).with(new AbstractModule()
+        {
+            @Override protected void configure()
+            {
+                bind(HttpResponseFactory.class).toInstance(factory);
+            }
+        })), timer, workers);
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress("localhost", 0));
+        sut.accept(serverChannel, Collections.singletonList(sut));
+        loopThread = new Thread(sut, "http-io-test");
+        loopThread.start();
+    }
+
+    @After
+    public void after() throws IOException, InterruptedException
+    {
+        sut.stop();
+        loopThread.join(2000);
+        serverChannel.close();
+        timer.stop();
+        workers.shutdownNow();
+    }
+
+    @Test
+    public void testBuffersReusedAcrossConnections() throws Exception
+    {
+        for (int i=0; i<3; i++)
+        {
+            assertTrue(exchange("/ok").startsWith("HTTP/1.1 "));
+            awaitPooledBuffers(1);
+        }
+    }
+
+    @Test
+    public void testFailingResponseClosesOnlyItsConnection() throws Exception
+    {
+        final Socket other = connect();
+        final String failed = exchange("/fail");
+        assertTrue(failed, failed.startsWith("HTTP/1.1 200 OK"));
+        assertTrue(failed, failed.endsWith("\r\n\r\n"));
+        
+        // The loop and its other connections carry on
+        other.getOutputStream().write(request("/ok", true));
+        assertTrue(other.getInputStream().read() > 0);
+        other.close();
+        assertTrue(exchange("/ok").endsWith("ok"));
+    }
+
+    @Test
+    public void testSlowResponseDoesNotHoldUpLoop() throws Exception
+    {
+        try (final Socket waiting = new Socket())
+        {
+            waiting.connect(serverChannel.getLocalAddress());
+            waiting.setSoTimeout(2000);
+            waiting.getOutputStream().write(request("/slow", false));
+            
+            // Other connections on the loop are served while it waits
+            assertTrue(exchange("/ok").endsWith("ok"));
+            slow.countDown();
+            assertTrue(waiting.getInputStream().read() > 0);
+        }
+        finally
+        {
+            slow.countDown();
+        }
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopLoop() throws Exception
+    {
+        sut.execute(new Runnable()
+        {
+            @Override public void run()
+            {
+                throw new IllegalStateException("Task failure");
+            }
+        });
+        assertTrue(exchange("/ok").endsWith("ok"));
+    }
+
+    @Test
+    public void testConcurrentConnectionsPooledOnClose() throws Exception
+    {
+        final Socket first = connect();
+        final Socket second = connect();
+        first.close();
+        second.close();
+        awaitPooledBuffers(2);
+    }
+
+    private Socket connect() throws IOException
+    {
+        final Socket socket = new Socket();
+        socket.connect(serverChannel.getLocalAddress());
+        socket.setSoTimeout(2000);
+        // A request makes sure the loop has taken the connection on
+        socket.getOutputStream().write(request("/ok", true));
+        assertTrue(socket.getInputStream().read() > 0);
+        return socket;
+    }
+
+    private String exchange(final String path) throws IOException
+    {
+        try (final Socket socket = new Socket())
+        {
+            socket.connect(serverChannel.getLocalAddress());
+            socket.setSoTimeout(2000);
+            final OutputStream out = socket.getOutputStream();
+            out.write(request(path, false));
+            final InputStream in = socket.getInputStream();
+            final StringBuilder response = new StringBuilder();
+            int b;
+            while (-1 != (b = in.read()))
+            {
+                response.append((char) b);
+            }
+            return response.toString();
+        }
+    }
+
+    private static byte[] request(final String path, final boolean keepalive)
+    {
+        return String.format("GET %s HTTP/1.1\r\nHost: localhost\r\n%s\r\n", path, keepalive ? "Connection: keep-alive\r\n" : "")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private void awaitPooledBuffers(final int expected) throws InterruptedException
+    {
+        final long deadline = System.currentTimeMillis() + 2000;
+        int pooled;
+        do
+        {
+            pooled = pooledBuffers();
+        }
+        while (pooled != expected && System.currentTimeMillis() < deadline);
+        assertEquals(expected, pooled);
+    }
+
+    private int pooledBuffers() throws InterruptedException
+    {
+        // The pool may only be read on the loop's own thread
+        final AtomicInteger pooled = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        sut.execute(new Runnable()
+        {
+            @Override public void run()
+            {
+                pooled.set(sut.getPooledBuffers());
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        return pooled.get();
+    }
+
+    private static HttpResponse response(final ResponseBody body)
+    {
+        return new HttpResponse()
+        {
+            @Override public HttpResponseCode getResponseCode()
+            {
+                return HttpResponseCode.OK;
+            }
+
+            @Override public byte[] getResponsePayload()
+            {
+                return "ok".getBytes(StandardCharsets.US_ASCII);
+            }
+
+            @Override public String getContentType()
+            {
+                return "text/plain";
+            }
+
+            @Override public ResponseBody getResponseBody()
+            {
+                return null == body ? HttpResponse.super.getResponseBody() : body;
+            }
+        };
+    }
+
+    private static class FailingBody implements ResponseBody
+    {
+        @Override
+        public long getContentLength()
+        {
+            return 10;
+        }
+
+        @Override
+        public Transfer open()
+        {
+            return new Transfer()
+            {
+                @Override public boolean transferTo(final WritableByteChannel target)
+                {
+                    throw new IllegalStateException("Body failure");
+                }
+
+                @Override public void close()
+                {
+                }
+            };
+        }
+    }
+}
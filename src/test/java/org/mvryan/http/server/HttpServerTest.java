@@ -0,0 +1,44 @@
+package org.mvryan.http.server;
+
+import static org.junit.Assert.assertFalse;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class HttpServerTest
+{
+    @Test
+    public void testFailedStartStopsTimer() throws Exception
+    {
+        final Set<Thread> before = timerThreads();
+        try (final ServerSocket taken = new ServerSocket())
+        {
+            taken.bind(new InetSocketAddress(0));
+            new HttpServer().start(taken.getLocalPort());
+        }
+
+        for (final Thread thread : Sets.difference(timerThreads(), before))
+        {
+            thread.join(2000);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    private static Set<Thread> timerThreads()
+    {
+        final Set<Thread> threads = Sets.newHashSet();
+        for (final Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if ("http-timer".equals(thread.getName()))
+            {
+                threads.add(thread);
+            }
+        }
+        return threads;
+    }
+}
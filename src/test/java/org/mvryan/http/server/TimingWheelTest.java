@@ -0,0 +1,84 @@
+package org.mvryan.http.server;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mvryan.http.server.TimingWheel.Timeout;
+
+public class TimingWheelTest
+{
+    private TimingWheel sut = null;
+
+    @Before
+    public void before()
+    {
+        sut = new TimingWheel(10, 8);
+    }
+
+    @After
+    public void after()
+    {
+        sut.stop();
+    }
+
+    @Test
+    public void testTimeoutExpires() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Timeout timeout = sut.schedule(countDown(latch), 50);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(timeout.isExpired());
+    }
+
+    @Test
+    public void testTimeoutBeyondOneRevolution() throws InterruptedException
+    {
+        // 8 buckets of 10ms make one revolution 80ms
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        sut.schedule(countDown(latch), 200);
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 200);
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Timeout timeout = sut.schedule(countDown(latch), 50);
+        timeout.cancel();
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertFalse(timeout.isExpired());
+    }
+
+    @Test
+    public void testRescheduleDelaysExpiry() throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Timeout timeout = sut.schedule(countDown(latch), 100);
+        for (int i=0; i<5; i++)
+        {
+            Thread.sleep(50);
+            timeout.reschedule(100);
+        }
+        assertFalse(timeout.isExpired());
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+    }
+
+    private static Runnable countDown(final CountDownLatch latch)
+    {
+        return new Runnable()
+        {
+            @Override public void run()
+            {
+                latch.countDown();
+            }
+        };
+    }
+}